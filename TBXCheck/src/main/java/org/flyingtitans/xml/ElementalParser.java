@@ -34,6 +34,11 @@ import java.util.*;
  * <p>
  * It is assumed that the input reader is setup correctly to handle the input
  * dataset (i.e. a UTF-16 file has been checked for '0xFEFF' marker).</p>
+ * <p>
+ * The input is read in blocks into a <code>char[]</code> and each token is
+ * reported as a type plus an offset and length into that block; no string
+ * is built unless {@link #getString} is called. The block and the offsets
+ * are only valid until the next call to {@link #next}.</p>
  *
  * @author Lance Finn Helsten
  * @version $Id$
@@ -45,6 +50,9 @@ public class ElementalParser
     /** SCM information. */
     public static final String RCSID = "$Id$";
 
+    /** Default number of characters read from the reader at a time. */
+    public static final int DEFAULT_BLOCK_SIZE = 8192;
+
     /**
      * Defines elemental token that was processed.
      *
@@ -93,17 +101,29 @@ public class ElementalParser
     /** Type of token that was read by last parser action. */
     public Token type = Token.NONE;
 
-    /** The string value of the last token read. */
-    public String sval = "";
-
-    /** The reader to read the XML data for parsing. */
+    /** The reader to read the XML data for parsing, null for an array. */
     private Reader reader;
 
-    /** */
-    private int c;
+    /** Character block; the current token is buf[start, end). */
+    private char[] buf;
+
+    /** Index of the first character of the current token. */
+    private int start;
+
+    /** Index after the last character of the current token. */
+    private int end;
 
-    /** */
-    private final StringBuffer buf = new StringBuffer();
+    /** Number of valid characters in the block. */
+    private int limit;
+
+    /** Stream offset of the first character in the block. */
+    private long base;
+
+    /** The reader has reached end of stream. */
+    private boolean eof;
+
+    /** String value of the current token once it has been asked for. */
+    private String sval;
 
     /**
      * Create a new elemental parser.
@@ -127,6 +147,7 @@ public class ElementalParser
             reader = new InputStreamReader(in, "UTF-16");
         else
             reader = new InputStreamReader(in, "UTF-8");
+        buf = new char[DEFAULT_BLOCK_SIZE];
     }
 
     /**
@@ -137,7 +158,42 @@ public class ElementalParser
      */
     public ElementalParser(Reader rdr) throws IOException
     {
+        this(rdr, DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * Create a new elemental parser.
+     *
+     * @param rdr The file reader to parse from.
+     * @param blockSize Number of characters to read from the reader at a time.
+     * @throws IOException Any I/O exceptions during processing.
+     */
+    public ElementalParser(Reader rdr, int blockSize) throws IOException
+    {
+        if (blockSize < 1)
+            throw new IllegalArgumentException("Block size must be positive");
         reader = rdr;
+        buf = new char[blockSize];
+    }
+
+    /**
+     * Create a new elemental parser over characters already in memory. The
+     * array is scanned in place and is never modified.
+     *
+     * @param data The characters to parse.
+     * @param off Offset of the first character to parse.
+     * @param len Number of characters to parse.
+     */
+    public ElementalParser(char[] data, int off, int len)
+    {
+        if (off < 0 || len < 0 || off + len > data.length)
+            throw new IndexOutOfBoundsException();
+        buf = data;
+        start = off;
+        end = off;
+        limit = off + len;
+        base = -off;
+        eof = true;
     }
 
     /**
@@ -148,109 +204,209 @@ public class ElementalParser
      */
     public Token next() throws IOException
     {
-        buf.setLength(0);
-        read();
-
-        if ((c == -1) && (sval.length() == 0))
+        sval = null;
+        start = end;
+        if ((start == limit) && !fill())
+        {
             type = Token.EOF;
-        else if (sval.startsWith("<?xml") && sval.endsWith("?>"))
-            type = Token.XMLDECL;
-        else if (sval.startsWith("<?") && sval.endsWith("?>"))
-            type = Token.PI;
-        else if (sval.startsWith("<?"))
-            type = Token.ILLFORMED;
-        else if (sval.startsWith("<!--"))
-            readToEndOfComment();
-        else if (sval.startsWith("<!DOCTYPE") && sval.endsWith(">"))
-            type = Token.DOCTYPEDECL;
-        else if (sval.startsWith("<![CDATA["))
-            readToEndOfCDATA();
-        else if (sval.startsWith("<!"))
-            type = Token.ILLFORMED;
-        else if (sval.startsWith("</") && sval.endsWith(">"))
-            type = Token.END;
-        else if (sval.startsWith("<") && sval.endsWith("/>"))
-            type = Token.EMPTY;
-        else if (sval.startsWith("<") && sval.endsWith(">"))
-            type = Token.START;
-        else if (sval.startsWith("<"))
-            type = Token.ILLFORMED;
+        }
+        else if (buf[start] == '<')
+        {
+            if (!scanTo('>', 1))
+                type = Token.ILLFORMED;
+            else if (startsWith("<?xml") && endsWith("?>"))
+                type = Token.XMLDECL;
+            else if (startsWith("<?") && endsWith("?>"))
+                type = Token.PI;
+            else if (startsWith("<?"))
+                type = Token.ILLFORMED;
+            else if (startsWith("<!--"))
+                type = scanToTerminator("-->", Token.COMMENT);
+            else if (startsWith("<!DOCTYPE"))
+                type = Token.DOCTYPEDECL;
+            else if (startsWith("<![CDATA["))
+                type = scanToTerminator("]]>", Token.CDATA);
+            else if (startsWith("<!"))
+                type = Token.ILLFORMED;
+            else if (startsWith("</"))
+                type = Token.END;
+            else if (endsWith("/>"))
+                type = Token.EMPTY;
+            else
+                type = Token.START;
+        }
         else
+        {
+            if (!scanTo('<', 1))
+                end = limit;
+            else
+                end--;
             type = Token.CONTENT;
-
+        }
         return type;
     }
 
     /**
-     * Read a single character.
+     * Get the characters of the current token as a string. The string is
+     * only built on the first call for each token.
      *
-     * @throws IOException Any I/O exceptions during processing.
+     * @return The text of the current token.
+     */
+    public String getString()
+    {
+        if (sval == null)
+            sval = new String(buf, start, end - start);
+        return sval;
+    }
+
+    /**
+     * Get the block that holds the current token. The block is owned by the
+     * parser and is only valid until the next call to {@link #next}.
+     *
+     * @return The character block.
+     */
+    public char[] getBuffer()
+    {
+        return buf;
+    }
+
+    /**
+     * @return Index of the current token in {@link #getBuffer}.
+     */
+    public int getStart()
+    {
+        return start;
+    }
+
+    /**
+     * @return Number of characters in the current token.
+     */
+    public int getLength()
+    {
+        return end - start;
+    }
+
+    /**
+     * @return Offset of the current token from the start of the input.
      */
-    private void read() throws IOException
+    public long getOffset()
     {
-        if (c == 0)
-            c = reader.read();
+        return base + start;
+    }
 
-        if (c != -1)
+    /**
+     * Extend the current token up to and including the next occurance of
+     * a character.
+     *
+     * @param ch The character to find.
+     * @param from Position relative to the token start to search from.
+     * @return true => the character was found, false => end of stream.
+     * @throws IOException Any I/O exceptions during processing.
+     */
+    private boolean scanTo(char ch, int from) throws IOException
+    {
+        int i = start + from;
+        while (true)
         {
-            char stop = (c == '<') ? '>' : '<';
-            buf.append((char) c);
-            c = reader.read();
-            while ((c != -1) && (c != stop))
+            for (; i < limit; ++i)
             {
-                buf.append((char) c);
-                c = reader.read();
+                if (buf[i] == ch)
+                {
+                    end = i + 1;
+                    return true;
+                }
             }
-
-            if (stop == '>')
+            int scanned = i - start;
+            if (!fill())
             {
-                buf.append('>');
-                c = reader.read();
+                end = limit;
+                return false;
             }
+            i = start + scanned;
         }
-        sval = buf.toString();
     }
 
     /**
-     * Read a comment until reaching the "-->" terminator.
+     * Extend a comment or CDATA token until it ends with its terminator.
      *
+     * @param term The terminator for the token.
+     * @param found Type of token to return when the terminator is found.
+     * @return The token type.
      * @throws IOException Any I/O exceptions during processing.
      */
-    private void readToEndOfComment() throws IOException
+    private Token scanToTerminator(String term, Token found) throws IOException
     {
-        type = Token.COMMENT;
-        while ((c != -1) && !sval.endsWith("-->"))
+        while (!endsWith(term))
         {
-            while ((c != -1) && (c != '>'))
-            {
-                buf.append((char) c);
-                c = reader.read();
-            }
-            buf.append('>');
-            c = reader.read();
-            sval = buf.toString();
+            if (!scanTo('>', end - start))
+                return Token.ILLFORMED;
         }
-        sval = buf.toString();
+        return found;
     }
 
     /**
-     * Read CDATA until reaching the "]]>" terminator.
+     * Read the next block from the reader. Characters of the current token
+     * are moved to the front of the block, and the block is grown if the
+     * token fills it.
      *
+     * @return true => more characters were read.
      * @throws IOException Any I/O exceptions during processing.
      */
-    private void readToEndOfCDATA() throws IOException
+    private boolean fill() throws IOException
     {
-        type = Token.CDATA;
-        while ((c != -1) && !sval.endsWith("]]>"))
+        if (eof)
+            return false;
+        if (start > 0)
         {
-            while ((c != -1) && (c != '>'))
-            {
-                buf.append((char) c);
-                c = reader.read();
-            }
-            buf.append('>');
-            c = reader.read();
+            System.arraycopy(buf, start, buf, 0, limit - start);
+            base += start;
+            limit -= start;
+            end -= start;
+            start = 0;
+        }
+        if (limit == buf.length)
+            buf = java.util.Arrays.copyOf(buf, buf.length * 2);
+        int n = reader.read(buf, limit, buf.length - limit);
+        if (n < 0)
+        {
+            eof = true;
+            return false;
+        }
+        limit += n;
+        return true;
+    }
+
+    /**
+     * @param prefix The characters to check for.
+     * @return true => the current token starts with the prefix.
+     */
+    private boolean startsWith(String prefix)
+    {
+        int n = prefix.length();
+        if (end - start < n)
+            return false;
+        for (int i = 0; i < n; ++i)
+        {
+            if (buf[start + i] != prefix.charAt(i))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @param suffix The characters to check for.
+     * @return true => the current token ends with the suffix.
+     */
+    private boolean endsWith(String suffix)
+    {
+        int n = suffix.length();
+        if (end - start < n)
+            return false;
+        for (int i = 0; i < n; ++i)
+        {
+            if (buf[end - n + i] != suffix.charAt(i))
+                return false;
         }
-        sval = buf.toString();
+        return true;
     }
 }
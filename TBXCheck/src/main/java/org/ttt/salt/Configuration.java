@@ -34,6 +34,45 @@ public class Configuration implements Cloneable
     
     /** Should each termEntry be checked as it is built. */
     private boolean checkeachterm = true;
+    
+    /** Should each termEntry be released once it has been checked. */
+    private boolean streaming;
+    
+    /** Number of threads that check termEntry elements while parsing. */
+    private int validationthreads = 1;
+    
+    /** Should XCS documents be shared through the XCS cache. */
+    private boolean xcscache = true;
+    
+    /** Should whitespace only text in structural elements be dropped. */
+    private boolean compactwhitespace;
+    
+    /** Read local files through memory mapped segments. */
+    private boolean mappedinput;
+    
+    /** Should the built in DTD grammars be shared through the grammar pool. */
+    private boolean grammarpool = true;
+    
+    /** Should TBX parsers be reused through the parser pool. */
+    private boolean parserpool = true;
+    
+    /** Stop at the first error. */
+    private boolean failfast;
+    
+    /** Stop after this many errors, zero for no limit. */
+    private int maxerrors;
+    
+    /** Exceptions kept for each group of an error summary, zero for none. */
+    private int summaryexamples;
+    
+    /** Diagnostics kept on the heap before spilling to disk, zero for all. */
+    private int diagnosticwindow;
+	
+    /** On disk cache of validation results, if used. */
+    private ResultCache resultcache;
+	
+    /** Revalidate only the termEntry elements changed since the last check. */
+    private boolean incremental;
 	
 	/** Custom entity resolver for the XCS file, if required. */
 	private EntityResolver customEntityResolver = null;
@@ -85,6 +124,300 @@ public class Configuration implements Cloneable
         return checkeachterm;
     }
     
+    /**
+     * Set the streaming flag. When streaming each termEntry is released
+     * from the document as soon as it has been validated, so memory use
+     * does not grow with the number of entries in the TBX file.
+     *
+     * @param v The new value for the flag.
+     */
+    public void setStreaming(boolean v)
+    {
+        streaming = v;
+    }
+    
+    /**
+     * Test the streaming flag.
+     *
+     * @return The current value of the flag.
+     */
+    public boolean getStreaming()
+    {
+        return streaming;
+    }
+    
+    /**
+     * Set the number of threads that check termEntry elements. With more
+     * than one thread each termEntry is checked on a worker thread while
+     * the parse continues, the results are still reported in document
+     * order.
+     *
+     * @param v The new number of threads, one or less checks each termEntry
+     *  on the parsing thread.
+     */
+    public void setValidationThreads(int v)
+    {
+        validationthreads = v;
+    }
+    
+    /**
+     * Get the number of threads that check termEntry elements.
+     *
+     * @return The current number of threads.
+     */
+    public int getValidationThreads()
+    {
+        return validationthreads;
+    }
+    
+    /**
+     * Set whether XCS documents are taken from the process wide
+     * {@link XCSCache}. When this is false every TBX file parses its own
+     * copy of the XCS.
+     *
+     * @param v The new value.
+     */
+    public void setXCSCache(boolean v)
+    {
+        xcscache = v;
+    }
+    
+    /**
+     * Get whether XCS documents are taken from the process wide XCS cache.
+     *
+     * @return The current value.
+     */
+    public boolean getXCSCache()
+    {
+        return xcscache;
+    }
+    
+    /**
+     * Set whether whitespace only text in structural elements, such as the
+     * indentation between termEntry, langSet, and tig elements, is dropped
+     * from the DOM. Text in elements with mixed content, such as descrip,
+     * note, and term, is always kept.
+     *
+     * @param v The new value.
+     */
+    public void setCompactWhitespace(boolean v)
+    {
+        compactwhitespace = v;
+    }
+    
+    /**
+     * Get whether whitespace only text in structural elements is dropped.
+     *
+     * @return The current value.
+     */
+    public boolean getCompactWhitespace()
+    {
+        return compactwhitespace;
+    }
+    
+    /**
+     * Set whether local TBX files are read through memory mapped segments
+     * and decoded directly into the parser's buffers. Files that are not
+     * local are always read as a stream.
+     *
+     * @param v The new value.
+     */
+    public void setMappedInput(boolean v)
+    {
+        mappedinput = v;
+    }
+    
+    /**
+     * Get whether local TBX files are read through memory mapped segments.
+     *
+     * @return The current value.
+     */
+    public boolean getMappedInput()
+    {
+        return mappedinput;
+    }
+    
+    /**
+     * Set whether the TBX parser takes the compiled TBX core DTD from the
+     * process wide grammar pool instead of reading and compiling it for
+     * each file.
+     *
+     * @param v The new value.
+     */
+    public void setGrammarPool(boolean v)
+    {
+        grammarpool = v;
+    }
+    
+    /**
+     * Get whether the TBX parser uses the process wide grammar pool.
+     *
+     * @return The current value.
+     */
+    public boolean getGrammarPool()
+    {
+        return grammarpool;
+    }
+    
+    /**
+     * Set whether TBX files are parsed with parsers checked out of the
+     * process wide parser pool instead of a new parser for each file.
+     *
+     * @param v The new value.
+     */
+    public void setParserPool(boolean v)
+    {
+        parserpool = v;
+    }
+    
+    /**
+     * Get whether TBX files are parsed with parsers from the parser pool.
+     *
+     * @return The current value.
+     */
+    public boolean getParserPool()
+    {
+        return parserpool;
+    }
+    
+    /**
+     * Set whether checking stops at the first error. This is for callers
+     * that only need to know whether a file is invalid.
+     *
+     * @param v The new value.
+     */
+    public void setFailFast(boolean v)
+    {
+        failfast = v;
+    }
+    
+    /**
+     * Get whether checking stops at the first error.
+     *
+     * @return The current value.
+     */
+    public boolean getFailFast()
+    {
+        return failfast;
+    }
+    
+    /**
+     * Set the number of errors after which checking stops. Fail fast is the
+     * same as a limit of one.
+     *
+     * @param v The new value, zero for no limit.
+     */
+    public void setMaxErrors(int v)
+    {
+        if (v < 0)
+            throw new IllegalArgumentException("Maximum errors cannot be negative.");
+        maxerrors = v;
+    }
+    
+    /**
+     * Get the number of errors after which checking stops.
+     *
+     * @return The current value, zero for no limit.
+     */
+    public int getMaxErrors()
+    {
+        return maxerrors;
+    }
+    
+    /**
+     * Set the number of exceptions to keep for each group of the same
+     * error. When this is set the errors of a file are collected in an
+     * {@link ErrorSummary} that counts every error but keeps only the first
+     * exceptions of each group.
+     *
+     * @param v The new value, zero to keep every exception.
+     */
+    public void setSummaryExamples(int v)
+    {
+        if (v < 0)
+            throw new IllegalArgumentException("Summary examples cannot be negative.");
+        summaryexamples = v;
+    }
+    
+    /**
+     * Get the number of exceptions to keep for each group of the same error.
+     *
+     * @return The current value, zero to keep every exception.
+     */
+    public int getSummaryExamples()
+    {
+        return summaryexamples;
+    }
+    
+    /**
+     * Set the number of diagnostics kept on the heap. When this is set the
+     * errors of a file are recorded in a {@link DiagnosticStore} that writes
+     * them to a temporary file in sorted runs of this size.
+     *
+     * @param v The new value, zero to keep every exception on the heap.
+     */
+    public void setDiagnosticWindow(int v)
+    {
+        if (v < 0)
+            throw new IllegalArgumentException("Diagnostic window cannot be negative.");
+        diagnosticwindow = v;
+    }
+    
+    /**
+     * Get the number of diagnostics kept on the heap.
+     *
+     * @return The current value, zero to keep every exception on the heap.
+     */
+    public int getDiagnosticWindow()
+    {
+        return diagnosticwindow;
+    }
+    
+    /**
+     * Set the on disk cache of validation results. Files that are unchanged
+     * since they were last checked with the same configuration take their
+     * result from the cache instead of being parsed. The cache is shared by
+     * clones of this configuration.
+     *
+     * @param v The new cache, or null to check every file.
+     */
+    public void setResultCache(ResultCache v)
+    {
+        resultcache = v;
+    }
+    
+    /**
+     * Get the on disk cache of validation results.
+     *
+     * @return The current cache, or null if every file is checked.
+     */
+    public ResultCache getResultCache()
+    {
+        return resultcache;
+    }
+    
+    /**
+     * Set whether local files keep a {@link TermEntryIndex} sidecar so only
+     * the termEntry elements that changed since the last check are
+     * validated against the XCS.
+     *
+     * @param v The new value.
+     */
+    public void setIncremental(boolean v)
+    {
+        incremental = v;
+    }
+    
+    /**
+     * Test whether only changed termEntry elements are validated.
+     *
+     * @return The current value of the flag.
+     */
+    public boolean getIncremental()
+    {
+        return incremental;
+    }
+    
 	/**
 	 * Set the custom EntityResolver.
 	 *
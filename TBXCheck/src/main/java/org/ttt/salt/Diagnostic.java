@@ -0,0 +1,472 @@
+/*
+ * $Id$
+ *-----------------------------------------------------------------------------
+ * Copyright 2000 Lance Finn Helsten (helsten@acm.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ttt.salt;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.text.MessageFormat;
+import java.util.Locale;
+import java.util.ResourceBundle;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.ttt.salt.dom.tbx.TBXElement;
+
+/**
+ * A single validation problem found in a TBX file. This is the compact,
+ * immutable record behind an {@link XCSValidationException}: it keeps the
+ * priority, a message code, where the problem is and the message arguments,
+ * but not the DOM element nor a stack trace. The message itself is only
+ * formatted from the <code>org.ttt.salt.Diagnostic</code> resource bundle
+ * when it is asked for.
+ * <p>
+ * Every {@link TBXException} can be described by a diagnostic, see
+ * {@link TBXException#getDiagnostic}, and diagnostics can be written to and
+ * read from a compact binary form so they may be kept outside of the heap
+ * by a {@link DiagnosticStore}.</p>
+ *
+ * @author Lance Finn Helsten
+ * @version $Id$
+ * @license Licensed under the Apache License, Version 2.0.
+ */
+public final class Diagnostic implements Comparable<Diagnostic>
+{
+    /*
+     */
+    
+    /** SCM information. */
+    public static final String RCSID = "$Id$";
+    
+    /** Resource bundle that holds the message for each code. */
+    private static final String BUNDLE = "org.ttt.salt.Diagnostic";
+    
+    /** */
+    private static final AtomicInteger SEQUENCE_NEXT = new AtomicInteger();
+    
+    /** */
+    private static final Object[] NO_ARGS = new Object[0];
+    
+    /** Orders the diagnostics as they occur. */
+    private int sequence;
+    
+    /** */
+    private final TBXException.Priority priority;
+    
+    /** Resource key of the message. */
+    private final String code;
+    
+    /** The id attribute of the enclosing termEntry. */
+    private final String termEntry;
+    
+    /** Tag name of the element the problem was found on. */
+    private final String tag;
+    
+    /** The type attribute of the element the problem was found on. */
+    private final String type;
+    
+    /** Line in the XML stream the element starts. */
+    private final int lineStart;
+    
+    /** Column in the XML stream the element starts. */
+    private final int columnStart;
+
+    /** Line in the XML stream the element ends. */
+    private final int lineEnd;
+    
+    /** Column in the XML stream the element ends. */
+    private final int columnEnd;
+    
+    /** Arguments for the message. */
+    private final Object[] args;
+    
+    /**
+     * Create a diagnostic for a problem found on an element. Everything
+     * needed to report the problem is copied out of the element so that it
+     * may be released.
+     *
+     * @param p The priority of the problem.
+     * @param c Resource key of the message.
+     * @param elem The element the problem was found on.
+     * @param a Arguments for the message.
+     */
+    public Diagnostic(TBXException.Priority p, String c, Element elem, Object... a)
+    {
+        sequence = nextSequence();
+        priority = p;
+        code = c;
+        args = (a == null) ? NO_ARGS : a;
+        tag = elem.getTagName();
+        type = elem.getAttribute("type");
+        if (elem instanceof TBXElement)
+        {
+            TBXElement e = (TBXElement) elem;
+            lineStart = e.getStartLine();
+            columnStart = e.getStartColumn();
+            lineEnd = e.getEndLine();
+            columnEnd = e.getEndColumn();
+        }
+        else
+        {
+            lineStart = -1;
+            columnStart = -1;
+            lineEnd = -1;
+            columnEnd = -1;
+        }
+        
+        Node term = elem;
+        while (term instanceof Element && !term.getNodeName().equals("termEntry"))
+            term = term.getParentNode();
+        termEntry = (term instanceof Element) ? ((Element) term).getAttribute("id") : "";
+    }
+    
+    /**
+     * Create a diagnostic for a problem that was not found on an element.
+     *
+     * @param p The priority of the problem.
+     * @param seq The sequence of the exception that reported the problem.
+     * @param c Resource key of the message.
+     * @param line The line of the problem, or -1 if it is not known.
+     * @param column The column of the problem, or -1 if it is not known.
+     * @param a Arguments for the message.
+     */
+    Diagnostic(TBXException.Priority p, int seq, String c, int line, int column, Object... a)
+    {
+        this(p, seq, c, "", "", "", line, column, line, column, a);
+    }
+    
+    /**
+     * Create a diagnostic with every field given.
+     *
+     * @param p The priority of the problem.
+     * @param seq The sequence of the problem.
+     * @param c Resource key of the message.
+     * @param te The id of the enclosing termEntry.
+     * @param tg The tag name of the element.
+     * @param tp The type attribute of the element.
+     * @param ls The start line of the element.
+     * @param cs The start column of the element.
+     * @param le The end line of the element.
+     * @param ce The end column of the element.
+     * @param a Arguments for the message.
+     */
+    private Diagnostic(TBXException.Priority p, int seq, String c, String te,
+        String tg, String tp, int ls, int cs, int le, int ce, Object[] a)
+    {
+        priority = p;
+        sequence = seq;
+        code = c;
+        termEntry = te;
+        tag = tg;
+        type = tp;
+        lineStart = ls;
+        columnStart = cs;
+        lineEnd = le;
+        columnEnd = ce;
+        args = (a == null) ? NO_ARGS : a;
+    }
+    
+    /**
+     * Get the next number in the sequence shared by diagnostics and
+     * {@link TBXException} so that both report problems in the order they
+     * were found.
+     *
+     * @return The next sequence number.
+     */
+    static int nextSequence()
+    {
+        return SEQUENCE_NEXT.getAndIncrement();
+    }
+    
+    /**
+     * Read a diagnostic written by {@link #write}. The arguments of the
+     * message are read back as strings.
+     *
+     * @param in The input to read from.
+     * @return The diagnostic that was written.
+     * @throws IOException Any I/O exceptions that occur.
+     */
+    public static Diagnostic read(DataInput in) throws IOException
+    {
+        TBXException.Priority p = TBXException.Priority.values()[in.readByte()];
+        int seq = in.readInt();
+        String c = readString(in);
+        String te = readString(in);
+        String tg = readString(in);
+        String tp = readString(in);
+        int ls = in.readInt();
+        int cs = in.readInt();
+        int le = in.readInt();
+        int ce = in.readInt();
+        Object[] a = new Object[in.readInt()];
+        for (int i = 0; i < a.length; i++)
+            a[i] = readString(in);
+        return new Diagnostic(p, seq, c, te, tg, tp, ls, cs, le, ce, a);
+    }
+    
+    /**
+     * Write this diagnostic in a compact binary form.
+     *
+     * @param out The output to write to.
+     * @throws IOException Any I/O exceptions that occur.
+     */
+    public void write(DataOutput out) throws IOException
+    {
+        out.writeByte(priority.ordinal());
+        out.writeInt(sequence);
+        writeString(out, code);
+        writeString(out, termEntry);
+        writeString(out, tag);
+        writeString(out, type);
+        out.writeInt(lineStart);
+        out.writeInt(columnStart);
+        out.writeInt(lineEnd);
+        out.writeInt(columnEnd);
+        out.writeInt(args.length);
+        for (Object arg : args)
+            writeString(out, (arg == null) ? null : arg.toString());
+    }
+    
+    /**
+     * Read a string written by {@link #writeString}.
+     *
+     * @param in The input to read from.
+     * @return The string, which may be null.
+     * @throws IOException Any I/O exceptions that occur.
+     */
+    private static String readString(DataInput in) throws IOException
+    {
+        int len = in.readInt();
+        if (len < 0)
+            return null;
+        byte[] buf = new byte[len];
+        in.readFully(buf);
+        return new String(buf, "UTF-8");
+    }
+    
+    /**
+     * Write a string as UTF-8 with its length. Unlike
+     * {@link DataOutput#writeUTF} there is no limit on the length.
+     *
+     * @param out The output to write to.
+     * @param str The string, which may be null.
+     * @throws IOException Any I/O exceptions that occur.
+     */
+    private static void writeString(DataOutput out, String str) throws IOException
+    {
+        if (str == null)
+        {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] buf = str.getBytes("UTF-8");
+        out.writeInt(buf.length);
+        out.write(buf);
+    }
+    
+    /**
+     * Get the priority of the problem.
+     *
+     * @return The priority used to order problems in a report.
+     */
+    public TBXException.Priority getPriority()
+    {
+        return priority;
+    }
+    
+    /**
+     * Get the sequence of the problem. Problems are reported in the order
+     * of their priority and then their sequence.
+     *
+     * @return The sequence number.
+     */
+    public int getSequence()
+    {
+        return sequence;
+    }
+    
+    /**
+     * Give this diagnostic the next number in the sequence. A problem found
+     * on a validator thread is resequenced when it is reported, so problems
+     * are ordered as they are reported and not as the threads found them.
+     * This must be done before an exception or store takes the sequence.
+     */
+    public void resequence()
+    {
+        sequence = nextSequence();
+    }
+    
+    /**
+     * Get the code of the problem. This is also the resource key of the
+     * message.
+     *
+     * @return The message code.
+     */
+    public String getCode()
+    {
+        return code;
+    }
+    
+    /**
+     * Get the id of the termEntry the problem was found in.
+     *
+     * @return The id attribute value, or an empty string if there was none.
+     */
+    public String getTermEntryId()
+    {
+        return termEntry;
+    }
+    
+    /**
+     * Get the tag name of the element the problem was found on.
+     *
+     * @return The element tag id, or an empty string if the problem was not
+     *  found on an element.
+     */
+    public String getTag()
+    {
+        return tag;
+    }
+    
+    /**
+     * Get the type attribute of the element the problem was found on.
+     *
+     * @return The element type, or an empty string if there was none.
+     */
+    public String getType()
+    {
+        return type;
+    }
+    
+    /**
+     * Get the line in the XML stream the element starts.
+     *
+     * @return The start line number, or -1 if it is not known.
+     */
+    public int getLine()
+    {
+        return lineStart;
+    }
+    
+    /**
+     * Get the column in the XML stream the element starts.
+     *
+     * @return The start column number, or -1 if it is not known.
+     */
+    public int getColumn()
+    {
+        return columnStart;
+    }
+    
+    /**
+     * Get a copy of the arguments for the message.
+     *
+     * @return The message arguments.
+     */
+    public Object[] getArguments()
+    {
+        return args.clone();
+    }
+    
+    /**
+     * Get a string that defines the location in the document the problem
+     * was found at.
+     *
+     * @return The location identification string.
+     */
+    public String getLocationString()
+    {
+        if (lineStart < 0)
+            return "Line: ??";
+        return String.format("Start %d:%d, End %d:%d", lineStart, columnStart,
+            lineEnd, columnEnd);
+    }
+    
+    /**
+     * Format the message in the default language.
+     *
+     * @return The human readable message.
+     */
+    public String getMessage()
+    {
+        return format(Locale.ROOT);
+    }
+    
+    /**
+     * Format the message in the language of the default locale.
+     *
+     * @return The human readable message.
+     */
+    public String getLocalizedMessage()
+    {
+        return format(Locale.getDefault());
+    }
+    
+    /**
+     * Format the message for this problem with a context that will let
+     * users find the location of the problem in large files.
+     *
+     * @param locale The locale to format the message in.
+     * @return The human readable message.
+     */
+    private String format(Locale locale)
+    {
+        //CHECKSTYLE: MagicNumber OFF
+        ResourceBundle bundle = ResourceBundle.getBundle(BUNDLE, locale);
+        Object[] ctx = new Object[4];
+        ctx[2] = tag;
+        ctx[3] = getLocationString();
+        String context;
+        if (tag.equals(""))
+        {
+            context = "";
+        }
+        else if (termEntry.equals("") || termEntry.startsWith(TBXFile.AUTO_TERMENTRY_ID_PREFIX))
+        {
+            ctx[0] = "TODO"; //NOTDONE
+            ctx[1] = "TODO"; //NOTDONE
+            context = MessageFormat.format(bundle.getString("NoTermEntry"), ctx);
+        }
+        else
+        {
+            ctx[0] = termEntry;
+            context = MessageFormat.format(bundle.getString("TermEntry"), ctx);
+        }
+        
+        Object[] msg = new Object[args.length + 1];
+        msg[0] = context;
+        System.arraycopy(args, 0, msg, 1, args.length);
+        return new MessageFormat(bundle.getString(code), locale).format(msg);
+        //CHECKSTYLE: MagicNumber ON
+    }
+    
+    /** {@inheritDoc} */
+    public int compareTo(Diagnostic o)
+    {
+        int ret = priority.compareTo(o.priority);
+        if (ret == 0)
+            ret = (sequence < o.sequence) ? -1 : ((sequence == o.sequence) ? 0 : 1);
+        return ret;
+    }
+    
+    /** {@inheritDoc} */
+    public String toString()
+    {
+        return priority.name() + " " + code + ": " + getMessage();
+    }
+}
@@ -0,0 +1,466 @@
+/*
+ * $Id$
+ *-----------------------------------------------------------------------------
+ * Copyright 2000 Lance Finn Helsten (helsten@acm.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ttt.salt;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/**
+ * Holds the diagnostics of a TBX file without keeping all of them on the
+ * heap. Diagnostics are collected in a bounded window; when the window is
+ * full it is sorted and written to a temporary file as a run. Iterating the
+ * store merges the runs and the window so that the diagnostics are returned
+ * in priority and sequence order, just as a sorted set of
+ * {@link TBXException} would return them.
+ * <p>
+ * Diagnostics read back from the temporary file have their message
+ * arguments as strings. The temporary file is removed when the store is
+ * closed.</p>
+ * <p>
+ * No more than {@link #MAX_FAN_IN} runs are read at once: when there are
+ * more, groups of runs are first merged into longer runs in a new
+ * temporary file.</p>
+ *
+ * @author Lance Finn Helsten
+ * @version $Id$
+ * @license Licensed under the Apache License, Version 2.0.
+ */
+public class DiagnosticStore implements Iterable<Diagnostic>, java.io.Closeable
+{
+    /*
+     */
+    
+    /** SCM information. */
+    public static final String RCSID = "$Id$";
+    
+    /** Size of the buffer used to read each run. */
+    private static final int RUN_BUFFER_SIZE = 8192;
+    
+    /** Largest number of runs that are merged at the same time. */
+    public static final int MAX_FAN_IN = 64;
+    
+    /** Number of diagnostics kept on the heap before a run is written. */
+    private final int window;
+    
+    /** Diagnostics that have not been written to a run. */
+    private final List<Diagnostic> current;
+    
+    /** Offset into the temporary file of each run. */
+    private final List<Long> runOffsets = new java.util.ArrayList<Long>();
+    
+    /** Number of diagnostics in each run. */
+    private final List<Integer> runCounts = new java.util.ArrayList<Integer>();
+    
+    /** The file that holds the runs, or null until the first run. */
+    private File file;
+    
+    /** Output to the file that holds the runs. */
+    private DataOutputStream out;
+    
+    /** Number of bytes written to the file. */
+    private long written;
+    
+    /** Number of diagnostics added. */
+    private int size;
+    
+    /**
+     * @param n The number of diagnostics to keep on the heap.
+     */
+    public DiagnosticStore(int n)
+    {
+        if (n < 1)
+            throw new IllegalArgumentException("The window must hold at least one diagnostic.");
+        window = n;
+        current = new java.util.ArrayList<Diagnostic>(Math.min(n, RUN_BUFFER_SIZE));
+    }
+    
+    /**
+     * Add a diagnostic to the store, writing a run if the window is full.
+     *
+     * @param diag The diagnostic to add.
+     * @throws IOException The run could not be written.
+     */
+    public void add(Diagnostic diag) throws IOException
+    {
+        current.add(diag);
+        size++;
+        if (current.size() >= window)
+            spill();
+    }
+    
+    /**
+     * Get the number of diagnostics added.
+     *
+     * @return The count of all diagnostics.
+     */
+    public int size()
+    {
+        return size;
+    }
+    
+    /**
+     * Get the number of runs that have been written to the temporary file.
+     *
+     * @return The run count.
+     */
+    public int getRunCount()
+    {
+        return runCounts.size();
+    }
+    
+    /**
+     * Sort the window and write it to the end of the temporary file.
+     *
+     * @throws IOException The run could not be written.
+     */
+    private void spill() throws IOException
+    {
+        if (out == null)
+        {
+            file = File.createTempFile("tbxdiag", ".run");
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        }
+        java.util.Collections.sort(current);
+        runOffsets.add(written);
+        runCounts.add(current.size());
+        for (Diagnostic diag : current)
+            diag.write(out);
+        out.flush();
+        written = file.length();
+        current.clear();
+    }
+    
+    /**
+     * Iterate over every diagnostic in priority and sequence order. The
+     * iterator sees the diagnostics added before it was created. An
+     * {@link UncheckedIOException} is thrown if a run cannot be read.
+     *
+     * @return The merging iterator.
+     */
+    public Iterator<Diagnostic> iterator()
+    {
+        final PriorityQueue<Run> heads;
+        try
+        {
+            while (runCounts.size() > MAX_FAN_IN)
+                mergePass();
+            heads = openRuns(0, runCounts.size());
+        }
+        catch (IOException err)
+        {
+            throw new UncheckedIOException(err);
+        }
+        List<Diagnostic> tail = new java.util.ArrayList<Diagnostic>(current);
+        java.util.Collections.sort(tail);
+        Run run = new Run(tail.iterator());
+        if (run.advance())
+            heads.add(run);
+        
+        return new Iterator<Diagnostic>()
+            {
+                public boolean hasNext()
+                {
+                    return !heads.isEmpty();
+                }
+                
+                public Diagnostic next()
+                {
+                    Run run = heads.poll();
+                    if (run == null)
+                        throw new NoSuchElementException();
+                    Diagnostic ret = run.head;
+                    if (run.advance())
+                        heads.add(run);
+                    return ret;
+                }
+                
+                public void remove()
+                {
+                    throw new UnsupportedOperationException();
+                }
+            };
+    }
+    
+    /**
+     * Open the runs in a range and queue those that are not empty.
+     *
+     * @param from Index of the first run.
+     * @param to Index after the last run.
+     * @return The runs ordered by their next diagnostic.
+     * @throws IOException A run could not be opened.
+     */
+    private PriorityQueue<Run> openRuns(int from, int to) throws IOException
+    {
+        PriorityQueue<Run> heads = new PriorityQueue<Run>();
+        try
+        {
+            for (int i = from; i < to; i++)
+            {
+                Run run = new Run(new FileRun(file, runOffsets.get(i), runCounts.get(i)));
+                if (run.advance())
+                    heads.add(run);
+            }
+        }
+        catch (IOException err)
+        {
+            for (Run run : heads)
+                run.close();
+            throw err;
+        }
+        return heads;
+    }
+    
+    /**
+     * Merge each group of {@link #MAX_FAN_IN} runs into one run in a new
+     * temporary file, which then replaces the current one.
+     *
+     * @throws IOException The runs could not be read or written.
+     */
+    private void mergePass() throws IOException
+    {
+        List<Long> offsets = new java.util.ArrayList<Long>();
+        List<Integer> counts = new java.util.ArrayList<Integer>();
+        File next = File.createTempFile("tbxdiag", ".run");
+        DataOutputStream output = null;
+        try
+        {
+            output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(next)));
+            long pos = 0;
+            for (int i = 0; i < runCounts.size(); i += MAX_FAN_IN)
+            {
+                PriorityQueue<Run> heads = openRuns(i, Math.min(i + MAX_FAN_IN, runCounts.size()));
+                int count = 0;
+                try
+                {
+                    while (!heads.isEmpty())
+                    {
+                        Run run = heads.poll();
+                        run.head.write(output);
+                        count++;
+                        if (run.advance())
+                            heads.add(run);
+                    }
+                }
+                finally
+                {
+                    for (Run run : heads)
+                        run.close();
+                }
+                output.flush();
+                offsets.add(pos);
+                counts.add(count);
+                pos = next.length();
+            }
+            output.close();
+            output = null;
+        }
+        catch (IOException err)
+        {
+            if (output != null)
+                output.close();
+            next.delete();
+            throw err;
+        }
+        catch (RuntimeException err)
+        {
+            if (output != null)
+                output.close();
+            next.delete();
+            throw err;
+        }
+        out.close();
+        file.delete();
+        file = next;
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+        written = file.length();
+        runOffsets.clear();
+        runOffsets.addAll(offsets);
+        runCounts.clear();
+        runCounts.addAll(counts);
+    }
+    
+    /**
+     * Remove the temporary file. The store is empty afterwards.
+     *
+     * @throws IOException Any I/O exceptions that occur.
+     */
+    public void close() throws IOException
+    {
+        current.clear();
+        runOffsets.clear();
+        runCounts.clear();
+        size = 0;
+        written = 0;
+        if (out != null)
+        {
+            out.close();
+            out = null;
+        }
+        if (file != null)
+        {
+            file.delete();
+            file = null;
+        }
+    }
+    
+    /** {@inheritDoc} */
+    public String toString()
+    {
+        return String.format("DiagnosticStore: %d diagnostics, %d runs, %d bytes spilled",
+            size, runCounts.size(), written);
+    }
+    
+    /**
+     * One sorted source of diagnostics being merged, ordered by its next
+     * diagnostic.
+     */
+    private static final class Run implements Comparable<Run>
+    {
+        /** */
+        private final Iterator<Diagnostic> source;
+        
+        /** The next diagnostic from this run. */
+        private Diagnostic head;
+        
+        /**
+         * @param src The sorted diagnostics of the run.
+         */
+        Run(Iterator<Diagnostic> src)
+        {
+            source = src;
+        }
+        
+        /**
+         * Move to the next diagnostic of the run.
+         *
+         * @return true => there is a next diagnostic.
+         */
+        boolean advance()
+        {
+            head = source.hasNext() ? source.next() : null;
+            if (head == null)
+                close();
+            return head != null;
+        }
+        
+        /**
+         * Release the file behind the run, if any.
+         */
+        void close()
+        {
+            if (source instanceof FileRun)
+                ((FileRun) source).close();
+        }
+        
+        /** {@inheritDoc} */
+        public int compareTo(Run o)
+        {
+            return head.compareTo(o.head);
+        }
+    }
+    
+    /**
+     * Reads the diagnostics of one run back from the temporary file.
+     */
+    private static final class FileRun implements Iterator<Diagnostic>
+    {
+        /** */
+        private final DataInputStream in;
+        
+        /** Diagnostics left to read. */
+        private int remaining;
+        
+        /**
+         * @param f The temporary file.
+         * @param offset Offset of the run in the file.
+         * @param count Number of diagnostics in the run.
+         * @throws IOException The run could not be opened.
+         */
+        FileRun(File f, long offset, int count) throws IOException
+        {
+            FileInputStream input = new FileInputStream(f);
+            try
+            {
+                input.getChannel().position(offset);
+            }
+            catch (IOException err)
+            {
+                input.close();
+                throw err;
+            }
+            in = new DataInputStream(new BufferedInputStream(input, RUN_BUFFER_SIZE));
+            remaining = count;
+        }
+        
+        /** {@inheritDoc} */
+        public boolean hasNext()
+        {
+            return remaining > 0;
+        }
+        
+        /** {@inheritDoc} */
+        public Diagnostic next()
+        {
+            if (remaining <= 0)
+                throw new NoSuchElementException();
+            try
+            {
+                remaining--;
+                return Diagnostic.read(in);
+            }
+            catch (IOException err)
+            {
+                close();
+                throw new UncheckedIOException(err);
+            }
+        }
+        
+        /** {@inheritDoc} */
+        public void remove()
+        {
+            throw new UnsupportedOperationException();
+        }
+        
+        /**
+         * Close the input of the run.
+         */
+        void close()
+        {
+            remaining = 0;
+            try
+            {
+                in.close();
+            }
+            catch (IOException err)
+            {
+                //Nothing more can be read from the run either way
+            }
+        }
+    }
+}
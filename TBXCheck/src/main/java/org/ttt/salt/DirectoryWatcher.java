@@ -0,0 +1,277 @@
+/*
+ * $Id$
+ *-----------------------------------------------------------------------------
+ * Copyright 2000 Lance Finn Helsten (helsten@acm.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ttt.salt;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * This watches a directory tree for changes to TBX files so they can be
+ * checked again while the parsers, grammars and XCS documents are still
+ * loaded.
+ * <p>
+ * Editors often write a file several times when it is saved, so a change
+ * is only reported once the file has been quiet for the delay. All of the
+ * writes to a file during that time are reported as a single change, and
+ * all of the files that are quiet at the same time are reported together
+ * by {@link #take}. A file that was deleted is reported as changed; the
+ * caller can tell by checking that it no longer exists.</p>
+ * <p>
+ * Subdirectories created while watching are watched too. If the watch
+ * service loses events then every file in the affected directory is
+ * reported as changed.</p>
+ *
+ * @author Lance Finn Helsten
+ * @version $Id$
+ * @license Licensed under the Apache License, Version 2.0.
+ */
+public class DirectoryWatcher implements Closeable
+{
+    /*
+     */
+    
+    /** SCM information. */
+    public static final String RCSID = "$Id$";
+    
+    /** Default time in milliseconds a file must be quiet to be reported. */
+    public static final long DEFAULT_DELAY = 250;
+    
+    /** Logger for this package. */
+    private static final Logger LOGGER = Logger.getLogger("org.ttt.salt");
+    
+    /** The file name suffixes that are watched, in lower case. */
+    private static final String[] SUFFIXES = {".tbx", ".xml"};
+    
+    /** The watch service for the tree. */
+    private final WatchService service;
+    
+    /** The watched directory of each watch key. */
+    private final Map<WatchKey, Path> directories = new java.util.HashMap<WatchKey, Path>();
+    
+    /** Time in milliseconds a file must be quiet to be reported. */
+    private final long delay;
+    
+    /** Changed files by the time in nanoseconds they will be quiet. */
+    private final Map<Path, Long> changed = new java.util.LinkedHashMap<Path, Long>();
+    
+    /**
+     * @param root The root of the directory tree to watch.
+     * @throws IOException The directory tree could not be watched.
+     */
+    public DirectoryWatcher(Path root) throws IOException
+    {
+        this(root, DEFAULT_DELAY);
+    }
+    
+    /**
+     * @param root The root of the directory tree to watch.
+     * @param d Time in milliseconds a file must be quiet to be reported.
+     * @throws IOException The directory tree could not be watched.
+     */
+    public DirectoryWatcher(Path root, long d) throws IOException
+    {
+        if (d < 0)
+            throw new IllegalArgumentException("Delay must not be negative.");
+        if (!Files.isDirectory(root))
+            throw new java.io.FileNotFoundException(root + " is not a directory.");
+        delay = d;
+        service = FileSystems.getDefault().newWatchService();
+        register(root, false);
+    }
+    
+    /**
+     * Find out if a file is one that is watched.
+     *
+     * @param file The file.
+     * @return true => the file has a TBX file suffix.
+     */
+    public static boolean isWatched(Path file)
+    {
+        String name = file.getFileName().toString().toLowerCase(java.util.Locale.ROOT);
+        for (String suffix : SUFFIXES)
+        {
+            if (name.endsWith(suffix))
+                return true;
+        }
+        return false;
+    }
+    
+    /**
+     * Find all of the watched files in a directory tree.
+     *
+     * @param root The root of the directory tree.
+     * @return The watched files in name order.
+     * @throws IOException The directory tree could not be read.
+     */
+    public static Set<Path> list(Path root) throws IOException
+    {
+        Set<Path> ret = new java.util.TreeSet<Path>();
+        DirectoryStream<Path> dir = Files.newDirectoryStream(root);
+        try
+        {
+            for (Path path : dir)
+            {
+                if (Files.isDirectory(path))
+                    ret.addAll(list(path));
+                else if (isWatched(path) && Files.isRegularFile(path))
+                    ret.add(path);
+            }
+        }
+        finally
+        {
+            dir.close();
+        }
+        return ret;
+    }
+    
+    /**
+     * Wait for files to change and become quiet.
+     *
+     * @return The files that changed, in the order they first changed.
+     * @throws InterruptedException The wait was interrupted.
+     * @throws java.nio.file.ClosedWatchServiceException The watcher was closed.
+     */
+    public Set<Path> take() throws InterruptedException
+    {
+        while (true)
+        {
+            long now = System.nanoTime();
+            long wait = Long.MAX_VALUE;
+            Set<Path> ret = new java.util.LinkedHashSet<Path>();
+            for (Map.Entry<Path, Long> entry : changed.entrySet())
+            {
+                long left = entry.getValue() - now;
+                if (left <= 0)
+                    ret.add(entry.getKey());
+                else
+                    wait = Math.min(wait, left);
+            }
+            if (!ret.isEmpty())
+            {
+                changed.keySet().removeAll(ret);
+                return ret;
+            }
+            
+            WatchKey key = (wait == Long.MAX_VALUE)
+                ? service.take()
+                : service.poll(wait, TimeUnit.NANOSECONDS);
+            while (key != null)
+            {
+                process(key);
+                key = service.poll();
+            }
+        }
+    }
+    
+    /** {@inheritDoc} */
+    public void close() throws IOException
+    {
+        service.close();
+    }
+    
+    /** {@inheritDoc} */
+    public String toString()
+    {
+        return String.format("DirectoryWatcher[directories=%d changed=%d delay=%d]",
+            directories.size(), changed.size(), delay);
+    }
+    
+    /**
+     * Record the events of a watch key. A file that changes again before it
+     * is quiet has its quiet time pushed back.
+     *
+     * @param key The signalled watch key.
+     */
+    private void process(WatchKey key)
+    {
+        Path dir = directories.get(key);
+        long quiet = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay);
+        for (WatchEvent<?> event : key.pollEvents())
+        {
+            if (dir == null)
+                break;
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW)
+            {
+                LOGGER.info("Lost file events in " + dir);
+                register(dir, true);
+                continue;
+            }
+            Path path = dir.resolve((Path) event.context());
+            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path))
+            {
+                register(path, true);
+            }
+            else if (isWatched(path))
+            {
+                changed.remove(path);
+                changed.put(path, quiet);
+            }
+        }
+        if (!key.reset())
+            directories.remove(key);
+    }
+    
+    /**
+     * Watch a directory and all of its subdirectories.
+     *
+     * @param dir The directory to watch.
+     * @param report Report the files already in the directories as changed.
+     */
+    private void register(Path dir, boolean report)
+    {
+        long quiet = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay);
+        try
+        {
+            WatchKey key = dir.register(service, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+            directories.put(key, dir);
+            DirectoryStream<Path> stream = Files.newDirectoryStream(dir);
+            try
+            {
+                for (Path path : stream)
+                {
+                    if (Files.isDirectory(path))
+                        register(path, report);
+                    else if (report && isWatched(path))
+                        changed.put(path, quiet);
+                }
+            }
+            finally
+            {
+                stream.close();
+            }
+        }
+        catch (IOException err)
+        {
+            LOGGER.log(Level.WARNING, "Could not watch " + dir, err);
+        }
+    }
+}
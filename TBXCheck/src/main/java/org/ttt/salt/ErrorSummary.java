@@ -0,0 +1,247 @@
+/*
+ * $Id$
+ *-----------------------------------------------------------------------------
+ * Copyright 2000 Lance Finn Helsten (helsten@acm.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ttt.salt;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects the errors of a TBX file grouped by priority, XCS data category
+ * and the class of the cause. Every error is counted but only the first
+ * few exceptions of each group are kept, so a file that repeats the same
+ * mistake in every termEntry gives a bounded, readable report.
+ * <p>
+ * This is not thread safe; errors are added by the thread that parses the
+ * file.</p>
+ *
+ * @author Lance Finn Helsten
+ * @version $Id$
+ * @license Licensed under the Apache License, Version 2.0.
+ */
+public class ErrorSummary
+{
+    /*
+     */
+    
+    /** SCM information. */
+    public static final String RCSID = "$Id$";
+    
+    /**
+     * All of the errors with the same priority, data category and cause.
+     */
+    public static final class Group
+    {
+        /** */
+        private final TBXException.Priority priority;
+        
+        /** The data category of XCS errors, null for other errors. */
+        private final XCSDocument.Key key;
+        
+        /** */
+        private final Class<? extends Throwable> cause;
+        
+        /** The first exceptions of this group in the order they were added. */
+        private final List<TBXException> examples = new java.util.ArrayList<TBXException>();
+        
+        /** Number of errors in this group. */
+        private int count;
+        
+        /**
+         * @param p The priority of the errors.
+         * @param k The data category of the errors.
+         * @param c The class of the cause of the errors.
+         */
+        private Group(TBXException.Priority p, XCSDocument.Key k, Class<? extends Throwable> c)
+        {
+            priority = p;
+            key = k;
+            cause = c;
+        }
+        
+        /**
+         * Get the priority of the errors in this group.
+         *
+         * @return The priority.
+         */
+        public TBXException.Priority getPriority()
+        {
+            return priority;
+        }
+        
+        /**
+         * Get the XCS data category of the errors in this group.
+         *
+         * @return The tag and type of the elements in error, or null if
+         *  these are not XCS validation errors.
+         */
+        public XCSDocument.Key getKey()
+        {
+            return key;
+        }
+        
+        /**
+         * Get the class of the cause of the errors in this group.
+         *
+         * @return The cause class.
+         */
+        public Class<? extends Throwable> getCauseClass()
+        {
+            return cause;
+        }
+        
+        /**
+         * Get the number of errors in this group.
+         *
+         * @return The count of all errors, including those not kept.
+         */
+        public int getCount()
+        {
+            return count;
+        }
+        
+        /**
+         * Get the exceptions kept for this group.
+         *
+         * @return The first exceptions of this group.
+         */
+        public List<TBXException> getExamples()
+        {
+            return java.util.Collections.unmodifiableList(examples);
+        }
+        
+        /** {@inheritDoc} */
+        public String toString()
+        {
+            String ret = priority.name() + " " + cause.getSimpleName();
+            if (key != null)
+                ret += " (" + key.getTag() + ", " + key.getType() + ")";
+            return ret + " x" + count;
+        }
+    }
+    
+    /** Exceptions kept for each group. */
+    private final int limit;
+    
+    /** The groups by priority, data category and cause. */
+    private final Map<List<Object>, Group> groups = new java.util.HashMap<List<Object>, Group>();
+    
+    /** Number of errors added. */
+    private int count;
+    
+    /**
+     * @param n The number of exceptions to keep for each group.
+     */
+    public ErrorSummary(int n)
+    {
+        if (n < 1)
+            throw new IllegalArgumentException("At least one exception must be kept for each group.");
+        limit = n;
+    }
+    
+    /**
+     * Count an error in its group.
+     *
+     * @param err The error to add.
+     * @return true => the exception is one of the first of its group and
+     *  has been kept.
+     */
+    public boolean add(TBXException err)
+    {
+        XCSDocument.Key key = null;
+        if (err.getCause() instanceof XCSValidationException)
+        {
+            Diagnostic diag = err.getDiagnostic();
+            key = new XCSDocument.Key(diag.getTag(), diag.getType());
+        }
+        Class<? extends Throwable> cause = (err.getCause() == null)
+            ? err.getClass()
+            : err.getCause().getClass();
+        List<Object> id = java.util.Arrays.<Object>asList(err.getPriority(), key, cause);
+        Group group = groups.get(id);
+        if (group == null)
+        {
+            group = new Group(err.getPriority(), key, cause);
+            groups.put(id, group);
+        }
+        count++;
+        group.count++;
+        boolean ret = group.examples.size() < limit;
+        if (ret)
+            group.examples.add(err);
+        return ret;
+    }
+    
+    /**
+     * Get the number of errors added.
+     *
+     * @return The count of all errors, including those not kept.
+     */
+    public int getCount()
+    {
+        return count;
+    }
+    
+    /**
+     * Get the number of exceptions kept for each group.
+     *
+     * @return The limit on the exceptions of a group.
+     */
+    public int getLimit()
+    {
+        return limit;
+    }
+    
+    /**
+     * Get the groups ordered as their first exceptions would be reported:
+     * by priority and then by when the first error was found.
+     *
+     * @return The sorted groups.
+     */
+    public List<Group> getGroups()
+    {
+        List<Group> ret = new java.util.ArrayList<Group>(groups.values());
+        java.util.Collections.sort(ret, new java.util.Comparator<Group>()
+            {
+                public int compare(Group a, Group b)
+                {
+                    return a.examples.get(0).compareTo(b.examples.get(0));
+                }
+            });
+        return ret;
+    }
+    
+    /**
+     * Get all of the exceptions that have been kept.
+     *
+     * @return The exceptions of every group in report order.
+     */
+    public Collection<TBXException> getExamples()
+    {
+        Collection<TBXException> ret = new java.util.TreeSet<TBXException>();
+        for (Group group : groups.values())
+            ret.addAll(group.examples);
+        return ret;
+    }
+    
+    /** {@inheritDoc} */
+    public String toString()
+    {
+        return String.format("ErrorSummary: %d errors in %d groups", count, groups.size());
+    }
+}
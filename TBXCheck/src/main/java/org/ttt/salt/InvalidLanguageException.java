@@ -38,24 +38,23 @@ public class InvalidLanguageException extends XCSValidationException
      */
     public InvalidLanguageException(Element elem)
     {
-        super(elem);
+        super(elem, "InvalidLanguageException", language(elem));
     }
     
-    /** {@inheritDoc} */
-    public String getMessage()
+    /**
+     * Get the language of an element.
+     *
+     * @param elem The XML element to get the language of.
+     * @return The xml:lang or lang attribute value, or null if neither is
+     *  present.
+     */
+    private static String language(Element elem)
     {
         String lang = null;
-        if (element().hasAttribute("xml:lang"))
-            lang = element().getAttribute("xml:lang");
-        else if (element().hasAttribute("lang"))
-            lang = element().getAttribute("lang");
-        return "Invalid language for tag: " + lang + " at " + buildContext();
-    }
-
-    /** {@inheritDoc} */
-    public String getLocalizedMessage()
-    {
-        //TODO--localize the message
-        return getMessage();
+        if (elem.hasAttribute("xml:lang"))
+            lang = elem.getAttribute("xml:lang");
+        else if (elem.hasAttribute("lang"))
+            lang = elem.getAttribute("lang");
+        return lang;
     }
 }
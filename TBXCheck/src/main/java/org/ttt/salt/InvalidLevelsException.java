@@ -38,19 +38,6 @@ public class InvalidLevelsException extends XCSValidationException
      */
     public InvalidLevelsException(Element elem)
     {
-        super(elem);
-    }
-    
-    /** {@inheritDoc} */
-    public String getMessage()
-    {
-        return "Invalid level error at " + buildContext();
-    }
-
-    /** {@inheritDoc} */
-    public String getLocalizedMessage()
-    {
-        //TODO--localize the message
-        return getMessage();
+        super(elem, "InvalidLevelsException");
     }
 }
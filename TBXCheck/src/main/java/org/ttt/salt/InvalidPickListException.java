@@ -33,29 +33,12 @@ public class InvalidPickListException extends XCSValidationException
     /** SCM information. */
     public static final String RCSID = "$Id$";
     
-    /** */
-    private final String pickvalue;
-    
     /**
      * @param elem The XML element this exception occured on.
      * @param pv The invalid TBX pickvalue.
      */
     public InvalidPickListException(Element elem, String pv)
     {
-        super(elem);
-        pickvalue = pv;
-    }
-    
-    /** {@inheritDoc} */
-    public String getMessage()
-    {
-        return "Invalid picklist entry: Value=\"" + pickvalue + "\" in " + buildContext();
-    }
-
-    /** {@inheritDoc} */
-    public String getLocalizedMessage()
-    {
-        //TODO--localize the message
-        return getMessage();
+        super(elem, "InvalidPickListException", pv);
     }
 }
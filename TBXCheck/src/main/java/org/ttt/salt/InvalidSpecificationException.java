@@ -38,19 +38,6 @@ public class InvalidSpecificationException extends XCSValidationException
      */
     public InvalidSpecificationException(Element elem)
     {
-        super(elem);
-    }
-    
-    /** {@inheritDoc} */
-    public String getMessage()
-    {
-        return "Invalid specification at " + buildContext();
-    }
-
-    /** {@inheritDoc} */
-    public String getLocalizedMessage()
-    {
-        //TODO--localize the message
-        return getMessage();
+        super(elem, "InvalidSpecificationException");
     }
 }
@@ -0,0 +1,70 @@
+/*
+ * $Id$
+ *-----------------------------------------------------------------------------
+ * Copyright 2000 Lance Finn Helsten (helsten@acm.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ttt.salt;
+
+/**
+ * Helpers for writing results as JSON.
+ *
+ * @author Lance Finn Helsten
+ * @version $Id$
+ * @license Licensed under the Apache License, Version 2.0.
+ */
+final class JSON
+{
+    /*
+     */
+    
+    /** SCM information. */
+    public static final String RCSID = "$Id$";
+    
+    /**
+     * This is a static utility class.
+     */
+    private JSON()
+    {
+    }
+    
+    /**
+     * Append a string as a JSON string.
+     *
+     * @param buf The buffer to append to.
+     * @param str The string, or null for a JSON null.
+     * @return The buffer.
+     */
+    static StringBuilder quote(StringBuilder buf, String str)
+    {
+        if (str == null)
+            return buf.append("null");
+        buf.append('"');
+        for (int i = 0; i < str.length(); i++)
+        {
+            char c = str.charAt(i);
+            if (c == '"' || c == '\\')
+                buf.append('\\').append(c);
+            else if (c == '\n')
+                buf.append("\\n");
+            //CHECKSTYLE: MagicNumber OFF
+            else if (c < 0x20)
+                buf.append(String.format("\\u%04x", (int) c));
+            //CHECKSTYLE: MagicNumber ON
+            else
+                buf.append(c);
+        }
+        return buf.append('"');
+    }
+}
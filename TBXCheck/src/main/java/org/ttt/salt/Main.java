@@ -20,8 +20,17 @@ package org.ttt.salt;
 import java.io.File;
 import java.io.IOException;
 import java.io.FileNotFoundException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.text.MessageFormat;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.SortedMap;
 import java.util.Iterator;
 import java.util.ListIterator;
@@ -29,6 +38,13 @@ import java.util.ResourceBundle;
 import java.util.Locale;
 import java.util.Calendar;
 import java.util.TimeZone;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 import java.util.logging.Level;
 import java.util.logging.LogManager;
@@ -57,9 +73,11 @@ public final class Main
 
     /** Long options. */
     private static final String[] LONG_OPTIONS = {
-            "nolang",
+            "nolang", "streaming", "compact", "mapped", "failfast", "incremental", "json",
             "help", "version", "environment",
-            "lang=", "country=", "variant=", "loglevel="
+            "lang=", "country=", "variant=", "loglevel=", "threads=", "jobs=", "maxerrors=",
+            "summary=", "spill=", "cache=", "cachesize=", "cacheage=", "watch=",
+            "serve=", "queue="
         };
 
     /** Main logger for this class. */
@@ -236,6 +254,16 @@ public final class Main
         
         checkSystem();
         initSystem();
+        if (options.containsOption("--serve"))
+        {
+            serve(options.getParameter("--serve"));
+            return;
+        }
+        if (options.containsOption("--watch"))
+        {
+            watchDirectory(new File(options.getParameter("--watch")));
+            return;
+        }
         List<String> paths = java.util.Arrays.asList(options.getArgs());
         List<File> files = checkFiles(paths);
         processFiles(files);
@@ -305,44 +333,480 @@ public final class Main
 
     /**
      * Process each file in the TBX system for validity.
+     * <p>
+     * The files are checked by a pool of <code>--jobs</code> threads, each
+     * file with its own copy of the configuration. The results for each
+     * file are printed as a unit in the same order as the files were
+     * given. With a single job the results are printed as the file is
+     * checked, so the diagnostics of a file are never all held on the
+     * heap.</p>
      *
      * @param files List of {@link java.io.File} objects to process.
      * @throws IOException Any I/O exceptions that occur.
      */
     private void processFiles(List<File> files) throws IOException, SAXException
+    {
+        final Configuration config = buildConfiguration();
+        int jobs = options.containsOption("--jobs")
+            ? Integer.parseInt(options.getParameter("--jobs"))
+            : 1;
+        if (jobs < 1)
+            throw new IllegalArgumentException("--jobs must be at least one.");
+        final boolean direct = jobs == 1;
+        
+        long start = System.nanoTime();
+        long bytes = 0;
+        long entries = 0;
+        ExecutorService pool = Executors.newFixedThreadPool(jobs);
+        try
+        {
+            Queue<Future<FileResult>> pending = new java.util.LinkedList<Future<FileResult>>();
+            Iterator<File> iter = files.iterator();
+            while (iter.hasNext() || !pending.isEmpty())
+            {
+                while (iter.hasNext() && pending.size() < jobs * 2)
+                {
+                    final File file = iter.next();
+                    pending.add(pool.submit(new Callable<FileResult>()
+                        {
+                            public FileResult call() throws IOException, SAXException
+                            {
+                                return checkFile(file, (Configuration) config.clone(), direct);
+                            }
+                        }));
+                }
+                FileResult result = waitForResult(pending.remove());
+                System.out.print(result.out);
+                System.out.flush();
+                System.err.print(result.err);
+                System.err.flush();
+                bytes += result.bytes;
+                entries += result.entries;
+            }
+        }
+        finally
+        {
+            pool.shutdownNow();
+        }
+        LOGGER.info(XCSCache.getInstance().toString());
+        LOGGER.info(ParserPool.getInstance().toString());
+        if (config.getResultCache() != null)
+        {
+            config.getResultCache().evict();
+            LOGGER.info(config.getResultCache().toString());
+        }
+        
+        if (options.containsOption("--jobs"))
+        {
+            //CHECKSTYLE: MagicNumber OFF
+            double secs = Math.max(System.nanoTime() - start, 1L) / 1.0e9;
+            ResourceBundle bundle = ResourceBundle.getBundle("org.ttt.salt.Main");
+            Object[] args = {
+                files.size(), secs,
+                files.size() / secs,
+                bytes / (1024.0 * 1024.0) / secs,
+                entries / secs,
+            };
+            System.out.println(MessageFormat.format(bundle.getString("Throughput"), args));
+            //CHECKSTYLE: MagicNumber ON
+        }
+    }
+    
+    /**
+     * Run the HTTP validation service until the process is stopped.
+     * <p>
+     * The service listens on the loopback interface unless a host is
+     * given. The number of documents checked at the same time is given by
+     * <code>--jobs</code>, by default one for each processor, and relative
+     * references in the documents are resolved against the current
+     * directory.</p>
+     *
+     * @param addr The port, or the host and port separated by a colon.
+     * @throws IOException The service could not be started.
+     */
+    private void serve(String addr) throws IOException
+    {
+        int colon = addr.lastIndexOf(':');
+        String host = (colon == -1) ? null : addr.substring(0, colon);
+        int port = Integer.parseInt(addr.substring(colon + 1));
+        InetSocketAddress sockaddr = (host == null)
+            ? new InetSocketAddress(InetAddress.getLoopbackAddress(), port)
+            : new InetSocketAddress(host, port);
+        int jobs = options.containsOption("--jobs")
+            ? Integer.parseInt(options.getParameter("--jobs"))
+            : Runtime.getRuntime().availableProcessors();
+        int queue = options.containsOption("--queue")
+            ? Integer.parseInt(options.getParameter("--queue"))
+            : ValidationServer.DEFAULT_QUEUE;
+        URL base = new File(System.getProperty("user.dir"), "request.tbx").toURI().toURL();
+        
+        final ValidationServer server = new ValidationServer(sockaddr, buildConfiguration(), base, jobs, queue);
+        Runtime.getRuntime().addShutdownHook(new Thread()
+            {
+                public void run()
+                {
+                    server.stop(1);
+                }
+            });
+        server.start();
+        ResourceBundle bundle = ResourceBundle.getBundle("org.ttt.salt.Main");
+        Object[] args = {server.getAddress().getHostString(), server.getAddress().getPort()};
+        System.out.println(MessageFormat.format(bundle.getString("Serving"), args));
+    }
+    
+    /**
+     * Check every TBX file in a directory tree, and then keep checking the
+     * files as they change until the process is stopped.
+     * <p>
+     * The parsers, grammars and XCS documents stay loaded between checks,
+     * so a changed file is checked in much less time than a new process
+     * would take. After the first check only the files whose validity or
+     * errors changed are printed, or with <code>--json</code> each of those
+     * is written as a single JSON object on its own line. A changed file
+     * that is not a TBX document may be an XCS, so then every TBX file is
+     * checked again.</p>
+     *
+     * @param root The root of the directory tree.
+     * @throws IOException Any I/O exceptions that occur.
+     */
+    private void watchDirectory(File root) throws IOException, SAXException
+    {
+        Configuration config = buildConfiguration();
+        boolean json = options.containsOption("--json");
+        Path dir = root.toPath().toAbsolutePath();
+        Map<Path, FileResult> results = new java.util.HashMap<Path, FileResult>();
+        DirectoryWatcher watcher = new DirectoryWatcher(dir);
+        try
+        {
+            Set<Path> changed = DirectoryWatcher.list(dir);
+            while (true)
+            {
+                for (Path path : changed)
+                {
+                    FileResult prev = results.get(path);
+                    FileResult next = null;
+                    long start = System.nanoTime();
+                    try
+                    {
+                        if (Files.isRegularFile(path) && isTBX(path))
+                            next = checkFile(path.toFile(), (Configuration) config.clone(), false);
+                    }
+                    catch (IOException err)
+                    {   //The file may be part way through being written
+                        LOGGER.log(Level.WARNING, "Could not check " + path, err);
+                    }
+                    if (next == null)
+                        results.remove(path);
+                    else
+                        results.put(path, next);
+                    if (prev == next || (prev != null && next != null
+                        && prev.valid == next.valid && prev.err.equals(next.err)))
+                        continue;
+                    long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                    if (json)
+                        System.out.println(toJSON(path, prev, next, millis));
+                    else if (next == null)
+                        System.out.println(MessageFormat.format(
+                            ResourceBundle.getBundle("org.ttt.salt.Main").getString("FileRemoved"), path));
+                    else
+                        System.out.print(next.out);
+                    System.out.flush();
+                    if (!json && next != null)
+                    {
+                        System.err.print(next.err);
+                        System.err.flush();
+                    }
+                }
+                LOGGER.info(XCSCache.getInstance().toString());
+                
+                changed = watcher.take();
+                for (Path path : changed)
+                {
+                    if (!results.containsKey(path) && Files.isRegularFile(path) && !isTBX(path))
+                    {   //Possibly an XCS used by the other files
+                        changed.addAll(results.keySet());
+                        break;
+                    }
+                }
+            }
+        }
+        catch (InterruptedException err)
+        {
+            Thread.currentThread().interrupt();
+            InterruptedIOException ioerr = new InterruptedIOException("Interrupted while watching files.");
+            ioerr.initCause(err);
+            throw ioerr;
+        }
+        finally
+        {
+            watcher.close();
+        }
+    }
+    
+    /**
+     * Find out if a file is a TBX document by looking for the martif root
+     * element near the start of the file.
+     *
+     * @param path The file.
+     * @return true => the file has a martif element.
+     * @throws IOException The file could not be read.
+     */
+    private static boolean isTBX(Path path) throws IOException
+    {
+        //CHECKSTYLE: MagicNumber OFF
+        byte[] buf = new byte[4096];
+        //CHECKSTYLE: MagicNumber ON
+        InputStream in = Files.newInputStream(path);
+        int len = 0;
+        try
+        {
+            for (int n = 0; n != -1 && len < buf.length; n = in.read(buf, len, buf.length - len))
+                len += n;
+        }
+        finally
+        {
+            in.close();
+        }
+        String head = new String(buf, 0, len, "ISO-8859-1");
+        return head.contains("<martif") || head.contains("m\0a\0r\0t\0i\0f");
+    }
+    
+    /**
+     * Write the change in the result of a file as a JSON object.
+     *
+     * @param path The file.
+     * @param prev The previous result, or null if the file was not checked.
+     * @param next The new result, or null if the file was removed.
+     * @param millis Time in milliseconds taken to check the file.
+     * @return The JSON object on a single line.
+     */
+    private static String toJSON(Path path, FileResult prev, FileResult next, long millis)
+    {
+        StringBuilder ret = new StringBuilder("{\"file\":");
+        JSON.quote(ret, path.toString());
+        ret.append(",\"previous\":").append(prev == null ? "null" : (prev.valid ? "\"valid\"" : "\"invalid\""));
+        ret.append(",\"current\":").append(next == null ? "\"removed\"" : (next.valid ? "\"valid\"" : "\"invalid\""));
+        ret.append(",\"errors\":").append(next == null ? 0 : next.errors);
+        ret.append(",\"millis\":").append(millis);
+        if (next != null && !next.valid)
+        {
+            ret.append(",\"messages\":");
+            JSON.quote(ret, next.err);
+        }
+        return ret.append('}').toString();
+    }
+    
+    /**
+     * Build the configuration given by the command line options.
+     *
+     * @return The configuration for checking files.
+     * @throws IOException The result cache could not be opened.
+     */
+    private Configuration buildConfiguration() throws IOException
     {
         Configuration config = new Configuration();
         config.setCheckLang(!options.containsOption("--nolang"));
+        config.setStreaming(options.containsOption("--streaming"));
+        config.setCompactWhitespace(options.containsOption("--compact"));
+        config.setMappedInput(options.containsOption("--mapped"));
+        config.setFailFast(options.containsOption("--failfast"));
+        config.setIncremental(options.containsOption("--incremental"));
+        if (options.containsOption("--maxerrors"))
+            config.setMaxErrors(Integer.parseInt(options.getParameter("--maxerrors")));
+        if (options.containsOption("--summary"))
+            config.setSummaryExamples(Integer.parseInt(options.getParameter("--summary")));
+        if (options.containsOption("--spill"))
+            config.setDiagnosticWindow(Integer.parseInt(options.getParameter("--spill")));
+        if (options.containsOption("--cache"))
+        {
+            //CHECKSTYLE: MagicNumber OFF
+            long size = options.containsOption("--cachesize")
+                ? Long.parseLong(options.getParameter("--cachesize")) * 1024 * 1024
+                : ResultCache.DEFAULT_MAX_SIZE;
+            long age = options.containsOption("--cacheage")
+                ? Long.parseLong(options.getParameter("--cacheage")) * 24 * 60 * 60 * 1000
+                : ResultCache.DEFAULT_MAX_AGE;
+            //CHECKSTYLE: MagicNumber ON
+            config.setResultCache(new ResultCache(new File(options.getParameter("--cache")), size, age));
+        }
+        if (options.containsOption("--threads"))
+            config.setValidationThreads(Integer.parseInt(options.getParameter("--threads")));
+        return config;
+    }
     
-        Iterator<File> iter = files.iterator();
-        while (iter.hasNext())
+    /**
+     * Check a single file and render the messages that would be printed for
+     * it. Only the rendered text is kept so the file's document may be
+     * garbage collected before the result is printed. When the messages are
+     * printed directly the result has no text.
+     *
+     * @param file The file to check.
+     * @param config The configuration to use for this file only.
+     * @param direct Print the messages as they are rendered.
+     * @return The result of checking the file.
+     * @throws IOException Any I/O exceptions that occur.
+     */
+    private FileResult checkFile(File file, Configuration config, boolean direct)
+        throws IOException, SAXException
+    {
+        ResourceBundle bundle = ResourceBundle.getBundle("org.ttt.salt.Main");
+        Appendable out = direct ? System.out : new StringBuilder();
+        Appendable err = direct ? System.err : new StringBuilder();
+        String eol = System.getProperty("line.separator");
+        
+        TBXFile dv = new TBXFile(file.toURI().toURL(), config);
+        try
         {
-            File file = iter.next();
-            TBXFile dv = new TBXFile(file.toURI().toURL(), (Configuration) config.clone());
             dv.parseAndValidate();
             if (dv.isValid())
             {
-                ResourceBundle bundle = ResourceBundle.getBundle("org.ttt.salt.Main");
                 Object[] args = {file};
-                String msg = MessageFormat.format(bundle.getString("FileValid"), args);
-                System.out.println(msg);
+                out.append(MessageFormat.format(bundle.getString("FileValid"), args)).append(eol);
             }
             else
             {
-                ResourceBundle bundle = ResourceBundle.getBundle("org.ttt.salt.Main");
                 Object[] args = {file.getCanonicalPath()};
-                String msg = MessageFormat.format(bundle.getString("FileInvalid"), args);
-                System.out.println(msg);
+                out.append(MessageFormat.format(bundle.getString("FileInvalid"), args)).append(eol);
                 
-                Iterator errs = dv.getInvalidatingExceptions().iterator();
-                while (errs.hasNext())
+                if (dv.getErrorSummary() != null)
+                {
+                    for (ErrorSummary.Group group : dv.getErrorSummary().getGroups())
+                    {
+                        Object[] gargs = {
+                            group.getPriority(),
+                            group.getCauseClass().getSimpleName(),
+                            (group.getKey() == null) ? "" : group.getKey().getTag(),
+                            (group.getKey() == null) ? "" : group.getKey().getType(),
+                            group.getCount(),
+                            group.getCount() - group.getExamples().size(),
+                        };
+                        String key = (group.getKey() == null) ? "ErrorGroup" : "ErrorGroupXCS";
+                        err.append(MessageFormat.format(bundle.getString(key), gargs)).append(eol);
+                        for (TBXException tbxerr : group.getExamples())
+                        {
+                            err.append(tbxerr.getLocalizedMessage()).append(eol);
+                            LOGGER.log(Level.FINER, "", tbxerr);
+                        }
+                        if (group.getCount() > group.getExamples().size())
+                            err.append(MessageFormat.format(bundle.getString("ErrorGroupMore"), gargs)).append(eol);
+                    }
+                }
+                else if (dv.getDiagnosticStore() != null || dv.isCached())
+                {
+                    Iterator<Diagnostic> diags = dv.getDiagnostics();
+                    while (diags.hasNext())
+                    {
+                        Diagnostic diag = diags.next();
+                        Object[] dargs = {diag.getPriority(), diag.getLocalizedMessage()};
+                        String key = diag.getCode().equals("TBXException") ? "DiagnosticOther" : "Diagnostic";
+                        err.append(MessageFormat.format(bundle.getString(key), dargs)).append(eol);
+                    }
+                }
+                else
+                {
+                    Iterator errs = dv.getInvalidatingExceptions().iterator();
+                    while (errs.hasNext())
+                    {
+                        TBXException tbxerr = (TBXException) errs.next();
+                        err.append(tbxerr.getLocalizedMessage()).append(eol);
+                        LOGGER.log(Level.FINER, "", tbxerr);
+                    }
+                }
+                if (dv.isTruncated())
                 {
-                    TBXException err = (TBXException) errs.next();
-                    System.err.println(err.getLocalizedMessage());
-                    LOGGER.log(Level.FINER, "", err);
+                    Object[] targs = {dv.getInvalidatingExceptionCount()};
+                    err.append(MessageFormat.format(bundle.getString("FileTruncated"), targs)).append(eol);
                 }
             }
         }
+        finally
+        {
+            if (dv.getDiagnosticStore() != null)
+                dv.getDiagnosticStore().close();
+        }
+        if (direct)
+        {
+            System.out.flush();
+            System.err.flush();
+        }
+        return new FileResult(direct ? "" : out.toString(), direct ? "" : err.toString(), file.length(),
+            dv.getTermEntryCount(), dv.isValid(), dv.getInvalidatingExceptionCount());
+    }
+    
+    /**
+     * Wait for a file to finish checking.
+     *
+     * @param future The pending result of the file check.
+     * @return The result of checking the file.
+     * @throws IOException Any I/O exceptions that occur.
+     */
+    private FileResult waitForResult(Future<FileResult> future) throws IOException, SAXException
+    {
+        try
+        {
+            return future.get();
+        }
+        catch (InterruptedException err)
+        {
+            Thread.currentThread().interrupt();
+            InterruptedIOException ioerr = new InterruptedIOException("Interrupted while checking files.");
+            ioerr.initCause(err);
+            throw ioerr;
+        }
+        catch (ExecutionException err)
+        {
+            Throwable t = err.getCause();
+            if (t instanceof IOException)
+                throw (IOException) t;
+            else if (t instanceof SAXException)
+                throw (SAXException) t;
+            else if (t instanceof RuntimeException)
+                throw (RuntimeException) t;
+            else if (t instanceof Error)
+                throw (Error) t;
+            throw new IOException(t.toString());
+        }
+    }
+    
+    /**
+     * The rendered result of checking a single file.
+     */
+    private static final class FileResult
+    {
+        /** Text for standard out. */
+        private final String out;
+        
+        /** Text for standard error. */
+        private final String err;
+        
+        /** Size of the file in bytes. */
+        private final long bytes;
+        
+        /** Number of termEntry elements in the file. */
+        private final int entries;
+        
+        /** The file is valid. */
+        private final boolean valid;
+        
+        /** Number of errors found in the file. */
+        private final int errors;
+        
+        /**
+         * @param o Text for standard out.
+         * @param e Text for standard error.
+         * @param b Size of the file in bytes.
+         * @param n Number of termEntry elements in the file.
+         * @param v The file is valid.
+         * @param c Number of errors found in the file.
+         */
+        private FileResult(String o, String e, long b, int n, boolean v, int c)
+        {
+            out = o;
+            err = e;
+            bytes = b;
+            entries = n;
+            valid = v;
+            errors = c;
+        }
     }
 }
-
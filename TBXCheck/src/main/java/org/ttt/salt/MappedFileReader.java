@@ -0,0 +1,212 @@
+/*
+ * $Id$
+ *-----------------------------------------------------------------------------
+ * Copyright 2000 Lance Finn Helsten (helsten@acm.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ttt.salt;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * This reads a local file through memory mapped segments and decodes the
+ * bytes straight into the caller's character array. It replaces the
+ * stream, buffered stream, stream reader, and buffered reader chain with
+ * one decoding copy into the XML parser's own buffer.
+ * <p>
+ * The file is mapped one segment at a time so files larger than 2 GB can
+ * be read. A character that is split between two segments is handled by
+ * mapping the next segment from the first undecoded byte.</p>
+ * <p>
+ * The encoding is found with {@link TBXResolver#getEncoding(java.nio.ByteBuffer)}
+ * and any Byte Order Mark is skipped. Malformed input is replaced, as it is
+ * by {@link java.io.InputStreamReader}.</p>
+ *
+ * @author Lance Finn Helsten
+ * @version $Id$
+ * @license Licensed under the Apache License, Version 2.0.
+ */
+public class MappedFileReader extends Reader
+{
+    /*
+     */
+
+    /** SCM information. */
+    public static final String RCSID = "$Id$";
+    
+    /** Default number of bytes mapped at a time. */
+    public static final int DEFAULT_SEGMENT_SIZE = 1 << 28;
+    
+    /** The channel for the file. */
+    private FileChannel channel;
+    
+    /** Size of the file in bytes. */
+    private final long size;
+    
+    /** Number of bytes mapped at a time. */
+    private final int segmentSize;
+    
+    /** File offset of the current segment. */
+    private long segmentStart;
+    
+    /** The current segment. */
+    private MappedByteBuffer segment;
+    
+    /** The encoding of the file. */
+    private final String encoding;
+    
+    /** Decoder for the file encoding. */
+    private final CharsetDecoder decoder;
+    
+    /** Low surrogate left over from a one character read or -1. */
+    private int pending = -1;
+    
+    /** The decoder has been flushed at end of file. */
+    private boolean flushed;
+    
+    /**
+     * @param file The local file to read.
+     * @throws IOException Any unhandled I/O exceptions.
+     */
+    public MappedFileReader(File file) throws IOException
+    {
+        this(file, DEFAULT_SEGMENT_SIZE);
+    }
+    
+    /**
+     * @param file The local file to read.
+     * @param segSize Number of bytes to map at a time.
+     * @throws IOException Any unhandled I/O exceptions.
+     */
+    public MappedFileReader(File file, int segSize) throws IOException
+    {
+        //CHECKSTYLE: MagicNumber OFF
+        if (segSize < 16)
+            throw new IllegalArgumentException("Segment size must be at least 16 bytes");
+        //CHECKSTYLE: MagicNumber ON
+        segmentSize = segSize;
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try
+        {
+            size = channel.size();
+            map(0);
+            encoding = TBXResolver.getEncoding(segment);
+        }
+        catch (IOException err)
+        {
+            channel.close();
+            throw err;
+        }
+        decoder = Charset.forName(encoding).newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+    
+    /**
+     * @return The encoding of the file.
+     */
+    public String getEncoding()
+    {
+        return encoding;
+    }
+    
+    /**
+     * @return Size of the file in bytes.
+     */
+    public long getSize()
+    {
+        return size;
+    }
+    
+    /** {@inheritDoc} */
+    public int read(char[] cbuf, int off, int len) throws IOException
+    {
+        if (channel == null)
+            throw new IOException("Reader closed");
+        if (off < 0 || len < 0 || off + len > cbuf.length)
+            throw new IndexOutOfBoundsException();
+        if (len == 0)
+            return 0;
+        if (pending >= 0)
+        {
+            cbuf[off] = (char) pending;
+            pending = -1;
+            return 1;
+        }
+        
+        CharBuffer out = CharBuffer.wrap(cbuf, off, len);
+        while (out.position() == off)
+        {
+            if (flushed)
+                return -1;
+            boolean last = segmentStart + segment.limit() == size;
+            CoderResult result = decoder.decode(segment, out, last);
+            if (result.isError())
+                result.throwException();
+            if (out.position() != off)
+                break;
+            if (result.isOverflow())
+            {   //a surrogate pair into a one character buffer
+                CharBuffer pair = CharBuffer.allocate(2);
+                decoder.decode(segment, pair, last);
+                cbuf[off] = pair.get(0);
+                if (pair.position() > 1)
+                    pending = pair.get(1);
+                return 1;
+            }
+            if (!last)
+                map(segmentStart + segment.position());
+            else
+            {
+                decoder.flush(out);
+                flushed = true;
+            }
+        }
+        return out.position() - off;
+    }
+    
+    /** {@inheritDoc} */
+    public void close() throws IOException
+    {
+        if (channel != null)
+        {
+            channel.close();
+            channel = null;
+            segment = null;
+        }
+    }
+    
+    /**
+     * Map the segment that starts at the given file offset.
+     *
+     * @param pos File offset of the segment.
+     * @throws IOException Any unhandled I/O exceptions.
+     */
+    private void map(long pos) throws IOException
+    {
+        long length = Math.min(segmentSize, size - pos);
+        segment = channel.map(FileChannel.MapMode.READ_ONLY, pos, length);
+        segmentStart = pos;
+    }
+}
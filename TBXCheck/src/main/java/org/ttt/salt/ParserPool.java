@@ -0,0 +1,190 @@
+/*
+ * $Id$
+ *-----------------------------------------------------------------------------
+ * Copyright 2000 Lance Finn Helsten (helsten@acm.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ttt.salt;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import org.xml.sax.EntityResolver;
+import org.xml.sax.SAXNotRecognizedException;
+import org.xml.sax.SAXNotSupportedException;
+import org.ttt.salt.dom.tbx.TBXParser;
+import org.ttt.salt.dom.xcs.XCSParser;
+
+/**
+ * This is a process wide, bounded pool of ready TBX and XCS parsers so
+ * that callers checking many files reuse the Xerces pipeline, its
+ * configuration, and its internal buffers instead of building new ones for
+ * every file.
+ * <p>
+ * A parser is checked out with {@link #getTBXParser} or
+ * {@link #getXCSParser}, used for one parse on one thread, and handed back
+ * with <code>release</code> once the document has been taken from it. A
+ * parser that is never released is simply not reused. When the pool is
+ * full released parsers are dropped.</p>
+ *
+ * @author Lance Finn Helsten
+ * @version $Id$
+ * @license Licensed under the Apache License, Version 2.0.
+ */
+public final class ParserPool
+{
+    /*
+     */
+
+    /** SCM information. */
+    public static final String RCSID = "$Id$";
+    
+    /** Default number of idle parsers of each kind kept in a pool. */
+    public static final int DEFAULT_CAPACITY = 16;
+    
+    /** The process wide pool. */
+    private static final ParserPool INSTANCE = new ParserPool(DEFAULT_CAPACITY);
+    
+    /**
+     * Get the process wide parser pool.
+     *
+     * @return The process wide parser pool.
+     */
+    public static ParserPool getInstance()
+    {
+        return INSTANCE;
+    }
+    
+    /** Idle TBX parsers. */
+    private final BlockingQueue<TBXParser> tbxParsers;
+    
+    /** Idle XCS parsers. */
+    private final BlockingQueue<XCSParser> xcsParsers;
+    
+    /** Number of parsers that had to be created. */
+    private final AtomicLong created = new AtomicLong();
+    
+    /** Number of parsers that were reused from the pool. */
+    private final AtomicLong reused = new AtomicLong();
+    
+    /**
+     * @param capacity Maximum number of idle parsers of each kind.
+     */
+    public ParserPool(int capacity)
+    {
+        if (capacity < 1)
+            throw new IllegalArgumentException("Capacity must be at least one.");
+        tbxParsers = new java.util.concurrent.ArrayBlockingQueue<TBXParser>(capacity);
+        xcsParsers = new java.util.concurrent.ArrayBlockingQueue<XCSParser>(capacity);
+    }
+    
+    /**
+     * Check out a TBX parser that is ready to parse a new document.
+     *
+     * @param r The XML entity resolver the parser should use.
+     * @param c The validation and compliance configuration.
+     * @return A ready parser.
+     * @throws SAXNotRecognizedException Requried parser feature is unavailable.
+     * @throws SAXNotSupportedException Could not set required parser feature.
+     */
+    public TBXParser getTBXParser(EntityResolver r, Configuration c)
+        throws SAXNotRecognizedException, SAXNotSupportedException
+    {
+        TBXParser ret = tbxParsers.poll();
+        if (ret == null)
+        {
+            created.incrementAndGet();
+            return new TBXParser(r, c);
+        }
+        reused.incrementAndGet();
+        ret.reset(r, c);
+        return ret;
+    }
+    
+    /**
+     * Return a TBX parser to the pool. The parser forgets the document it
+     * built, so the document must already have been taken from it.
+     *
+     * @param parser The parser, which must not be used after this call.
+     */
+    public void release(TBXParser parser)
+    {
+        parser.reset();
+        tbxParsers.offer(parser);
+    }
+    
+    /**
+     * Check out an XCS parser that is ready to parse a new XCS.
+     *
+     * @param r The XML entity resolver the parser should use.
+     * @return A ready parser.
+     * @throws SAXNotRecognizedException Requried parser feature is unavailable.
+     * @throws SAXNotSupportedException Could not set required parser feature.
+     */
+    public XCSParser getXCSParser(EntityResolver r)
+        throws SAXNotRecognizedException, SAXNotSupportedException
+    {
+        XCSParser ret = xcsParsers.poll();
+        if (ret == null)
+        {
+            created.incrementAndGet();
+            return new XCSParser(r);
+        }
+        reused.incrementAndGet();
+        ret.reset(r);
+        return ret;
+    }
+    
+    /**
+     * Return an XCS parser to the pool.
+     *
+     * @param parser The parser, which must not be used after this call.
+     */
+    public void release(XCSParser parser)
+    {
+        parser.reset(null);
+        xcsParsers.offer(parser);
+    }
+    
+    /**
+     * @return Number of parsers that had to be created.
+     */
+    public long getCreated()
+    {
+        return created.get();
+    }
+    
+    /**
+     * @return Number of parsers that were reused from the pool.
+     */
+    public long getReused()
+    {
+        return reused.get();
+    }
+    
+    /** {@inheritDoc} */
+    public String toString()
+    {
+        return String.format("ParserPool[idleTBX=%d idleXCS=%d created=%d reused=%d]",
+            tbxParsers.size(), xcsParsers.size(), created.get(), reused.get());
+    }
+    
+    /**
+     * Drop all idle parsers.
+     */
+    public void clear()
+    {
+        tbxParsers.clear();
+        xcsParsers.clear();
+    }
+}
@@ -0,0 +1,368 @@
+/*
+ * $Id$
+ *-----------------------------------------------------------------------------
+ * Copyright 2000 Lance Finn Helsten (helsten@acm.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ttt.salt;
+
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StreamCorruptedException;
+
+/**
+ * This reader passes all characters through unchanged while it
+ * classifies the document prolog: the XML declaration, an optional
+ * DOCTYPE declaration, and the start of the root element. Once the
+ * root element has been seen the reader is a plain pass through.
+ * <p>
+ * This replaces the older mark and reset pre-screen so the prolog is
+ * read exactly once, by the same pass that feeds the XML parser, and
+ * its length is not limited by a mark buffer.</p>
+ * <p>
+ * A strict reader requires a minimally TBX prolog. One that is not is
+ * reported by throwing a {@link java.io.StreamCorruptedException} from
+ * <code>read</code>; {@link #getFailure} then gives the resource key for
+ * the problem. A lenient reader, as used for XCS documents, does not
+ * require the XML declaration or a martif root and stops watching at the
+ * first problem instead.</p>
+ * <p>
+ * The reader also records whether the DOCTYPE has an internal subset,
+ * which {@link TBXGrammarPool.Gate} uses to decide if a pooled grammar
+ * may be used. Xerces asks for the grammar only after it has read the
+ * character that follows the DTD's external id, so the answer is known by
+ * then.</p>
+ *
+ * @author Lance Finn Helsten
+ * @version $Id$
+ * @license Licensed under the Apache License, Version 2.0.
+ */
+class PrologReader extends FilterReader
+{
+    /*
+     */
+    
+    /** SCM information. */
+    public static final String RCSID = "$Id$";
+    
+    /** Scanning for the &lt;?xml declaration. */
+    private static final int XMLDECL = 0;
+    
+    /** Between markup in the prolog. */
+    private static final int MISC = 1;
+    
+    /** Inside a processing instruction. */
+    private static final int PI = 2;
+    
+    /** Inside a comment. */
+    private static final int COMMENT = 3;
+    
+    /** Inside the DOCTYPE declaration. */
+    private static final int DOCTYPE = 4;
+    
+    /** The root element has been found. */
+    private static final int DONE = 5;
+    
+    /** Inside a comment in the DOCTYPE internal subset. */
+    private static final int SUBSET_COMMENT = 6;
+    
+    /** Inside a processing instruction in the DOCTYPE internal subset. */
+    private static final int SUBSET_PI = 7;
+    
+    /** Reading the name of the root element. */
+    private static final int ROOT = 8;
+    
+    /** Name of the TBX root element. */
+    private static final String ROOT_NAME = "martif";
+    
+    /** Required start of the document. */
+    private static final String XMLDECL_START = "<?xml";
+    
+    /** Start of a comment. */
+    private static final String COMMENT_START = "<!--";
+    
+    /** Start of a DOCTYPE declaration. */
+    private static final String DOCTYPE_START = "<!DOCTYPE";
+    
+    /** Report a prolog that is not minimally TBX. */
+    private final boolean strict;
+    
+    /** Current classification state. */
+    private int state;
+    
+    /** Type of file found so far. */
+    private TBXFile.Type type = TBXFile.Type.UNKNOWN;
+    
+    /** Text of the markup being matched. */
+    private final StringBuilder token = new StringBuilder();
+    
+    /** The character before the current character. */
+    private int prev1;
+    
+    /** The character two before the current character. */
+    private int prev2;
+    
+    /** The character three before the current character. */
+    private int prev3;
+    
+    /** Quote character open in the DOCTYPE or zero. */
+    private int quote;
+    
+    /** Nesting of the DOCTYPE internal subset. */
+    private int depth;
+    
+    /** An internal subset was found. */
+    private boolean subset;
+    
+    /** Resource key for the failure or null. */
+    private String failure;
+    
+    /**
+     * @param in The reader that this will read from.
+     * @param s Report a prolog that is not minimally TBX.
+     */
+    public PrologReader(Reader in, boolean s)
+    {
+        super(in);
+        strict = s;
+        state = strict ? XMLDECL : MISC;
+    }
+    
+    /**
+     * @return Type of file determined from the prolog.
+     */
+    public TBXFile.Type getType()
+    {
+        return type;
+    }
+    
+    /**
+     * @return true => the DOCTYPE has an internal subset.
+     */
+    public boolean hasInternalSubset()
+    {
+        return subset;
+    }
+    
+    /**
+     * @return Resource key for the prolog failure or null.
+     */
+    public String getFailure()
+    {
+        return failure;
+    }
+    
+    /** {@inheritDoc} */
+    public int read() throws IOException
+    {
+        int ret = in.read();
+        if (state != DONE)
+        {
+            if (ret < 0)
+                fail("PreParse_EOF", null);
+            scan((char) ret);
+        }
+        return ret;
+    }
+
+    /** {@inheritDoc} */
+    public int read(char[] cbuf, int off, int len) throws IOException
+    {
+        int ret = in.read(cbuf, off, len);
+        if (state != DONE)
+        {
+            if (ret < 0)
+                fail("PreParse_EOF", null);
+            for (int i = off; i < off + ret && state != DONE; ++i)
+                scan(cbuf[i]);
+        }
+        return ret;
+    }
+
+    /** {@inheritDoc} */
+    public long skip(long n) throws IOException
+    {
+        if (state != DONE)
+            throw new IOException("Skip not supported in prolog");
+        return in.skip(n);
+    }
+    
+    /** {@inheritDoc} */
+    public boolean markSupported()
+    {
+        return false;
+    }
+    
+    /**
+     * Advance the prolog state machine by one character.
+     *
+     * @param c The next character in the stream.
+     * @throws StreamCorruptedException The prolog is not minimally TBX.
+     */
+    private void scan(char c) throws StreamCorruptedException
+    {
+        switch (state)
+        {
+            case XMLDECL:
+                if (token.length() == 0 && c == '\uFEFF')
+                    break;
+                token.append(c);
+                if (token.length() <= XMLDECL_START.length())
+                {
+                    if (!XMLDECL_START.startsWith(token.toString()))
+                        fail("PreParse_NoXMLDecl", token.toString());
+                }
+                else if (c == '>')
+                {
+                    if (prev1 != '?')
+                        fail("PreParse_Illformed", token.toString());
+                    token.setLength(0);
+                    state = MISC;
+                }
+                else if (c == '<')
+                {
+                    fail("PreParse_Illformed", token.toString());
+                }
+                break;
+            case MISC:
+                if (token.length() == 0)
+                {
+                    if (c == '\uFEFF' && prev1 == 0)
+                        break;
+                    if (c == '<')
+                        token.append(c);
+                    else if (!Character.isWhitespace(c))
+                        fail("PreParse_Illformed", String.valueOf(c));
+                }
+                else
+                {
+                    token.append(c);
+                    String tok = token.toString();
+                    if (tok.equals("<?"))
+                    {
+                        token.setLength(0);
+                        state = PI;
+                    }
+                    else if (tok.equals(COMMENT_START))
+                    {
+                        token.setLength(0);
+                        state = COMMENT;
+                    }
+                    else if (tok.equals(DOCTYPE_START))
+                    {
+                        token.setLength(0);
+                        quote = 0;
+                        depth = 0;
+                        type = TBXFile.Type.DTD;
+                        state = DOCTYPE;
+                    }
+                    else if (tok.length() == 2 && c != '!')
+                    {
+                        token.deleteCharAt(0);
+                        state = ROOT;
+                    }
+                    else if (!COMMENT_START.startsWith(tok)
+                            && !DOCTYPE_START.startsWith(tok))
+                    {
+                        fail("PreParse_Illformed", tok);
+                    }
+                }
+                break;
+            case PI:
+                if (c == '>' && prev1 == '?')
+                    state = MISC;
+                break;
+            case COMMENT:
+                if (c == '>' && prev1 == '-' && prev2 == '-')
+                    state = MISC;
+                break;
+            case DOCTYPE:
+                if (quote != 0)
+                {
+                    if (c == quote)
+                        quote = 0;
+                }
+                else if (depth > 0 && c == '?' && prev1 == '<')
+                    state = SUBSET_PI;
+                else if (depth > 0 && c == '-' && prev1 == '-' && prev2 == '!' && prev3 == '<')
+                {   //Keep the opening dashes from also closing the comment
+                    c = ' ';
+                    state = SUBSET_COMMENT;
+                }
+                else if (c == '"' || c == '\'')
+                    quote = c;
+                else if (c == '[')
+                {
+                    subset = true;
+                    depth++;
+                }
+                else if (c == ']')
+                    depth--;
+                else if (c == '>' && depth == 0)
+                    state = MISC;
+                break;
+            case SUBSET_PI:
+                if (c == '>' && prev1 == '?')
+                    state = DOCTYPE;
+                break;
+            case SUBSET_COMMENT:
+                if (c == '>' && prev1 == '-' && prev2 == '-')
+                    state = DOCTYPE;
+                break;
+            case ROOT:
+                if (Character.isWhitespace(c) || c == '>' || c == '/')
+                {
+                    if (token.toString().equals(ROOT_NAME))
+                    {
+                        if (type == TBXFile.Type.UNKNOWN)
+                            type = TBXFile.Type.SCHEMA;
+                    }
+                    else if (type == TBXFile.Type.UNKNOWN)
+                    {
+                        fail("PreParse_NotTBX", token.toString());
+                    }
+                    token.setLength(0);
+                    state = DONE;
+                }
+                else
+                {
+                    token.append(c);
+                }
+                break;
+            default:
+                break;
+        }
+        prev3 = prev2;
+        prev2 = prev1;
+        prev1 = c;
+    }
+    
+    /**
+     * Record a prolog failure and stop watching the prolog. A strict reader
+     * also aborts the read.
+     *
+     * @param key Resource key for the failure.
+     * @param text Offending text or null.
+     * @throws StreamCorruptedException The reader is strict.
+     */
+    private void fail(String key, String text) throws StreamCorruptedException
+    {
+        failure = key;
+        type = TBXFile.Type.CORRUPT;
+        state = DONE;
+        if (strict)
+            throw new StreamCorruptedException(text);
+    }
+}
@@ -0,0 +1,720 @@
+/*
+ * $Id$
+ *-----------------------------------------------------------------------------
+ * Copyright 2000 Lance Finn Helsten (helsten@acm.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ttt.salt;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.net.URL;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.xml.sax.EntityResolver;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+/**
+ * This is an on disk cache of validation results so that unchanged TBX
+ * files are not parsed again on every run.
+ * <p>
+ * A result is keyed on the SHA-256 digest of the TBX content, those parts
+ * of the configuration that change the result, and the library version.
+ * Each entry also records the entities (XCS and DTD files) that were
+ * resolved while the file was checked with the digest of their content. A
+ * lookup resolves and digests those entities again, so a changed XCS is
+ * never confused with an older copy.</p>
+ * <p>
+ * Entries are written to a temporary file and then renamed into place, so
+ * any number of threads or processes may share the cache directory. An
+ * entry that cannot be read is treated as a miss. The least recently used
+ * entries are removed by {@link #evict} once the cache is too big or the
+ * entries are too old.</p>
+ * <p>
+ * Files checked with an error summary are not cached since the summary
+ * holds exceptions that cannot be written out.</p>
+ *
+ * @author Lance Finn Helsten
+ * @version $Id$
+ * @license Licensed under the Apache License, Version 2.0.
+ */
+public class ResultCache
+{
+    /*
+     */
+    
+    /** SCM information. */
+    public static final String RCSID = "$Id$";
+    
+    /** Default maximum number of bytes kept in the cache directory. */
+    public static final long DEFAULT_MAX_SIZE = 256L * 1024 * 1024;
+    
+    /** Default maximum age of an entry in milliseconds, thirty days. */
+    public static final long DEFAULT_MAX_AGE = 30L * 24 * 60 * 60 * 1000;
+    
+    /** Logger for this package. */
+    private static final Logger LOGGER = Logger.getLogger("org.ttt.salt");
+    
+    /** Digest used on the file and entity content. */
+    private static final String DIGEST = "SHA-256";
+    
+    /** Marks the start of a cache entry, "TBXR". */
+    private static final int MAGIC = 0x54425852;
+    
+    /** Version of the entry layout. */
+    private static final int FORMAT = 1;
+    
+    /** Suffix of cache entries. */
+    private static final String ENTRY_SUFFIX = ".tbxr";
+    
+    /** Suffix of entries being written. */
+    private static final String TEMP_SUFFIX = ".tmp";
+    
+    /** Age after which an entry still being written has been abandoned. */
+    private static final long TEMP_MAX_AGE = 60L * 60 * 1000;
+    
+    /** Size of the buffer used to digest content. */
+    private static final int BUFFER_SIZE = 65536;
+    
+    /** Identifies the library that produced an entry. */
+    static final String VERSION = libraryVersion();
+    
+    /** The cache directory. */
+    private final File dir;
+    
+    /** Maximum number of bytes kept in the cache directory. */
+    private final long maxSize;
+    
+    /** Maximum age of an entry in milliseconds. */
+    private final long maxAge;
+    
+    /** */
+    private long hits;
+    
+    /** */
+    private long misses;
+    
+    /** */
+    private long evictions;
+    
+    /**
+     * The result of checking a TBX file as it is kept in the cache.
+     */
+    public static final class Result
+    {
+        /** */
+        private final boolean valid;
+        
+        /** */
+        private final boolean truncated;
+        
+        /** */
+        private final TBXFile.Type type;
+        
+        /** */
+        private final int exceptionCount;
+        
+        /** */
+        private final int termEntryCount;
+        
+        /** */
+        private final List<Diagnostic> diagnostics;
+        
+        /**
+         * @param v The file is valid.
+         * @param tr The check stopped at the error limit.
+         * @param tp The type of the file.
+         * @param ec Number of invalidating exceptions.
+         * @param tc Number of termEntry elements.
+         * @param d The diagnostics of the invalidating exceptions.
+         */
+        private Result(boolean v, boolean tr, TBXFile.Type tp, int ec, int tc, List<Diagnostic> d)
+        {
+            valid = v;
+            truncated = tr;
+            type = tp;
+            exceptionCount = ec;
+            termEntryCount = tc;
+            diagnostics = d;
+        }
+        
+        /**
+         * @return true => the file is valid.
+         */
+        public boolean isValid()
+        {
+            return valid;
+        }
+        
+        /**
+         * @return true => the check stopped at the error limit.
+         */
+        public boolean isTruncated()
+        {
+            return truncated;
+        }
+        
+        /**
+         * @return The type of the file.
+         */
+        public TBXFile.Type getType()
+        {
+            return type;
+        }
+        
+        /**
+         * @return The number of invalidating exceptions.
+         */
+        public int getExceptionCount()
+        {
+            return exceptionCount;
+        }
+        
+        /**
+         * @return The number of termEntry elements.
+         */
+        public int getTermEntryCount()
+        {
+            return termEntryCount;
+        }
+        
+        /**
+         * @return The diagnostics of the invalidating exceptions in the
+         *  order they are reported.
+         */
+        public List<Diagnostic> getDiagnostics()
+        {
+            return diagnostics;
+        }
+    }
+    
+    /**
+     * Records the entities resolved while a TBX file is checked.
+     */
+    static final class Recorder implements EntityResolver
+    {
+        /** */
+        private final EntityResolver resolver;
+        
+        /** The public and system id of each entity in the order resolved. */
+        private final List<String[]> entities = new java.util.ArrayList<String[]>();
+        
+        /**
+         * @param r The resolver that does the work.
+         */
+        Recorder(EntityResolver r)
+        {
+            resolver = r;
+        }
+        
+        /** {@inheritDoc} */
+        public InputSource resolveEntity(String publicId, String systemId)
+            throws SAXException, IOException
+        {
+            synchronized (entities)
+            {
+                String[] entity = {publicId, systemId};
+                boolean found = false;
+                for (String[] e : entities)
+                    found |= java.util.Arrays.equals(e, entity);
+                if (!found)
+                    entities.add(entity);
+            }
+            return resolver.resolveEntity(publicId, systemId);
+        }
+        
+        /**
+         * @return The resolver that does the work.
+         */
+        EntityResolver getResolver()
+        {
+            return resolver;
+        }
+        
+        /**
+         * @return The public and system id of each entity resolved.
+         */
+        List<String[]> getEntities()
+        {
+            synchronized (entities)
+            {
+                return new java.util.ArrayList<String[]>(entities);
+            }
+        }
+    }
+    
+    /**
+     * Create a cache with the default size and age limits.
+     *
+     * @param d The cache directory, which is created if needed.
+     * @throws IOException The directory could not be created.
+     */
+    public ResultCache(File d) throws IOException
+    {
+        this(d, DEFAULT_MAX_SIZE, DEFAULT_MAX_AGE);
+    }
+    
+    /**
+     * @param d The cache directory, which is created if needed.
+     * @param size Maximum number of bytes kept in the cache directory.
+     * @param age Maximum age of an entry in milliseconds.
+     * @throws IOException The directory could not be created.
+     */
+    public ResultCache(File d, long size, long age) throws IOException
+    {
+        if (size < 0 || age < 0)
+            throw new IllegalArgumentException("Cache limits cannot be negative.");
+        dir = d;
+        maxSize = size;
+        maxAge = age;
+        if (!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory())
+            throw new IOException("Could not create cache directory: " + dir);
+    }
+    
+    /**
+     * Get the cache directory.
+     *
+     * @return The directory that holds the entries.
+     */
+    public File getDirectory()
+    {
+        return dir;
+    }
+    
+    /**
+     * Build the key for a TBX file. This reads the whole file to digest its
+     * content, which is much less work than parsing it.
+     *
+     * @param url The TBX file.
+     * @param config The configuration the file will be checked with.
+     * @return The key of the result.
+     * @throws IOException The file could not be read.
+     */
+    public String key(URL url, Configuration config) throws IOException
+    {
+        MessageDigest md = newDigest();
+        InputStream input = url.openStream();
+        try
+        {
+            byte[] buf = new byte[BUFFER_SIZE];
+            int len;
+            while ((len = input.read(buf)) != -1)
+                md.update(buf, 0, len);
+        }
+        finally
+        {
+            input.close();
+        }
+        String conf = String.format(" checklang=%b checkeachterm=%b failfast=%b maxerrors=%d %s",
+            config.getCheckLang(), config.getCheckEachTerm(), config.getFailFast(),
+            config.getMaxErrors(), VERSION);
+        md.update(conf.getBytes("UTF-8"));
+        return XCSCache.toHex(md.digest());
+    }
+    
+    /**
+     * Get the cached result for a key. The entities recorded with the
+     * result are resolved again and must have the same content.
+     *
+     * @param key The key of the result.
+     * @param resolver The resolver for the entities of the file.
+     * @return The result, or null if there is no current result.
+     */
+    public Result get(String key, EntityResolver resolver)
+    {
+        File file = new File(dir, key + ENTRY_SUFFIX);
+        Result ret = null;
+        if (file.isFile())
+        {
+            try
+            {
+                ret = read(file, key, resolver);
+                if (ret != null)
+                    file.setLastModified(System.currentTimeMillis());
+            }
+            catch (IOException err)
+            {
+                LOGGER.log(Level.FINE, "Unreadable cache entry " + file, err);
+            }
+        }
+        synchronized (this)
+        {
+            if (ret == null)
+                misses++;
+            else
+                hits++;
+        }
+        return ret;
+    }
+    
+    /**
+     * Add the result of checking a TBX file to the cache.
+     *
+     * @param key The key of the result.
+     * @param tbx The checked file.
+     * @param recorder The entities resolved while the file was checked.
+     * @throws IOException The entry could not be written.
+     */
+    void put(String key, TBXFile tbx, Recorder recorder) throws IOException
+    {
+        File tmp = File.createTempFile(key.substring(0, Math.min(key.length(), 16)), TEMP_SUFFIX, dir);
+        try
+        {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(tmp)));
+            try
+            {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT);
+                out.writeUTF(key);
+                List<String[]> entities = recorder.getEntities();
+                out.writeInt(entities.size());
+                for (String[] entity : entities)
+                {
+                    writeNullable(out, entity[0]);
+                    writeNullable(out, entity[1]);
+                    out.writeUTF(digest(recorder.getResolver(), entity[0], entity[1]));
+                }
+                out.writeBoolean(tbx.isValid());
+                out.writeBoolean(tbx.isTruncated());
+                out.writeUTF(String.valueOf(tbx.getType()));
+                out.writeInt(tbx.getInvalidatingExceptionCount());
+                out.writeInt(tbx.getTermEntryCount());
+                Iterator<Diagnostic> iter = tbx.getDiagnostics();
+                while (iter.hasNext())
+                {
+                    out.writeBoolean(true);
+                    iter.next().write(out);
+                }
+                out.writeBoolean(false);
+            }
+            finally
+            {
+                out.close();
+            }
+            File file = new File(dir, key + ENTRY_SUFFIX);
+            try
+            {
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+            }
+            catch (AtomicMoveNotSupportedException err)
+            {
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        finally
+        {
+            tmp.delete();
+        }
+    }
+    
+    /**
+     * Remove the entries that are older than the maximum age, and then the
+     * least recently used entries until the cache is no bigger than the
+     * maximum size. Entries removed by another process at the same time are
+     * ignored.
+     */
+    public void evict()
+    {
+        File[] files = dir.listFiles();
+        if (files == null)
+            return;
+        long now = System.currentTimeMillis();
+        List<File> entries = new java.util.ArrayList<File>();
+        long size = 0;
+        for (File file : files)
+        {
+            String name = file.getName();
+            long modified = file.lastModified();
+            if (name.endsWith(TEMP_SUFFIX))
+            {
+                if (now - modified > TEMP_MAX_AGE)
+                    file.delete();
+            }
+            else if (name.endsWith(ENTRY_SUFFIX))
+            {
+                if (now - modified > maxAge)
+                {
+                    remove(file);
+                }
+                else
+                {
+                    entries.add(file);
+                    size += file.length();
+                }
+            }
+        }
+        
+        final java.util.Map<File, Long> modified = new java.util.HashMap<File, Long>();
+        for (File file : entries)
+            modified.put(file, file.lastModified());
+        java.util.Collections.sort(entries, new java.util.Comparator<File>()
+            {
+                public int compare(File a, File b)
+                {
+                    return modified.get(a).compareTo(modified.get(b));
+                }
+            });
+        for (Iterator<File> iter = entries.iterator(); size > maxSize && iter.hasNext();)
+        {
+            File file = iter.next();
+            size -= file.length();
+            remove(file);
+        }
+    }
+    
+    /**
+     * @return The number of lookups that found a current result.
+     */
+    public synchronized long getHits()
+    {
+        return hits;
+    }
+    
+    /**
+     * @return The number of lookups that did not find a current result.
+     */
+    public synchronized long getMisses()
+    {
+        return misses;
+    }
+    
+    /**
+     * @return The number of entries removed by {@link #evict}.
+     */
+    public synchronized long getEvictions()
+    {
+        return evictions;
+    }
+    
+    /** {@inheritDoc} */
+    public synchronized String toString()
+    {
+        return String.format("ResultCache[dir=%s hits=%d misses=%d evictions=%d]",
+            dir, hits, misses, evictions);
+    }
+    
+    /**
+     * Remove an entry counting it as evicted.
+     *
+     * @param file The entry to remove.
+     */
+    private void remove(File file)
+    {
+        if (file.delete())
+        {
+            synchronized (this)
+            {
+                evictions++;
+            }
+        }
+    }
+    
+    /**
+     * Read a cache entry.
+     *
+     * @param file The entry.
+     * @param key The key the entry must have.
+     * @param resolver The resolver for the entities of the file.
+     * @return The result, or null if an entity has changed.
+     * @throws IOException The entry is unreadable.
+     */
+    private Result read(File file, String key, EntityResolver resolver) throws IOException
+    {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try
+        {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT || !in.readUTF().equals(key))
+                return null;
+            int count = in.readInt();
+            for (int i = 0; i < count; i++)
+            {
+                String publicId = readNullable(in);
+                String systemId = readNullable(in);
+                if (!in.readUTF().equals(digest(resolver, publicId, systemId)))
+                    return null;
+            }
+            boolean valid = in.readBoolean();
+            boolean truncated = in.readBoolean();
+            TBXFile.Type type = TBXFile.Type.valueOf(in.readUTF());
+            int exceptionCount = in.readInt();
+            int termEntryCount = in.readInt();
+            List<Diagnostic> diagnostics = new java.util.ArrayList<Diagnostic>();
+            while (in.readBoolean())
+                diagnostics.add(Diagnostic.read(in));
+            return new Result(valid, truncated, type, exceptionCount, termEntryCount, diagnostics);
+        }
+        catch (IllegalArgumentException err)
+        {
+            throw new IOException("Corrupt cache entry " + file, err);
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+    
+    /**
+     * Digest the content of an entity as the resolver finds it now.
+     *
+     * @param resolver The resolver for the entity.
+     * @param publicId The public id of the entity.
+     * @param systemId The system id of the entity.
+     * @return The hexadecimal digest, or an empty string if the entity
+     *  could not be found.
+     */
+    private static String digest(EntityResolver resolver, String publicId, String systemId)
+    {
+        MessageDigest md = newDigest();
+        try
+        {
+            InputSource source = resolver.resolveEntity(publicId, systemId);
+            if (source != null && source.getCharacterStream() != null)
+            {
+                Reader reader = source.getCharacterStream();
+                try
+                {
+                    char[] buf = new char[BUFFER_SIZE];
+                    byte[] bytes = new byte[BUFFER_SIZE * 2];
+                    int len;
+                    while ((len = reader.read(buf)) != -1)
+                    {
+                        for (int i = 0; i < len; i++)
+                        {
+                            bytes[2 * i] = (byte) (buf[i] >> 8);
+                            bytes[2 * i + 1] = (byte) buf[i];
+                        }
+                        md.update(bytes, 0, 2 * len);
+                    }
+                }
+                finally
+                {
+                    reader.close();
+                }
+            }
+            else
+            {
+                InputStream input = (source != null && source.getByteStream() != null)
+                    ? source.getByteStream()
+                    : new URL((source != null && source.getSystemId() != null)
+                        ? source.getSystemId()
+                        : systemId).openStream();
+                try
+                {
+                    byte[] buf = new byte[BUFFER_SIZE];
+                    int len;
+                    while ((len = input.read(buf)) != -1)
+                        md.update(buf, 0, len);
+                }
+                finally
+                {
+                    input.close();
+                }
+            }
+        }
+        catch (IOException err)
+        {
+            return "";
+        }
+        catch (SAXException err)
+        {
+            return "";
+        }
+        return XCSCache.toHex(md.digest());
+    }
+    
+    /**
+     * @param out The output to write to.
+     * @param str The string, which may be null.
+     * @throws IOException Any I/O exceptions that occur.
+     */
+    private static void writeNullable(DataOutputStream out, String str) throws IOException
+    {
+        out.writeBoolean(str != null);
+        if (str != null)
+            out.writeUTF(str);
+    }
+    
+    /**
+     * @param in The input to read from.
+     * @return The string, which may be null.
+     * @throws IOException Any I/O exceptions that occur.
+     */
+    private static String readNullable(DataInputStream in) throws IOException
+    {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+    
+    /**
+     * Identify the library so that results from another version are not
+     * used. This is the implementation version of the jar and when it was
+     * built.
+     *
+     * @return The library version string.
+     */
+    private static String libraryVersion()
+    {
+        String ret = String.valueOf(ResultCache.class.getPackage().getImplementationVersion());
+        java.security.CodeSource code = ResultCache.class.getProtectionDomain().getCodeSource();
+        if (code != null && code.getLocation() != null
+            && "file".equals(code.getLocation().getProtocol()))
+        {
+            try
+            {
+                File file = new File(code.getLocation().toURI());
+                if (file.isFile())
+                    ret += " " + file.length() + " " + file.lastModified();
+            }
+            catch (java.net.URISyntaxException err)
+            {   //The version alone will have to do
+                LOGGER.log(Level.FINE, "Library location unknown", err);
+            }
+        }
+        return FORMAT + " " + ret;
+    }
+    
+    /**
+     * @return A new message digest.
+     */
+    private static MessageDigest newDigest()
+    {
+        try
+        {
+            return MessageDigest.getInstance(DIGEST);
+        }
+        catch (NoSuchAlgorithmException err)
+        {   //Every Java platform is required to have SHA-256
+            Error e = new InternalError();
+            e.initCause(err);
+            throw e;
+        }
+    }
+}
@@ -28,6 +28,10 @@ import org.xml.sax.SAXException;
 import org.xml.sax.SAXParseException;
 
 /**
+ * An exception found while parsing or validating a TBX file. The stack trace
+ * of the cause is the interesting one so this exception does not capture its
+ * own, and the message is only built when it is asked for.
+ *
  * @author Lance Finn Helsten
  * @version $Id$
  * @license Licensed under the Apache License, Version 2.0.
@@ -78,14 +82,14 @@ public class TBXException extends Exception implements Comparable
     /** SCM information. */
     private static final String RCSID = "$Id$";
 
-    /** */
-    private static int sequenceNext;
-    
     /** */
     private final Priority priority;
     
-    /** */
-    private final int sequence = sequenceNext++;
+    /** Shared with {@link Diagnostic} so both order problems alike. */
+    private final int sequence;
+    
+    /** The diagnostic of a cause that is not an XCS validation problem. */
+    private Diagnostic diagnostic;
         
     /**
      * @param p The priority of this exception.
@@ -94,10 +98,50 @@ public class TBXException extends Exception implements Comparable
      */
     public TBXException(Priority p, Exception c)
     {
-        super(c);
+        super(null, c, false, false);
         priority = p;
+        sequence = (c instanceof XCSValidationException)
+            ? ((XCSValidationException) c).getDiagnostic().getSequence()
+            : Diagnostic.nextSequence();
     }
-
+    
+    /**
+     * Get the priority of this exception.
+     *
+     * @return The priority used to order exceptions in a report.
+     */
+    public Priority getPriority()
+    {
+        return priority;
+    }
+    
+    /**
+     * Get the record that describes this problem. For an XCS validation
+     * problem this is the diagnostic of the cause. For any other cause the
+     * message is formatted now and kept in the diagnostic, since the cause
+     * itself cannot be kept outside of the heap.
+     *
+     * @return The diagnostic for this exception.
+     */
+    public Diagnostic getDiagnostic()
+    {
+        if (getCause() instanceof XCSValidationException)
+            return ((XCSValidationException) getCause()).getDiagnostic();
+        if (diagnostic == null)
+        {
+            int line = -1;
+            int column = -1;
+            if (getCause() instanceof SAXParseException)
+            {
+                line = ((SAXParseException) getCause()).getLineNumber();
+                column = ((SAXParseException) getCause()).getColumnNumber();
+            }
+            diagnostic = new Diagnostic(priority, sequence, "TBXException",
+                line, column, buildDetail(false).replaceFirst("^\\s+", ""));
+        }
+        return diagnostic;
+    }
+    
     /** {@inheritDoc} */
     public String toString()
     {
@@ -123,9 +167,19 @@ public class TBXException extends Exception implements Comparable
      * @param localize Use the localized message of exceptions.
      */
     private String buildMessage(boolean localize)
+    {
+        return priority.toString() + buildDetail(localize);
+    }
+    
+    /**
+     * Build the part of the message that describes the cause.
+     *
+     * @param localize Use the localized message of exceptions.
+     */
+    private String buildDetail(boolean localize)
     {
         //CHECKSTYLE: MagicNumber OFF
-        String ret = priority.toString();
+        String ret = "";
         ResourceBundle bundle = ResourceBundle.getBundle("org.ttt.salt.TBXException");
         Object[] args = new Object[5];
         if (getCause() instanceof SAXParseException)
@@ -18,8 +18,6 @@
 package org.ttt.salt;
 
 import java.io.Reader;
-import java.io.FilterReader;
-import java.io.BufferedReader;
 import java.io.PrintWriter;
 import java.io.InputStream;
 import java.io.BufferedInputStream;
@@ -29,6 +27,7 @@ import java.io.IOException;
 import java.io.FileNotFoundException;
 import java.io.StreamCorruptedException;
 import java.net.URL;
+import java.util.Iterator;
 import java.util.List;
 import java.util.SortedSet;
 import java.util.Map;
@@ -48,7 +47,7 @@ import org.xml.sax.SAXNotSupportedException;
 import org.ttt.salt.dom.tbx.TBXParser;
 import org.ttt.salt.dom.tbx.TBXDocument;
 import org.ttt.salt.dom.tbx.TBXElement;
-import org.flyingtitans.xml.ElementalParser;
+import org.ttt.salt.dom.tbx.TermEntryRecord;
 
 /**
  * This will perform XCS validation on an XML file.
@@ -57,6 +56,10 @@ import org.flyingtitans.xml.ElementalParser;
  * validating each termEntry as it is completed. The exceptions for XCS
  * validation are only reported if the TBX file passes a basic pre-parse
  * check, and then a full XML parse and validation phase.</p>
+ * <p>
+ * If the configuration asks for streaming then each termEntry is released
+ * as soon as it has been validated, and only the header and a compact
+ * {@link org.ttt.salt.dom.tbx.TermEntryRecord} for each entry are kept.</p>
  *
  * @author Lance Finn Helsten
  * @version $Id$
@@ -116,19 +119,25 @@ public class TBXFile
     
     /** URI for the input file. */
     private URL url;
+    
+    /** The document is read from a stream instead of the URL. */
+    private boolean streamed;
         
     /** */
     private Reader reader;
     
+    /** Classifies the prolog as the reader is consumed. */
+    private PrologReader header;
+    
     /** */
     private XCSDocument xcsDocument;
 
     /** The entity resolver that I use. */
     private EntityResolver resolver;
-        
-    /** TBXParser that will build the TBXDocument. */
-    private TBXParser tbxParser;
     
+    /** The sidecar of valid termEntry elements, if used. */
+    private TermEntryIndex termEntryIndex;
+        
     /** TBXDocument that holds the DOM information for this file. */
     private TBXDocument tbxDocument;
     
@@ -147,6 +156,18 @@ public class TBXFile
     /** The exceptions that invalidated the file. */
     private SortedSet<TBXException> exceptions = new java.util.TreeSet<TBXException>();
     
+    /** Groups the exceptions and limits those kept, if configured. */
+    private ErrorSummary summary;
+    
+    /** The result taken from the result cache, if any. */
+    private ResultCache.Result cached;
+    
+    /** Records the exceptions outside of the heap, if configured. */
+    private DiagnosticStore store;
+    
+    /** Number of exceptions that invalidated the file, including those not kept. */
+    private int exceptionCount;
+    
     /** The exceptions that are warnings and do not invaidate the file. */
     private SortedSet<TBXException> warnings = new java.util.TreeSet<TBXException>();
     
@@ -158,6 +179,48 @@ public class TBXFile
      * @throws SAXExcetion Any SAX issues in creating the file.
      */
     public TBXFile(URL u, Configuration c) throws IOException, SAXException
+    {
+        this(u, null, c);
+    }
+    
+    /**
+     * Check a TBX document that is read from a stream, such as the body of
+     * a request. The document is parsed as it is read.
+     * <p>
+     * The result cache and the termEntry index are not used, because the
+     * URL does not hold the content.</p>
+     *
+     * @param input The TBX document.
+     * @param u The URL that relative references in the document, such as
+     *  the XCS, are resolved against.
+     * @param c The configuration for validation and compliance.
+     * @throws IOException Any unhandled I/O exceptions.
+     * @throws SAXExcetion Any SAX issues in creating the file.
+     */
+    public TBXFile(InputStream input, URL u, Configuration c) throws IOException, SAXException
+    {
+        this(u, checkStream(input), c);
+    }
+    
+    /**
+     * @param input The TBX document stream given to the constructor.
+     * @return The stream if it is not null.
+     */
+    private static InputStream checkStream(InputStream input)
+    {
+        if (input == null)
+            throw new IllegalArgumentException("InputStream argument cannot be null");
+        return input;
+    }
+    
+    /**
+     * @param u The URL to the TBX file to process.
+     * @param input The TBX document, or null to read it from the URL.
+     * @param c The configuration for validation and compliance.
+     * @throws IOException Any unhandled I/O exceptions.
+     * @throws SAXExcetion Any SAX issues in creating the file.
+     */
+    private TBXFile(URL u, InputStream input, Configuration c) throws IOException, SAXException
     {
         if (c == null)
             throw new IllegalArgumentException("Configuration cannot be null");
@@ -171,12 +234,29 @@ public class TBXFile
 		if ( resolver == null )
 			resolver = new TBXResolver(u);
 		
-        tbxParser = new TBXParser(resolver, c);
-        InputStream input = url.openStream();
-        if (!input.markSupported())
-            input = new BufferedInputStream(input);
-        InputStreamReader inread = new InputStreamReader(input, TBXResolver.getEncoding(input));
-        reader = new BufferedReader(inread);
+        streamed = input != null;
+        Reader in;
+        if (!streamed && c.getMappedInput() && "file".equals(url.getProtocol()))
+        {
+            try
+            {
+                in = new MappedFileReader(new File(url.toURI()));
+            }
+            catch (java.net.URISyntaxException err)
+            {
+                throw new IOException("Invalid file URL: " + url, err);
+            }
+        }
+        else
+        {
+            if (input == null)
+                input = url.openStream();
+            if (!input.markSupported())
+                input = new BufferedInputStream(input);
+            in = new InputStreamReader(input, TBXResolver.getEncoding(input));
+        }
+        header = new PrologReader(in, true);
+        reader = header;
     }
     
     /**
@@ -191,15 +271,84 @@ public class TBXFile
     {
         if (!parsed)
         {
-            boolean ok = preParseCheck();
-            if (ok)
-                ok = parseDocument();
+            ResultCache cache = (config.getSummaryExamples() == 0 && !streamed)
+                ? config.getResultCache()
+                : null;
+            String key = null;
+            ResultCache.Recorder recorder = null;
+            if (cache != null)
+            {
+                key = cache.key(url, config);
+                ResultCache.Result result = cache.get(key, resolver);
+                if (result != null)
+                {
+                    useCachedResult(result);
+                    return;
+                }
+                recorder = new ResultCache.Recorder(resolver);
+                resolver = recorder;
+            }
+            
+            boolean ok = parseDocument();
             if (ok)
                 valid = validate();
             if (valid)
-                buildTermEntriesMap();
+                termEntries = tbxDocument.getTermEntryMap();
+            
+            if (recorder != null)
+            {
+                resolver = recorder.getResolver();
+                try
+                {
+                    if (parsed)
+                        cache.put(key, this, recorder);
+                }
+                catch (IOException err)
+                {
+                    LOGGER.log(Level.WARNING, "Could not cache result of " + url, err);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Take the result of this file from the result cache instead of
+     * parsing it. The document is not built, so only the result and the
+     * diagnostics are available.
+     *
+     * @param result The cached result.
+     * @throws IOException Any I/O exceptions closing the file.
+     */
+    private void useCachedResult(ResultCache.Result result) throws IOException
+    {
+        cached = result;
+        parsed = true;
+        valid = result.isValid();
+        fileType = result.getType();
+        exceptionCount = result.getExceptionCount();
+        if (getDiagnosticStore() != null)
+        {
+            for (Diagnostic diag : result.getDiagnostics())
+                store.add(diag);
+        }
+        if (reader != null)
+        {
+            reader.close();
+            reader = null;
         }
     }
+    
+    /**
+     * Find out if the result of this file was taken from the result cache.
+     * The document is then not built, and the problems are only available
+     * from {@link #getDiagnostics}.
+     *
+     * @return true => the result came from the cache.
+     */
+    public boolean isCached()
+    {
+        return cached != null;
+    }
         
     /**
      * Get the TBXDocument that was built.
@@ -237,6 +386,20 @@ public class TBXFile
         out.close();
     }
     
+    /**
+     * Find out if checking stopped early because the configured error limit
+     * was reached. The file is then invalid, and only the exceptions found
+     * before the stop are reported.
+     *
+     * @return true => the file was not read to the end.
+     */
+    public boolean isTruncated()
+    {
+        if (cached != null)
+            return cached.isTruncated();
+        return tbxDocument != null && tbxDocument.isTruncated();
+    }
+    
     /**
      * Return the type of file given to the object.
      *
@@ -254,6 +417,9 @@ public class TBXFile
      * <strong>WARNING:</strong> Changing this map without a corresponding
      * change made to the contained TBXDocument results in undefined
      * behavior.</p>
+     * <p>
+     * When streaming the termEntry elements are not kept and this map will
+     * be empty, use {@link #getTermEntryRecords} instead.</p>
      *
      * @return Map of term entry id to termEntry elements in the file.
      */
@@ -261,7 +427,46 @@ public class TBXFile
     {
         return termEntries;
     }
+    
+    /**
+     * Get the records of the termEntry elements that were released while
+     * streaming. If the file was not streamed this will be empty.
+     *
+     * @return List of termEntry records in document order.
+     */
+    public List<TermEntryRecord> getTermEntryRecords()
+    {
+        if (tbxDocument == null)
+            return java.util.Collections.emptyList();
+        return tbxDocument.getTermEntryRecords();
+    }
         
+    /**
+     * Get the number of termEntry elements in the TBX file. This is correct
+     * whether or not the file was streamed.
+     *
+     * @return The number of termEntry elements parsed.
+     */
+    public int getTermEntryCount()
+    {
+        if (cached != null)
+            return cached.getTermEntryCount();
+        if (tbxDocument == null)
+            return 0;
+        return tbxDocument.getTermEntryCount();
+    }
+    
+    /**
+     * Get the number of termEntry elements that were not validated again
+     * because they are unchanged since the last incremental check.
+     *
+     * @return The count of reused termEntry results.
+     */
+    public int getReusedTermEntryCount()
+    {
+        return termEntryIndex == null ? 0 : termEntryIndex.getReusedCount();
+    }
+    
     /**
      * Get the XCS Document that this is validated against.
      *
@@ -279,6 +484,8 @@ public class TBXFile
      */
     public Element getBodyElement()
     {
+        if (tbxDocument.getBodyElement() != null)
+            return tbxDocument.getBodyElement();
         Element root = getTBXDocument().getDocumentElement();
         Element text = (Element) root.getElementsByTagName("text").item(0);
         Element body = (Element) text.getElementsByTagName("body").item(0);
@@ -287,6 +494,11 @@ public class TBXFile
     
     /**
      * Return the exceptions that caused the file to be invalid.
+     * <p>
+     * With an error summary only the exceptions it keeps are returned. With
+     * a diagnostic store and no error summary, or with a result taken from
+     * the result cache, no exceptions are kept; use {@link #getDiagnostics}
+     * instead.</p>
      *
      * @return The list of exceptions that describe why the document is invalid.
      */
@@ -298,6 +510,98 @@ public class TBXFile
         return new java.util.ArrayList<TBXException>(exceptions);
     }
     
+    /**
+     * Return the number of exceptions that caused the file to be invalid.
+     * With an error summary this counts every exception, not just those
+     * returned by {@link #getInvalidatingExceptions}.
+     *
+     * @return The count of all invalidating exceptions.
+     */
+    public int getInvalidatingExceptionCount()
+    {
+        return exceptionCount;
+    }
+    
+    /**
+     * Return the summary that groups the exceptions that caused the file to
+     * be invalid.
+     *
+     * @return The error summary, or null if the configuration does not ask
+     *  for summary examples.
+     */
+    public ErrorSummary getErrorSummary()
+    {
+        if (summary == null && config.getSummaryExamples() > 0)
+            summary = new ErrorSummary(config.getSummaryExamples());
+        return summary;
+    }
+    
+    /**
+     * Return the store that records the exceptions that caused the file to
+     * be invalid outside of the heap.
+     *
+     * @return The diagnostic store, or null if the configuration does not
+     *  ask for a diagnostic window.
+     */
+    public DiagnosticStore getDiagnosticStore()
+    {
+        if (store == null && config.getDiagnosticWindow() > 0)
+            store = new DiagnosticStore(config.getDiagnosticWindow());
+        return store;
+    }
+    
+    /**
+     * Iterate over the diagnostics of every exception that caused the file
+     * to be invalid, in the order they are reported. Unlike
+     * {@link #getInvalidatingExceptions} this returns every problem even if
+     * an error summary or diagnostic store is used.
+     *
+     * @return The diagnostics in priority and sequence order.
+     */
+    public Iterator<Diagnostic> getDiagnostics()
+    {
+        if (store != null)
+            return store.iterator();
+        if (cached != null)
+            return java.util.Collections.unmodifiableList(cached.getDiagnostics()).iterator();
+        final Iterator<TBXException> iter = exceptions.iterator();
+        return new Iterator<Diagnostic>()
+            {
+                public boolean hasNext()
+                {
+                    return iter.hasNext();
+                }
+                
+                public Diagnostic next()
+                {
+                    return iter.next().getDiagnostic();
+                }
+                
+                public void remove()
+                {
+                    throw new UnsupportedOperationException();
+                }
+            };
+    }
+    
+    /**
+     * Add an exception that invalidates the file. With an error summary the
+     * exception is only kept if it is one of the first of its group. With a
+     * diagnostic store the exception is recorded there.
+     *
+     * @param err The exception to add.
+     * @throws IOException The diagnostic store could not record the
+     *  exception.
+     */
+    private void addException(TBXException err) throws IOException
+    {
+        exceptionCount++;
+        if (getDiagnosticStore() != null)
+            store.add(err.getDiagnostic());
+        if ((getErrorSummary() != null) ? summary.add(err) : (store == null))
+            exceptions.add(err);
+    }
+    
     /**
      * Return the exceptions that are warnings on the file.
      *
@@ -322,94 +626,6 @@ public class TBXFile
         return ResourceBundle.getBundle("org.ttt.salt.TBXFile");
     }
         
-    /**
-     * This will do some pre-wellformedness checks and determine what
-     * type of file this is.
-     *
-     * @return true => The file passed the tests.
-     * @throw IllegalStateException The document has already been built. This
-     *  must be executed on a raw file or stream before parsing.
-     * @throws IOException Any unhandled I/O exceptions.
-     */
-    private boolean preParseCheck() throws IOException
-    {
-        final int stageXMLDECL = 0;
-        final int stageDOCTYPE = 1;
-        final int stageMARTIF = 2;
-        final int stageDONE = 3;
-        final int minMarkSize = 1024;
-
-        ResourceBundle bundle = getResourceBundle();
-        ElementalParser parse = new ElementalParser(reader);
-        reader.mark(minMarkSize);
-        int stage = stageXMLDECL;
-        ElementalParser.Token type = parse.next();
-        while (stage != stageDONE)
-        {
-            if (type == ElementalParser.Token.EOF)
-            {
-                Exception cause = new StreamCorruptedException(bundle.getString("PreParse_EOF"));
-                TBXException err = new TBXException(TBXException.Priority.PRE_PARSE, cause);
-                exceptions.add(err);
-                fileType = Type.CORRUPT;
-                stage = stageDONE;
-            }
-            else if (type == ElementalParser.Token.ILLFORMED)
-            {
-                exceptions.add(new TBXException(TBXException.Priority.PRE_PARSE,
-                    new StreamCorruptedException(bundle.getString("PreParse_Illformed")
-                        + parse.sval)));
-                fileType = Type.CORRUPT;
-                stage = stageDONE;
-            }
-            else if (stage == stageXMLDECL
-                    && type != ElementalParser.Token.XMLDECL)
-            {
-                exceptions.add(new TBXException(TBXException.Priority.PRE_PARSE,
-                    new StreamCorruptedException(bundle.getString("PreParse_NoXMLDecl")
-                        + parse.sval)));
-                fileType = Type.CORRUPT;
-            }
-            else if (stage == stageXMLDECL
-                    && type == ElementalParser.Token.XMLDECL)
-            {
-                stage = stageDOCTYPE;
-            }
-            else if (stage == stageDOCTYPE
-                    && type == ElementalParser.Token.DOCTYPEDECL)
-            {
-                fileType = Type.DTD;
-                //TODO--check the DOCTYPE name and URL
-                stage = stageMARTIF;
-            }
-            else if (stage == stageMARTIF
-                    && type == ElementalParser.Token.START)
-            {
-                if (fileType == Type.UNKNOWN)
-                    fileType = Type.SCHEMA;
-                stage = stageDONE;
-            }
-            type = parse.next();
-        }
-        try
-        {
-            reader.reset();
-        }
-        catch (IOException err)
-        {
-            if (err.getMessage().equals("Mark invalid"))
-            {
-                exceptions.add(new TBXException(TBXException.Priority.PRE_PARSE,
-                    new StreamCorruptedException(bundle.getString("PreParse_Overflow"))));
-            }
-            else
-            {
-                throw err;
-            }
-        }
-        return exceptions.isEmpty();
-    }
-    
     /**
      * This will do the XML parsing, well-formedness checks, and validation
      * if there is a DOCTYPE tag.
@@ -422,73 +638,105 @@ public class TBXFile
      */
     private boolean parseDocument() throws IOException
     {
+        ResourceBundle bundle = getResourceBundle();
         boolean ret = true;
         try
         {
-            switch (fileType)
-            {
-                case CORRUPT:
-                    //no op
-                    break;
-                case DTD:
-                    buildDocumentWithDTD();
-                    break;
-                case SCHEMA:
-                    buildDocumentWithSchema();
-                    break;
-                default:
-                    throw new UnsupportedOperationException("Unknown file type: " + fileType);
-            }
+            buildDocument();
             parsed = true;
         }
+        catch (StreamCorruptedException err)
+        {
+            String key = header.getFailure();
+            if (key == null)
+                throw err;
+            String msg = bundle.getString(key);
+            if (err.getMessage() != null)
+                msg += err.getMessage();
+            addException(new TBXException(TBXException.Priority.PRE_PARSE,
+                new StreamCorruptedException(msg)));
+            ret = false;
+        }
         catch (IOException err)
         {
-            exceptions.add(new TBXException(TBXException.Priority.XMLVALID_MAJOR, err));
+            addException(new TBXException(TBXException.Priority.XMLVALID_MAJOR, err));
             ret = false;
         }
         catch (SAXException err)
         {
-            exceptions.add(new TBXException(TBXException.Priority.WELLFORMED, err));
+            addException(new TBXException(TBXException.Priority.WELLFORMED, err));
             ret = false;
         }
         catch (ParserConfigurationException err)
         {
-            exceptions.add(new TBXException(TBXException.Priority.WELLFORMED, err));
+            addException(new TBXException(TBXException.Priority.WELLFORMED, err));
             ret = false;
         }
+        finally
+        {
+            fileType = header.getType();
+        }
         return ret;
     }
     
     /**
-     * Build the tbx document by reference to the TBX DTD.
+     * Build the tbx document. The DTD or Schema is selected by Xerces from
+     * the document prolog; the {@link PrologReader} classifies the file
+     * while the prolog streams past.
      *
      * @throws IOException Any unhandled I/O exceptions.
      * @throws ParserConfigurationException The XML parser is invalid for XCS.
      * @throws SAXException Parsing exceptions occured.
      */
-    private void buildDocumentWithDTD() throws IOException,
+    private void buildDocument() throws IOException,
         ParserConfigurationException, SAXException
     {
         InputSource insource = new InputSource(reader);
         insource.setSystemId(url.toString());
-        tbxDocument = tbxParser.parse(insource);
-        exceptions.addAll(tbxDocument.getParseExceptions());
-    }
-    
-    /**
-     * Build the tbx document by reference to the TBX Schema.
-     *
-     * @throws IOException Any unhandled I/O exceptions.
-     * @throws ParserConfigurationException The XML parser is invalid for XCS.
-     * @throws SAXException Parsing exceptions occured.
-     */
-    private void buildDocumentWithSchema() throws IOException,
-        ParserConfigurationException, SAXException
-    {
-        InputSource insource = new InputSource(reader);
-        insource.setSystemId(url.toString());
-        tbxDocument = tbxParser.parse(insource);
+        ParserPool pool = config.getParserPool() ? ParserPool.getInstance() : null;
+        TBXParser tbxParser = pool != null
+            ? pool.getTBXParser(resolver, config)
+            : new TBXParser(resolver, config);
+        if (config.getIncremental() && config.getCheckEachTerm() && !streamed
+            && url.getProtocol().equals("file"))
+        {
+            try
+            {
+                File f = new File(url.toURI());
+                termEntryIndex = new TermEntryIndex(TermEntryIndex.getSidecar(f));
+                tbxParser.setTermEntryIndex(termEntryIndex);
+            }
+            catch (java.net.URISyntaxException err)
+            {
+                LOGGER.log(Level.FINE, "No termEntry index for " + url, err);
+            }
+        }
+        try
+        {
+            tbxDocument = tbxParser.parse(insource);
+        }
+        finally
+        {
+            if (pool != null)
+                pool.release(tbxParser);
+        }
+        if (tbxDocument.getErrorSummary() != null)
+            summary = tbxDocument.getErrorSummary();
+        if (tbxDocument.getDiagnosticStore() != null)
+            store = tbxDocument.getDiagnosticStore();
+        exceptionCount += tbxDocument.getParseExceptionCount();
         exceptions.addAll(tbxDocument.getParseExceptions());
+        if (termEntryIndex != null && !tbxDocument.isTruncated())
+        {
+            try
+            {
+                termEntryIndex.save();
+            }
+            catch (IOException err)
+            {
+                LOGGER.log(Level.WARNING, "Could not save termEntry index of " + url, err);
+            }
+        }
     }
 
     /**
@@ -507,7 +755,7 @@ public class TBXFile
             throw new IllegalArgumentException(bundle.getString("Validate_NoXMLParse"));
         try
         {
-            if (tbxParser != null)
+            if (tbxDocument != null)
             {
                 exceptions.addAll(tbxDocument.getParseExceptions());
             }
@@ -519,7 +767,7 @@ public class TBXFile
         }
         catch (SAXException err)
         {
-            exceptions.add(new TBXException(TBXException.Priority.XMLVALID_MAJOR, err));
+            addException(new TBXException(TBXException.Priority.XMLVALID_MAJOR, err));
         }
         catch (ParserConfigurationException err)
         {
@@ -533,7 +781,7 @@ public class TBXFile
                 reader = null;
             }
         }
-        return exceptions.isEmpty();
+        return exceptionCount == 0;
     }
     
     /**
@@ -588,7 +836,9 @@ public class TBXFile
             try
             {
                 LOGGER.info("Using XCS file: " + xcsUriStr);
-                xcsDocument = new XCSDocument(xcsUriStr, resolver, config);
+                xcsDocument = config.getXCSCache()
+                    ? XCSCache.getInstance().getXCSDocument(xcsUriStr, resolver, config)
+                    : new XCSDocument(xcsUriStr, resolver, config);
             }
             catch (FileNotFoundException err)
             {
@@ -604,8 +854,9 @@ public class TBXFile
     
     /**
      * @param elem The element to be validated against the XCS.
+     * @throws IOException Any unhandled I/O exceptions.
      */
-    private void validateAgainstXCS(TBXElement elem)
+    private void validateAgainstXCS(TBXElement elem) throws IOException
     {
         String name = elem.getTagName();
         if (name.equals("termEntry"))
@@ -616,7 +867,7 @@ public class TBXFile
             }
             catch (XCSValidationException err)
             {
-                exceptions.add(new TBXException(TBXException.Priority.XCS, err));
+                addException(new TBXException(TBXException.Priority.XCS, err));
             }
         }
         else
@@ -638,151 +889,10 @@ public class TBXFile
      */
     public String getTermEntryAutoId()
     {
+        if (tbxDocument != null)
+            return tbxDocument.getTermEntryAutoId();
         String ret = AUTO_TERMENTRY_ID_PREFIX + termEntrySeq;
         termEntrySeq++;
         return ret;
     }
-    
-    /**
-     */
-    private void buildTermEntriesMap()
-    {
-        Element body = getBodyElement();
-        NodeList terms = body.getElementsByTagName("termEntry");
-        for (int i = 0; i < terms.getLength(); i++)
-        {
-            Element entry = (Element) terms.item(i);
-            if (entry.getAttribute("id").startsWith(AUTO_TERMENTRY_ID_PREFIX))
-                entry.removeAttribute("id");
-            String id = entry.getAttribute("id");
-            if (id.equals(""))
-            {
-                id = getTermEntryAutoId();
-                entry.setAttribute("id", id);
-            }
-            termEntries.put(id, entry);
-        }
-    }
-    
-    /**
-     * This reader will allow all characters through unless the mark
-     * limit will be exceeded. If there is no mark limit then all
-     * characters are allowed.
-     * <p>
-     * This is a pre-screen reader. When it closes it will not close
-     * the reader that was given to the constructor.</p>
-     */
-    private static class MarkLimitReader extends FilterReader
-    {
-        /** */
-        private int maxChars;
-        
-        /** */
-        private int count;
-        
-        /**
-         * @param in The reader that this will read from.
-         */
-        public MarkLimitReader(Reader in)
-        {
-            super(in);
-            if (!in.markSupported())
-                throw new IllegalArgumentException("Reader shall support marking");
-        }
-        
-        /** {@inheritDoc} */
-        public int read() throws IOException
-        {
-            checkReader(1);
-            int ret = in.read();
-            count++;
-            return ret;
-        }
-    
-        /** {@inheritDoc} */
-        public int read(char[] cbuf, int off, int len) throws IOException
-        {
-            int allow = (int) checkReader(len);
-            int ret = in.read(cbuf, off, allow);
-            count += ret;
-            return ret;
-        }
-    
-        /** {@inheritDoc} */
-        public long skip(long n) throws IOException
-        {
-            long allow = checkReader(n);
-            long ret = in.skip(allow);
-            count += ret;
-            return ret;
-        }
-    
-        /** {@inheritDoc} */
-        public void mark(int readAheadLimit) throws IOException
-        {
-            if (in == null)
-                throw new IOException("Reader closed");
-            maxChars = readAheadLimit;
-            in.mark(readAheadLimit);
-        }
-    
-        /** {@inheritDoc} */
-        public void reset() throws IOException
-        {
-            if (in == null)
-                throw new IOException("Reader closed");
-            count = 0;
-            in.reset();
-        }
-        
-        /**
-         * This will clear the mark to allow reading beyond the mark
-         * limit. This is necessary since reset will always put the
-         * read point back to the last mark, but the mark is never
-         * removed.
-         *
-         * @throws IOException Any unhandled I/O exceptions.
-         */
-        public void clearMark() throws IOException
-        {
-            maxChars = -1;
-        }
-
-        /**
-         * CAUTION: This will not close the reader given to the
-         * constructor. This is meant to be a temporary reader.
-         *
-         * @throws IOException Any unhandled I/O exceptions.
-         */
-        public void close() throws IOException
-        {
-            in = null;
-        }
-        
-        /**
-         * This will check the reader that everything is OK and return
-         * the maximum number of characters allowed to be read or the
-         * number of characters desired whichever is smaller.
-         *
-         * @param n Number of characters a reader should be able to mark.
-         * @return Number of characters that may be marked.
-         * @throws IOException Any unhandled I/O exceptions.
-         */
-        private long checkReader(long n) throws IOException
-        {
-            if (in == null)
-                throw new IOException("Reader closed");
-            long ret = 0;
-            if (maxChars >= 0)
-            {
-                if (count >= maxChars)
-                    throw new IOException("Maximum marked characters read");
-                if (count + n > maxChars)
-                    ret = maxChars - count;
-            }
-            return ret;
-        }
-    }
 }
-
-
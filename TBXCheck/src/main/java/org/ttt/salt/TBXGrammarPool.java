@@ -0,0 +1,333 @@
+/*
+ * $Id$
+ *-----------------------------------------------------------------------------
+ * Copyright 2000 Lance Finn Helsten (helsten@acm.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ttt.salt;
+
+import java.io.InputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Logger;
+import java.util.logging.Level;
+import org.apache.xerces.impl.dtd.DTDGrammar;
+import org.apache.xerces.impl.dtd.XMLElementDecl;
+import org.apache.xerces.parsers.XMLGrammarPreparser;
+import org.apache.xerces.xni.grammars.Grammar;
+import org.apache.xerces.xni.grammars.XMLGrammarDescription;
+import org.apache.xerces.xni.grammars.XMLGrammarPool;
+import org.apache.xerces.xni.parser.XMLInputSource;
+import org.xml.sax.InputSource;
+
+/**
+ * This is a process wide pool of the compiled TBX core and TBX XCS DTD
+ * grammars so that every parser in the JVM shares one copy instead of
+ * reading and compiling the DTD for each file.
+ * <p>
+ * Grammars are keyed by public id, and only the DTDs built into this
+ * package are pooled. Each is compiled the first time it is asked for.
+ * Grammars found while parsing are never added to the pool, so a local or
+ * custom DTD is always read from its source.</p>
+ * <p>
+ * Xerces ignores the internal subset of a document whose DTD came from a
+ * pool. Parsers therefore reach the pool through a {@link Gate}, which
+ * watches the document prolog and bypasses the pool for any document that
+ * has an internal subset.</p>
+ *
+ * @author Lance Finn Helsten
+ * @version $Id$
+ * @license Licensed under the Apache License, Version 2.0.
+ */
+public final class TBXGrammarPool implements XMLGrammarPool
+{
+    /*
+     */
+
+    /** SCM information. */
+    public static final String RCSID = "$Id$";
+    
+    /** Xerces property for the grammar pool used by a parser. */
+    public static final String GRAMMAR_POOL_PROPERTY
+        = "http://apache.org/xml/properties/internal/grammar-pool";
+    
+    /** Logger for this package. */
+    private static final Logger LOGGER = Logger.getLogger("org.ttt.salt");
+    
+    /** Built in DTD resources keyed by public id. */
+    private static final Map<String, String> BUILT_IN = new java.util.HashMap<String, String>();
+    
+    /** The process wide pool. */
+    private static final TBXGrammarPool INSTANCE = new TBXGrammarPool();
+    
+    /**
+     */
+    static
+    {
+        BUILT_IN.put("ISO 30042:2008A//DTD TBX core//EN", "/xml/TBXcoreStructV02.dtd");
+        BUILT_IN.put("ISO 30042:2008A//DTD TBX XCS//EN", "/xml/tbxxcsdtd.dtd");
+    }
+    
+    /**
+     * Get the process wide grammar pool.
+     *
+     * @return The process wide grammar pool.
+     */
+    public static TBXGrammarPool getInstance()
+    {
+        return INSTANCE;
+    }
+    
+    /** Compiled grammars keyed by public id. */
+    private final ConcurrentMap<String, Grammar> grammars
+        = new java.util.concurrent.ConcurrentHashMap<String, Grammar>();
+    
+    /**
+     * Use {@link #getInstance}.
+     */
+    private TBXGrammarPool()
+    {
+    }
+    
+    /**
+     * Get the compiled grammar for a built in DTD, compiling it if this is
+     * the first request.
+     *
+     * @param publicId The public id of the DTD.
+     * @return The compiled grammar or null if the DTD is not built in or it
+     *  could not be compiled.
+     */
+    public Grammar getGrammar(String publicId)
+    {
+        if (publicId == null || !BUILT_IN.containsKey(publicId))
+            return null;
+        Grammar ret = grammars.get(publicId);
+        if (ret == null)
+        {
+            synchronized (this)
+            {
+                ret = grammars.get(publicId);
+                if (ret == null)
+                {
+                    ret = compile(publicId, BUILT_IN.get(publicId));
+                    if (ret != null)
+                        grammars.put(publicId, ret);
+                }
+            }
+        }
+        return ret;
+    }
+    
+    /**
+     * Create a gate for one parser to reach this pool through.
+     *
+     * @return A new gate that is enabled.
+     */
+    public Gate newGate()
+    {
+        return new Gate(this);
+    }
+    
+    /** {@inheritDoc} */
+    public Grammar[] retrieveInitialGrammarSet(String grammarType)
+    {
+        return new Grammar[0];
+    }
+    
+    /**
+     * Grammars found while parsing are not pooled.
+     *
+     * @param grammarType The type of the grammars.
+     * @param grammarList The grammars found by the parser.
+     */
+    public void cacheGrammars(String grammarType, Grammar[] grammarList)
+    {
+    }
+    
+    /** {@inheritDoc} */
+    public Grammar retrieveGrammar(XMLGrammarDescription desc)
+    {
+        if (!XMLGrammarDescription.XML_DTD.equals(desc.getGrammarType()))
+            return null;
+        return getGrammar(desc.getPublicId());
+    }
+    
+    /** {@inheritDoc} */
+    public void lockPool()
+    {
+    }
+    
+    /** {@inheritDoc} */
+    public void unlockPool()
+    {
+    }
+    
+    /** {@inheritDoc} */
+    public void clear()
+    {
+        grammars.clear();
+    }
+    
+    /**
+     * Compile a built in DTD.
+     *
+     * @param publicId The public id of the DTD.
+     * @param resource The resource path of the DTD.
+     * @return The compiled grammar or null if it could not be compiled.
+     */
+    private Grammar compile(String publicId, String resource)
+    {
+        LOGGER.info("Compiling DTD grammar: " + publicId);
+        try
+        {
+            InputStream input = getClass().getResourceAsStream(resource);
+            if (input == null)
+                throw new IOException("Missing resource: " + resource);
+            try
+            {
+                XMLGrammarPreparser preparser = new XMLGrammarPreparser();
+                preparser.registerPreparser(XMLGrammarDescription.XML_DTD, null);
+                Grammar ret = preparser.preparseGrammar(XMLGrammarDescription.XML_DTD,
+                    new XMLInputSource(publicId, resource, null, input, "UTF-8"));
+                if (ret instanceof DTDGrammar)
+                {   //Build every content model now so parsers only read the grammar
+                    DTDGrammar dtd = (DTDGrammar) ret;
+                    XMLElementDecl decl = new XMLElementDecl();
+                    for (int i = dtd.getFirstElementDeclIndex();
+                            i >= 0 && dtd.getElementDecl(i, decl);
+                            i = dtd.getNextElementDeclIndex(i))
+                    {
+                        decl.clear();
+                    }
+                }
+                return ret;
+            }
+            finally
+            {
+                input.close();
+            }
+        }
+        catch (IOException err)
+        {
+            LOGGER.log(Level.WARNING, "Could not compile DTD grammar: " + publicId, err);
+            return null;
+        }
+    }
+    
+    /**
+     * This is the view of the pool for one parser. Before each parse the
+     * parser passes its input through {@link #watch}; if the document has
+     * an internal subset then the pool is bypassed for that parse.
+     */
+    public static final class Gate implements XMLGrammarPool
+    {
+        /** The pool this gate opens onto. */
+        private final TBXGrammarPool pool;
+        
+        /** Use the pool for the current parse. */
+        private boolean enabled = true;
+        
+        /** Watches the prolog of the current parse or null. */
+        private PrologReader watcher;
+        
+        /**
+         * @param p The pool this gate opens onto.
+         */
+        private Gate(TBXGrammarPool p)
+        {
+            pool = p;
+        }
+        
+        /**
+         * Set whether the pool is used at all.
+         *
+         * @param v The new value.
+         */
+        public void setEnabled(boolean v)
+        {
+            enabled = v;
+        }
+        
+        /**
+         * Prepare for a new parse of the given input. If the input is not a
+         * character stream then the prolog cannot be watched and the pool is
+         * bypassed for the parse. A {@link PrologReader}, such as the one a
+         * {@link TBXFile} reads through, is used as it is; any other
+         * character stream is watched by a lenient one.
+         *
+         * @param src The input that is about to be parsed.
+         * @return The input the parser should read.
+         */
+        public InputSource watch(InputSource src)
+        {
+            watcher = null;
+            if (src.getCharacterStream() == null)
+                return src;
+            if (src.getCharacterStream() instanceof PrologReader)
+            {
+                watcher = (PrologReader) src.getCharacterStream();
+                return src;
+            }
+            watcher = new PrologReader(src.getCharacterStream(), false);
+            InputSource ret = new InputSource(watcher);
+            ret.setPublicId(src.getPublicId());
+            ret.setSystemId(src.getSystemId());
+            ret.setEncoding(src.getEncoding());
+            return ret;
+        }
+        
+        /**
+         * Drop the input of the last parse so it can be garbage collected.
+         */
+        public void reset()
+        {
+            watcher = null;
+        }
+        
+        /** {@inheritDoc} */
+        public Grammar[] retrieveInitialGrammarSet(String grammarType)
+        {
+            return new Grammar[0];
+        }
+        
+        /** {@inheritDoc} */
+        public void cacheGrammars(String grammarType, Grammar[] grammarList)
+        {
+        }
+        
+        /** {@inheritDoc} */
+        public Grammar retrieveGrammar(XMLGrammarDescription desc)
+        {
+            if (!enabled || watcher == null || watcher.hasInternalSubset())
+                return null;
+            return pool.retrieveGrammar(desc);
+        }
+        
+        /** {@inheritDoc} */
+        public void lockPool()
+        {
+        }
+        
+        /** {@inheritDoc} */
+        public void unlockPool()
+        {
+        }
+        
+        /** {@inheritDoc} */
+        public void clear()
+        {
+        }
+    }
+}
@@ -177,19 +177,58 @@ public class TBXResolver implements EntityResolver
         int b1 = input.read();
         int b2 = input.read();
         int b3 = input.read();
-        int b4 = input.read();
         input.reset();
         
-        int b1utf = b1 & 0xC0;
-        int b2utf = b2 & 0xC0;
-        int b3utf = b3 & 0xC0;
+        String ret = getEncoding(b0, b1, b2, b3);
+        for (int i = getBOMLength(ret, b0, b1, b2); i > 0; --i)
+            input.read();
+        return ret;
+        //CHECKSTYLE: MagicNumber ON
+    }
+    
+    /**
+     * Find out the encoding of a file that is held in a buffer. This is the
+     * same check as {@link #getEncoding(InputStream)}, and on return the
+     * buffer position is after any Byte Order Mark.
+     *
+     * @param input Buffer positioned at the start of the file.
+     * @return The file encoding: UTF-16 or UTF-8.
+     * @throws UnsupportedEncodingException The file encoding could not be
+     *  determined.
+     */
+    public static String getEncoding(java.nio.ByteBuffer input)
+            throws UnsupportedEncodingException
+    {
+        //CHECKSTYLE: MagicNumber OFF
+        int pos = input.position();
+        int[] b = new int[4];
+        for (int i = 0; i < b.length; ++i)
+            b[i] = pos + i < input.limit() ? input.get(pos + i) & 0xFF : -1;
         
+        String ret = getEncoding(b[0], b[1], b[2], b[3]);
+        input.position(pos + getBOMLength(ret, b[0], b[1], b[2]));
+        return ret;
+        //CHECKSTYLE: MagicNumber ON
+    }
+    
+    /**
+     * Determine the encoding from the first four bytes of a file.
+     *
+     * @param b0 First byte or -1.
+     * @param b1 Second byte or -1.
+     * @param b2 Third byte or -1.
+     * @param b3 Fourth byte or -1.
+     * @return The file encoding.
+     * @throws UnsupportedEncodingException The file encoding could not be
+     *  determined.
+     */
+    private static String getEncoding(int b0, int b1, int b2, int b3)
+            throws UnsupportedEncodingException
+    {
+        //CHECKSTYLE: MagicNumber OFF
         String ret = null;
         if (b0 == 0xEF && b1 == 0xBB && b2 == 0xBF)
-        {   //UTF-8 BOM eliminate the first three bytes
-            b0 = input.read();
-            b1 = input.read();
-            b2 = input.read();
+        {   //UTF-8 BOM
             ret = "UTF-8";
         }
         else if (
@@ -205,14 +244,10 @@ public class TBXResolver implements EntityResolver
         }
         else if (b0 == 0xfe && b1 == 0xff)
         {
-            b0 = input.read();
-            b1 = input.read();
             ret = "UTF-16BE";
         }
         else if (b0 == 0xff && b1 == 0xfe && b2 != 0x00)
         {
-            b0 = input.read();
-            b1 = input.read();
             ret = "UTF-16LE";
         }
         else if (b0 == 0x00 && b1 == 0x00 && b2 == 0xfe && b3 == 0xff)
@@ -234,6 +269,24 @@ public class TBXResolver implements EntityResolver
         return ret;
         //CHECKSTYLE: MagicNumber ON
     }
+    
+    /**
+     * @param encoding Encoding found by {@link #getEncoding(int, int, int, int)}.
+     * @param b0 First byte of the file.
+     * @param b1 Second byte of the file.
+     * @param b2 Third byte of the file.
+     * @return Number of Byte Order Mark bytes to skip.
+     */
+    private static int getBOMLength(String encoding, int b0, int b1, int b2)
+    {
+        //CHECKSTYLE: MagicNumber OFF
+        if (encoding.equals("UTF-8"))
+            return (b0 == 0xEF && b1 == 0xBB && b2 == 0xBF) ? 3 : 0;
+        else if (encoding.startsWith("UTF-16"))
+            return 2;
+        return 0;
+        //CHECKSTYLE: MagicNumber ON
+    }
     //CHECKSTYLE: RedundantThrows unchecked ON
 }
 
@@ -0,0 +1,363 @@
+/*
+ * $Id$
+ *-----------------------------------------------------------------------------
+ * Copyright 2000 Lance Finn Helsten (helsten@acm.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ttt.salt;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.w3c.dom.Attr;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+/**
+ * This is the sidecar file of a TBX file that remembers which termEntry
+ * elements were valid the last time the file was checked, so that only the
+ * changed entries need to be validated against the XCS again.
+ * <p>
+ * Each valid termEntry is recorded by its id with a hash of its canonical
+ * content: the tags, the attributes in name order and the text, without
+ * whitespace only text. The sidecar also records the digest of the XCS and
+ * the configuration it was validated with; if either has changed nothing
+ * in the sidecar is used. Invalid entries are not recorded, so they are
+ * always validated again and report their current location.</p>
+ * <p>
+ * A new sidecar is built while the file is checked and replaces the old
+ * one when {@link #save} is called.</p>
+ *
+ * @author Lance Finn Helsten
+ * @version $Id$
+ * @license Licensed under the Apache License, Version 2.0.
+ */
+public class TermEntryIndex
+{
+    /*
+     */
+    
+    /** SCM information. */
+    public static final String RCSID = "$Id$";
+    
+    /** Suffix added to the TBX file name to name its sidecar. */
+    public static final String SUFFIX = ".tbxi";
+    
+    /** Logger for this package. */
+    private static final Logger LOGGER = Logger.getLogger("org.ttt.salt");
+    
+    /** Marks the start of a sidecar, "TBXI". */
+    private static final int MAGIC = 0x54425849;
+    
+    /** Version of the sidecar layout. */
+    private static final int FORMAT = 2;
+    
+    /** Separates the parts of the canonical content. */
+    private static final int SEPARATOR = 0;
+    
+    /** Number of bytes of the digest kept as the hash. */
+    private static final int HASH_BYTES = 8;
+    
+    /** The sidecar file. */
+    private final File file;
+    
+    /** Digest of the canonical content of a termEntry. */
+    private final MessageDigest md = newDigest();
+    
+    /** Valid termEntry hashes by id from the last check. */
+    private Map<String, Long> previous = java.util.Collections.emptyMap();
+    
+    /** Valid termEntry hashes by id from this check. */
+    private final Map<String, Long> current = new java.util.HashMap<String, Long>();
+    
+    /** The XCS and configuration this check validates with. */
+    private String validation;
+    
+    /** Number of termEntry elements that were not validated again. */
+    private int reused;
+    
+    /**
+     * @param f The sidecar file, which need not exist.
+     */
+    public TermEntryIndex(File f)
+    {
+        file = f;
+    }
+    
+    /**
+     * Get the sidecar of a TBX file.
+     *
+     * @param tbx The TBX file.
+     * @return The sidecar file next to the TBX file.
+     */
+    public static File getSidecar(File tbx)
+    {
+        return new File(tbx.getPath() + SUFFIX);
+    }
+    
+    /**
+     * Start using the sidecar for a check against an XCS. The entries of
+     * the last check are only used if it was against the same XCS with the
+     * same configuration and by the same version of the library.
+     *
+     * @param xcsDigest The digest of the XCS content, or null if it is not
+     *  known, in which case every termEntry is validated.
+     * @param config The configuration of this check.
+     */
+    public void open(String xcsDigest, Configuration config)
+    {
+        validation = (xcsDigest == null)
+            ? null
+            : String.format("%s checklang=%b %s", xcsDigest, config.getCheckLang(), ResultCache.VERSION);
+        previous = java.util.Collections.emptyMap();
+        current.clear();
+        reused = 0;
+        if (validation == null || !file.isFile())
+            return;
+        try
+        {
+            previous = read();
+        }
+        catch (IOException err)
+        {
+            LOGGER.log(Level.FINE, "Unreadable sidecar " + file, err);
+        }
+    }
+    
+    /**
+     * Hash the canonical content of a termEntry.
+     *
+     * @param entry The termEntry element.
+     * @return The hash of the content.
+     */
+    public long hash(Element entry)
+    {
+        md.reset();
+        try
+        {
+            update(entry);
+        }
+        catch (java.io.UnsupportedEncodingException err)
+        {   //Every Java platform is required to have UTF-8
+            Error e = new InternalError();
+            e.initCause(err);
+            throw e;
+        }
+        byte[] digest = md.digest();
+        long ret = 0;
+        for (int i = 0; i < HASH_BYTES; i++)
+            ret = (ret << 8) | (digest[i] & 0xff);
+        return ret;
+    }
+    
+    /**
+     * Find out if a termEntry was valid the last time with the same content.
+     * If so it is recorded as valid for this check too.
+     *
+     * @param id The id of the termEntry.
+     * @param hash The hash of the content of the termEntry.
+     * @return true => the termEntry does not need to be validated.
+     */
+    public boolean isUnchanged(String id, long hash)
+    {
+        Long prev = previous.get(id);
+        boolean ret = prev != null && prev.longValue() == hash;
+        if (ret)
+        {
+            current.put(id, hash);
+            reused++;
+        }
+        return ret;
+    }
+    
+    /**
+     * Record a termEntry that is valid in this check.
+     *
+     * @param id The id of the termEntry.
+     * @param hash The hash of the content of the termEntry.
+     */
+    public void setValid(String id, long hash)
+    {
+        if (validation != null && !id.equals(""))
+            current.put(id, hash);
+    }
+    
+    /**
+     * Get the number of termEntry elements that were not validated again.
+     *
+     * @return The count of reused results.
+     */
+    public int getReusedCount()
+    {
+        return reused;
+    }
+    
+    /**
+     * Replace the sidecar with the valid entries of this check. If the XCS
+     * was not known then the sidecar is removed.
+     *
+     * @throws IOException The sidecar could not be written.
+     */
+    public void save() throws IOException
+    {
+        if (validation == null)
+        {
+            file.delete();
+            return;
+        }
+        File dir = file.getAbsoluteFile().getParentFile();
+        File tmp = File.createTempFile(file.getName(), ".tmp", dir);
+        try
+        {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(tmp)));
+            try
+            {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT);
+                out.writeUTF(validation);
+                out.writeInt(current.size());
+                for (Map.Entry<String, Long> entry : current.entrySet())
+                {
+                    out.writeUTF(entry.getKey());
+                    out.writeLong(entry.getValue());
+                }
+            }
+            finally
+            {
+                out.close();
+            }
+            try
+            {
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+            }
+            catch (AtomicMoveNotSupportedException err)
+            {
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        finally
+        {
+            tmp.delete();
+        }
+    }
+    
+    /** {@inheritDoc} */
+    public String toString()
+    {
+        return String.format("TermEntryIndex[file=%s previous=%d current=%d reused=%d]",
+            file, previous.size(), current.size(), reused);
+    }
+    
+    /**
+     * Read the entries of the last check.
+     *
+     * @return The valid termEntry hashes by id, which is empty if the last
+     *  check was against another XCS or configuration.
+     * @throws IOException The sidecar is unreadable.
+     */
+    private Map<String, Long> read() throws IOException
+    {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try
+        {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT || !in.readUTF().equals(validation))
+                return java.util.Collections.emptyMap();
+            int count = in.readInt();
+            Map<String, Long> ret = new java.util.HashMap<String, Long>(count * 2);
+            for (int i = 0; i < count; i++)
+                ret.put(in.readUTF(), in.readLong());
+            return ret;
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+    
+    /**
+     * Add the canonical content of a node to the digest.
+     *
+     * @param node The node to add.
+     * @throws java.io.UnsupportedEncodingException UTF-8 is not supported.
+     */
+    private void update(Node node) throws java.io.UnsupportedEncodingException
+    {
+        if (node.getNodeType() == Node.ELEMENT_NODE)
+        {
+            md.update((byte) '<');
+            md.update(node.getNodeName().getBytes("UTF-8"));
+            NamedNodeMap attrs = node.getAttributes();
+            String[] names = new String[attrs.getLength()];
+            for (int i = 0; i < names.length; i++)
+                names[i] = attrs.item(i).getNodeName();
+            Arrays.sort(names);
+            for (String name : names)
+            {
+                Attr attr = (Attr) attrs.getNamedItem(name);
+                md.update((byte) SEPARATOR);
+                md.update(name.getBytes("UTF-8"));
+                md.update((byte) '=');
+                md.update(attr.getValue().getBytes("UTF-8"));
+            }
+            md.update((byte) '>');
+            for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling())
+                update(child);
+            md.update((byte) '/');
+        }
+        else if (node.getNodeType() == Node.TEXT_NODE
+            || node.getNodeType() == Node.CDATA_SECTION_NODE)
+        {
+            String text = node.getNodeValue();
+            if (text.trim().length() != 0)
+            {
+                md.update((byte) SEPARATOR);
+                md.update(text.getBytes("UTF-8"));
+            }
+        }
+    }
+    
+    /**
+     * @return A new message digest.
+     */
+    private static MessageDigest newDigest()
+    {
+        try
+        {
+            return MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException err)
+        {   //Every Java platform is required to have SHA-256
+            Error e = new InternalError();
+            e.initCause(err);
+            throw e;
+        }
+    }
+}
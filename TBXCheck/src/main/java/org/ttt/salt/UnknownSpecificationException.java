@@ -38,20 +38,7 @@ public class UnknownSpecificationException extends XCSValidationException
      */
     public UnknownSpecificationException(Element elem)
     {
-        super(elem);
-    }
-    
-    /** {@inheritDoc} */
-    public String getMessage()
-    {
-        StringBuffer buf = new StringBuffer();
-        buf.append("Unknown specification pair (");
-        buf.append(element().getTagName());
-        buf.append(", ");
-        buf.append(element().getAttribute("type"));
-        buf.append("): ");
-        buf.append(buildContext());
-        return buf.toString();
+        super(elem, "UnknownSpecificationException",
+            elem.getTagName(), elem.getAttribute("type"));
     }
 }
-
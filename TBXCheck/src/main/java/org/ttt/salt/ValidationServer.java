@@ -0,0 +1,526 @@
+/*
+ * $Id$
+ *-----------------------------------------------------------------------------
+ * Copyright 2000 Lance Finn Helsten (helsten@acm.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ttt.salt;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.Iterator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+import org.xml.sax.SAXException;
+
+/**
+ * This is an HTTP service that checks TBX documents in a long running
+ * process, so that the parsers, grammars and XCS documents stay loaded
+ * between requests.
+ * <p>
+ * <code>POST /validate</code> takes a TBX document as the request body,
+ * which may be gzip compressed with <code>Content-Encoding: gzip</code>.
+ * The document is checked as it is read and the result is returned as a
+ * JSON object with the validity, the counts and the first
+ * {@link #MAX_DIAGNOSTICS} diagnostics; <code>omitted</code> is the number
+ * of diagnostics left out of the response. Relative
+ * references in the document, such as the XCS, are resolved against the
+ * base URL of the server.</p>
+ * <p>
+ * At most <code>workers</code> documents are checked at the same time and
+ * at most <code>queue</code> more wait for a worker. Any other request is
+ * refused with <code>503 Service Unavailable</code> right away, so a busy
+ * server does not build an unbounded backlog.</p>
+ * <p>
+ * <code>GET /metrics</code> returns the request counts, the throughput
+ * since the server started, and the percentiles of the recent request
+ * latencies, including the time spent waiting for a worker, as plain
+ * text.</p>
+ * <p>
+ * A document may reference any file or URL that the server can read, so
+ * the server should only be reachable by trusted clients.</p>
+ *
+ * @author Lance Finn Helsten
+ * @version $Id$
+ * @license Licensed under the Apache License, Version 2.0.
+ */
+public class ValidationServer
+{
+    /*
+     */
+    
+    /** SCM information. */
+    public static final String RCSID = "$Id$";
+    
+    /** Default number of requests that may wait for a worker. */
+    public static final int DEFAULT_QUEUE = 16;
+    
+    /** Most diagnostics returned in the result of a request. */
+    public static final int MAX_DIAGNOSTICS = 1000;
+    
+    /** Logger for this package. */
+    private static final Logger LOGGER = Logger.getLogger("org.ttt.salt");
+    
+    /** Number of recent latencies kept for the percentiles. */
+    private static final int LATENCY_WINDOW = 1024;
+    
+    /** The HTTP server. */
+    private final HttpServer server;
+    
+    /** The threads that handle the exchanges. */
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    
+    /** The configuration each document is checked with. */
+    private final Configuration config;
+    
+    /** The URL relative references in documents are resolved against. */
+    private final URL base;
+    
+    /** Permits for requests that are checking or waiting to check. */
+    private final Semaphore admitted;
+    
+    /** Permits for requests that are checking. */
+    private final Semaphore workers;
+    
+    /** The request counts and latencies. */
+    private final Metrics metrics = new Metrics();
+    
+    /**
+     * @param addr The address to listen on.
+     * @param c The configuration each document is checked with.
+     * @param b The URL relative references in documents are resolved against.
+     * @param w Number of documents that may be checked at the same time.
+     * @param q Number of requests that may wait for a worker.
+     * @throws IOException The server could not listen on the address.
+     */
+    public ValidationServer(InetSocketAddress addr, Configuration c, URL b, int w, int q)
+        throws IOException
+    {
+        if (w < 1)
+            throw new IllegalArgumentException("There must be at least one worker.");
+        if (q < 0)
+            throw new IllegalArgumentException("Queue length must not be negative.");
+        config = c;
+        base = b;
+        workers = new Semaphore(w, true);
+        admitted = new Semaphore(w + q);
+        server = HttpServer.create(addr, 0);
+        server.setExecutor(executor);
+        server.createContext("/validate", new HttpHandler()
+            {
+                public void handle(HttpExchange exchange) throws IOException
+                {
+                    validate(exchange);
+                }
+            });
+        server.createContext("/metrics", new HttpHandler()
+            {
+                public void handle(HttpExchange exchange) throws IOException
+                {
+                    sendMetrics(exchange);
+                }
+            });
+    }
+    
+    /**
+     * Start accepting requests.
+     */
+    public void start()
+    {
+        server.start();
+        LOGGER.info("Listening on " + getAddress());
+    }
+    
+    /**
+     * Stop accepting requests and wait for the current requests to finish.
+     *
+     * @param delay The most seconds to wait for the current requests.
+     */
+    public void stop(int delay)
+    {
+        server.stop(delay);
+        executor.shutdownNow();
+    }
+    
+    /**
+     * Get the address the server listens on, which has the actual port if
+     * the server was given port zero.
+     *
+     * @return The address.
+     */
+    public InetSocketAddress getAddress()
+    {
+        return server.getAddress();
+    }
+    
+    /**
+     * Get the metrics as they are returned by <code>GET /metrics</code>.
+     *
+     * @return The metrics as plain text lines of name and value.
+     */
+    public String getMetrics()
+    {
+        return metrics.toString();
+    }
+    
+    /**
+     * Check the TBX document in the body of a request.
+     *
+     * @param exchange The request.
+     * @throws IOException The response could not be sent.
+     */
+    private void validate(HttpExchange exchange) throws IOException
+    {
+        long start = System.nanoTime();
+        try
+        {
+            if (!exchange.getRequestMethod().equals("POST"))
+            {
+                exchange.getResponseHeaders().set("Allow", "POST");
+                sendError(exchange, 405, "Only POST is supported.");
+                return;
+            }
+            if (!admitted.tryAcquire())
+            {
+                metrics.rejected();
+                exchange.getResponseHeaders().set("Retry-After", "1");
+                sendError(exchange, 503, "Too many requests are waiting.");
+                return;
+            }
+            try
+            {
+                workers.acquire();
+                try
+                {
+                    String result = check(exchange);
+                    long nanos = System.nanoTime() - start;
+                    if (result != null)
+                        send(exchange, 200, "application/json; charset=UTF-8", result);
+                    metrics.completed(nanos, result != null);
+                }
+                finally
+                {
+                    workers.release();
+                }
+            }
+            catch (InterruptedException err)
+            {
+                Thread.currentThread().interrupt();
+                sendError(exchange, 503, "Server is stopping.");
+            }
+            finally
+            {
+                admitted.release();
+            }
+        }
+        finally
+        {
+            exchange.close();
+        }
+    }
+    
+    /**
+     * Check the document of a request and build the result.
+     *
+     * @param exchange The request.
+     * @return The result as a JSON object, or null if an error response has
+     *  been sent instead.
+     * @throws IOException The error response could not be sent.
+     */
+    private String check(HttpExchange exchange) throws IOException
+    {
+        CountingInputStream body = new CountingInputStream(exchange.getRequestBody());
+        TBXFile dv = null;
+        try
+        {
+            InputStream in = body;
+            String encoding = exchange.getRequestHeaders().getFirst("Content-Encoding");
+            if (encoding != null && encoding.equalsIgnoreCase("gzip"))
+                in = new GZIPInputStream(in);
+            else if (encoding != null && !encoding.equalsIgnoreCase("identity"))
+            {
+                sendError(exchange, 415, "Unsupported content encoding: " + encoding);
+                return null;
+            }
+            
+            dv = new TBXFile(in, base, (Configuration) config.clone());
+            dv.parseAndValidate();
+            return toJSON(dv);
+        }
+        catch (IOException err)
+        {
+            LOGGER.log(Level.FINE, "Unreadable request", err);
+            sendError(exchange, 400, err.toString());
+            return null;
+        }
+        catch (SAXException err)
+        {
+            LOGGER.log(Level.FINE, "Unreadable request", err);
+            sendError(exchange, 400, err.toString());
+            return null;
+        }
+        catch (RuntimeException err)
+        {
+            LOGGER.log(Level.WARNING, "Could not check request", err);
+            sendError(exchange, 500, err.toString());
+            return null;
+        }
+        finally
+        {
+            metrics.read(body.count);
+            if (dv != null && dv.getDiagnosticStore() != null)
+                dv.getDiagnosticStore().close();
+        }
+    }
+    
+    /**
+     * Build the result of checking a document.
+     *
+     * @param dv The checked document.
+     * @return The result as a JSON object.
+     * @throws IOException The diagnostics could not be read.
+     */
+    private static String toJSON(TBXFile dv) throws IOException
+    {
+        StringBuilder ret = new StringBuilder();
+        ret.append("{\"valid\":").append(dv.isValid());
+        ret.append(",\"type\":\"").append(dv.getType()).append('"');
+        ret.append(",\"truncated\":").append(dv.isTruncated());
+        ret.append(",\"termEntries\":").append(dv.getTermEntryCount());
+        ret.append(",\"errors\":").append(dv.getInvalidatingExceptionCount());
+        ret.append(",\"diagnostics\":[");
+        Iterator<Diagnostic> diags = dv.getDiagnostics();
+        for (int i = 0; i < MAX_DIAGNOSTICS && diags.hasNext(); i++)
+        {
+            Diagnostic diag = diags.next();
+            if (i > 0)
+                ret.append(',');
+            ret.append("{\"priority\":\"").append(diag.getPriority().name()).append('"');
+            ret.append(",\"code\":");
+            JSON.quote(ret, diag.getCode());
+            ret.append(",\"termEntry\":");
+            JSON.quote(ret, diag.getTermEntryId());
+            ret.append(",\"line\":").append(diag.getLine());
+            ret.append(",\"column\":").append(diag.getColumn());
+            ret.append(",\"message\":");
+            JSON.quote(ret, diag.getMessage());
+            ret.append('}');
+        }
+        int omitted = 0;
+        for (; diags.hasNext(); diags.next())
+            omitted++;
+        ret.append("],\"omitted\":").append(omitted).append('}');
+        return ret.toString();
+    }
+    
+    /**
+     * Send the metrics.
+     *
+     * @param exchange The request.
+     * @throws IOException The response could not be sent.
+     */
+    private void sendMetrics(HttpExchange exchange) throws IOException
+    {
+        try
+        {
+            if (exchange.getRequestMethod().equals("GET"))
+                send(exchange, 200, "text/plain; charset=UTF-8", metrics.toString());
+            else
+                sendError(exchange, 405, "Only GET is supported.");
+        }
+        finally
+        {
+            exchange.close();
+        }
+    }
+    
+    /**
+     * Send an error as a JSON object.
+     *
+     * @param exchange The request.
+     * @param status The HTTP status code.
+     * @param msg The error message.
+     * @throws IOException The response could not be sent.
+     */
+    private static void sendError(HttpExchange exchange, int status, String msg) throws IOException
+    {
+        StringBuilder body = new StringBuilder("{\"error\":");
+        JSON.quote(body, msg).append('}');
+        send(exchange, status, "application/json; charset=UTF-8", body.toString());
+    }
+    
+    /**
+     * Send a response.
+     *
+     * @param exchange The request.
+     * @param status The HTTP status code.
+     * @param type The content type.
+     * @param body The content.
+     * @throws IOException The response could not be sent.
+     */
+    private static void send(HttpExchange exchange, int status, String type, String body)
+        throws IOException
+    {
+        byte[] bytes = body.getBytes("UTF-8");
+        exchange.getResponseHeaders().set("Content-Type", type);
+        exchange.sendResponseHeaders(status, bytes.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(bytes);
+        out.close();
+    }
+    
+    /**
+     * Counts the bytes read from a request body.
+     */
+    private static final class CountingInputStream extends java.io.FilterInputStream
+    {
+        /** Number of bytes read. */
+        private long count;
+        
+        /**
+         * @param in The request body.
+         */
+        private CountingInputStream(InputStream in)
+        {
+            super(in);
+        }
+        
+        /** {@inheritDoc} */
+        public int read() throws IOException
+        {
+            int ret = super.read();
+            if (ret != -1)
+                count++;
+            return ret;
+        }
+        
+        /** {@inheritDoc} */
+        public int read(byte[] b, int off, int len) throws IOException
+        {
+            int ret = super.read(b, off, len);
+            if (ret > 0)
+                count += ret;
+            return ret;
+        }
+        
+        /** {@inheritDoc} */
+        public long skip(long n) throws IOException
+        {
+            long ret = super.skip(n);
+            count += ret;
+            return ret;
+        }
+        
+        /** {@inheritDoc} */
+        public boolean markSupported()
+        {
+            return false;
+        }
+    }
+    
+    /**
+     * The request counts and latencies of the server.
+     */
+    private static final class Metrics
+    {
+        /** Time in nanoseconds the server was created. */
+        private final long started = System.nanoTime();
+        
+        /** The most recent latencies in nanoseconds. */
+        private final long[] latencies = new long[LATENCY_WINDOW];
+        
+        /** Number of requests that checked a document. */
+        private long completed;
+        
+        /** Number of requests that could not be checked. */
+        private long failed;
+        
+        /** Number of requests refused because too many were waiting. */
+        private long rejected;
+        
+        /** Number of request body bytes read. */
+        private long bytes;
+        
+        /**
+         * Record a finished request.
+         *
+         * @param nanos Time in nanoseconds taken to check the request.
+         * @param ok The document was checked.
+         */
+        private synchronized void completed(long nanos, boolean ok)
+        {
+            latencies[(int) ((completed + failed) % latencies.length)] = nanos;
+            if (ok)
+                completed++;
+            else
+                failed++;
+        }
+        
+        /** Record a refused request. */
+        private synchronized void rejected()
+        {
+            rejected++;
+        }
+        
+        /**
+         * Record the size of a request body.
+         *
+         * @param n Number of bytes read.
+         */
+        private synchronized void read(long n)
+        {
+            bytes += n;
+        }
+        
+        /** {@inheritDoc} */
+        public synchronized String toString()
+        {
+            //CHECKSTYLE: MagicNumber OFF
+            int n = (int) Math.min(completed + failed, latencies.length);
+            long[] sorted = java.util.Arrays.copyOf(latencies, n);
+            java.util.Arrays.sort(sorted);
+            double secs = Math.max(System.nanoTime() - started, 1L) / 1.0e9;
+            StringBuilder ret = new StringBuilder();
+            ret.append(String.format("requests_completed %d%n", completed));
+            ret.append(String.format("requests_failed %d%n", failed));
+            ret.append(String.format("requests_rejected %d%n", rejected));
+            ret.append(String.format("request_bytes %d%n", bytes));
+            ret.append(String.format(java.util.Locale.ROOT, "uptime_seconds %.3f%n", secs));
+            ret.append(String.format(java.util.Locale.ROOT, "throughput_requests_per_second %.3f%n",
+                (completed + failed) / secs));
+            ret.append(String.format(java.util.Locale.ROOT, "throughput_bytes_per_second %.1f%n",
+                bytes / secs));
+            double[] quantiles = {0.5, 0.9, 0.99, 1.0};
+            for (double q : quantiles)
+            {
+                double ms = (n == 0) ? 0.0
+                    : sorted[(int) Math.min(n - 1, Math.ceil(q * n) - 1)] / 1.0e6;
+                ret.append(String.format(java.util.Locale.ROOT, "latency_ms{quantile=\"%s\"} %.3f%n",
+                    (q == 1.0) ? "1" : Double.toString(q), ms));
+            }
+            return ret.toString();
+            //CHECKSTYLE: MagicNumber ON
+        }
+    }
+}
@@ -0,0 +1,327 @@
+/*
+ * $Id$
+ *-----------------------------------------------------------------------------
+ * Copyright 2000 Lance Finn Helsten (helsten@acm.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ttt.salt;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.CharArrayReader;
+import java.io.CharArrayWriter;
+import java.io.InputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.logging.Logger;
+import javax.xml.parsers.ParserConfigurationException;
+import org.xml.sax.EntityResolver;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+/**
+ * This is a process wide cache of parsed XCS documents so that many TBX
+ * files that use the same XCS only parse and validate it once.
+ * <p>
+ * The XCS is still resolved and read for every request, and the cache is
+ * keyed on the resolved system id, the SHA-256 digest of the XCS content,
+ * and those parts of the configuration that change how the XCS validates.
+ * A changed XCS file is therefore never confused with an older copy. The
+ * least recently used documents are evicted once the cache is full.</p>
+ * <p>
+ * Cached XCS documents are shared between threads, which is safe because
+ * validation against an XCS document does not modify it.</p>
+ *
+ * @author Lance Finn Helsten
+ * @version $Id$
+ * @license Licensed under the Apache License, Version 2.0.
+ */
+public final class XCSCache
+{
+    /*
+     */
+
+    /** SCM information. */
+    public static final String RCSID = "$Id$";
+    
+    /** Default number of XCS documents kept in a cache. */
+    public static final int DEFAULT_CAPACITY = 16;
+
+    /** Logger for this package. */
+    private static final Logger LOGGER = Logger.getLogger("org.ttt.salt");
+    
+    /** Digest used on the XCS content. */
+    private static final String DIGEST = "SHA-256";
+    
+    /** Size of the buffer used to read the XCS. */
+    private static final int BUFFER_SIZE = 8192;
+    
+    /** The process wide cache. */
+    private static final XCSCache INSTANCE = new XCSCache(DEFAULT_CAPACITY);
+    
+    /**
+     * Get the process wide XCS cache.
+     *
+     * @return The process wide XCS cache.
+     */
+    public static XCSCache getInstance()
+    {
+        return INSTANCE;
+    }
+    
+    /** Maximum number of XCS documents to keep. */
+    private int capacity;
+    
+    /** Number of requests found in the cache. */
+    private long hits;
+    
+    /** Number of requests that had to parse the XCS. */
+    private long misses;
+    
+    /** Number of XCS documents evicted from the cache. */
+    private long evictions;
+    
+    /** Cached documents in least recently used order. */
+    private final Map<String, XCSDocument> cache
+        = new java.util.LinkedHashMap<String, XCSDocument>(DEFAULT_CAPACITY, 0.75f, true)
+        {
+            /** {@inheritDoc} */
+            protected boolean removeEldestEntry(Map.Entry<String, XCSDocument> eldest)
+            {
+                boolean ret = size() > capacity;
+                if (ret)
+                {
+                    evictions++;
+                    LOGGER.fine("Evicting XCS from cache: " + eldest.getKey());
+                }
+                return ret;
+            }
+        };
+    
+    /**
+     * Create a new XCS cache.
+     *
+     * @param max The maximum number of XCS documents to keep.
+     */
+    public XCSCache(int max)
+    {
+        if (max < 1)
+            throw new IllegalArgumentException("XCS cache capacity must be at least one.");
+        capacity = max;
+    }
+    
+    /**
+     * Get the XCS document for the given XCS URI, either from the cache or by
+     * parsing it and adding it to the cache.
+     *
+     * @param xcsURI The XCS's URI string as given in the TBX file.
+     * @param resolver The resolver to use to find the XCS.
+     * @param config The validation and compliance configuration.
+     * @return The parsed XCS document.
+     * @throws IOException Any I/O exceptions reading the XCS.
+     * @throws ParserConfigurationException Problems with building the parser.
+     * @throws SAXException Any parse exceptions building the XCS document.
+     * @see XCSDocument#XCSDocument(String, EntityResolver, Configuration)
+     */
+    public XCSDocument getXCSDocument(String xcsURI, EntityResolver resolver, Configuration config)
+        throws IOException, ParserConfigurationException, SAXException
+    {
+        MessageDigest md = newDigest();
+        InputSource source = resolver.resolveEntity(xcsURI, xcsURI);
+        if (source == null)
+            source = new InputSource(xcsURI);
+        source = buffer(source, md);
+        String digest = toHex(md.digest());
+        String key = String.format("%s %s %b", source.getSystemId(), digest, config.getCheckLang());
+        
+        synchronized (this)
+        {
+            XCSDocument ret = cache.get(key);
+            if (ret != null)
+            {
+                hits++;
+                return ret;
+            }
+            misses++;
+        }
+        
+        XCSDocument ret = new XCSDocument(xcsURI, source, resolver, config);
+        ret.setDigest(digest);
+        synchronized (this)
+        {
+            XCSDocument prev = cache.get(key);
+            if (prev != null)
+                return prev;
+            cache.put(key, ret);
+        }
+        return ret;
+    }
+    
+    /**
+     * Change the maximum number of XCS documents kept in this cache. If
+     * the cache currently holds more than this then the least recently
+     * used are evicted the next time a document is added.
+     *
+     * @param max The maximum number of XCS documents to keep.
+     */
+    public synchronized void setCapacity(int max)
+    {
+        if (max < 1)
+            throw new IllegalArgumentException("XCS cache capacity must be at least one.");
+        capacity = max;
+    }
+    
+    /**
+     * @return The maximum number of XCS documents kept in this cache.
+     */
+    public synchronized int getCapacity()
+    {
+        return capacity;
+    }
+    
+    /**
+     * @return The number of XCS documents currently in this cache.
+     */
+    public synchronized int size()
+    {
+        return cache.size();
+    }
+    
+    /**
+     * @return The number of requests that were found in this cache.
+     */
+    public synchronized long getHits()
+    {
+        return hits;
+    }
+    
+    /**
+     * @return The number of requests that required the XCS to be parsed.
+     */
+    public synchronized long getMisses()
+    {
+        return misses;
+    }
+    
+    /**
+     * @return The number of XCS documents evicted from this cache.
+     */
+    public synchronized long getEvictions()
+    {
+        return evictions;
+    }
+    
+    /**
+     * Remove all XCS documents from this cache. The counters are not reset.
+     */
+    public synchronized void clear()
+    {
+        cache.clear();
+    }
+    
+    /** {@inheritDoc} */
+    public synchronized String toString()
+    {
+        return String.format("XCSCache[size=%d capacity=%d hits=%d misses=%d evictions=%d]",
+            cache.size(), capacity, hits, misses, evictions);
+    }
+    
+    /**
+     * Read the entire XCS into memory updating the digest with its content.
+     *
+     * @param source The source as given by the resolver.
+     * @param md The digest to update with the XCS content.
+     * @return A new source that reads from the memory buffer.
+     * @throws IOException Any I/O exceptions reading the XCS.
+     */
+    private static InputSource buffer(InputSource source, MessageDigest md) throws IOException
+    {
+        InputSource ret;
+        if (source.getCharacterStream() != null)
+        {
+            Reader reader = source.getCharacterStream();
+            CharArrayWriter buf = new CharArrayWriter();
+            try
+            {
+                char[] cbuf = new char[BUFFER_SIZE];
+                int len;
+                while ((len = reader.read(cbuf)) != -1)
+                    buf.write(cbuf, 0, len);
+            }
+            finally
+            {
+                reader.close();
+            }
+            md.update(buf.toString().getBytes("UTF-8"));
+            ret = new InputSource(new CharArrayReader(buf.toCharArray()));
+        }
+        else
+        {
+            InputStream input = source.getByteStream();
+            if (input == null)
+                input = new URL(source.getSystemId()).openStream();
+            ByteArrayOutputStream buf = new ByteArrayOutputStream();
+            try
+            {
+                byte[] bbuf = new byte[BUFFER_SIZE];
+                int len;
+                while ((len = input.read(bbuf)) != -1)
+                    buf.write(bbuf, 0, len);
+            }
+            finally
+            {
+                input.close();
+            }
+            md.update(buf.toByteArray());
+            ret = new InputSource(new ByteArrayInputStream(buf.toByteArray()));
+            ret.setEncoding(source.getEncoding());
+        }
+        ret.setPublicId(source.getPublicId());
+        ret.setSystemId(source.getSystemId());
+        return ret;
+    }
+    
+    /**
+     * @return A new message digest for XCS content.
+     */
+    private static MessageDigest newDigest()
+    {
+        try
+        {
+            return MessageDigest.getInstance(DIGEST);
+        }
+        catch (NoSuchAlgorithmException err)
+        {   //Every Java platform is required to have SHA-256
+            Error e = new InternalError();
+            e.initCause(err);
+            throw e;
+        }
+    }
+    
+    /**
+     * @param bytes The digest bytes.
+     * @return The lower case hexadecimal string of the bytes.
+     */
+    static String toHex(byte[] bytes)
+    {
+        StringBuilder ret = new StringBuilder(bytes.length * 2);
+        for (int i = 0; i < bytes.length; i++)
+            ret.append(String.format("%02x", bytes[i] & 0xff));
+        return ret.toString();
+    }
+}
@@ -18,7 +18,6 @@
 package org.ttt.salt;
 
 import java.io.IOException;
-import java.lang.reflect.Method;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.util.Set;
@@ -44,6 +43,8 @@ import org.w3c.dom.NodeList;
 import org.apache.xerces.dom.DocumentImpl;
 import org.ttt.salt.dom.xcs.XCSParser;
 import org.ttt.salt.dom.xcs.XCSElement;
+import org.ttt.salt.dom.xcs.XCSElementFactory;
+import org.ttt.salt.dom.xcs.Element_TBXXCS;
 
 
 /**
@@ -135,6 +136,12 @@ public class XCSDocument extends DocumentImpl implements Document
             return ret;
         }
         
+        /** {@inheritDoc} */
+        public int hashCode()
+        {
+            return value.hashCode();
+        }
+        
         /** {@inheritDoc} */
         public int compareTo(Object obj)
         {
@@ -142,6 +149,146 @@ public class XCSDocument extends DocumentImpl implements Document
         }
     }
     
+    /**
+     * The datatypes that may be given in an XCS contents element.
+     */
+    private enum DataType
+    {
+        /** Content must be one of the picks in the contents. */
+        PICKLIST("picklist"),
+        
+        /** Content is only text. */
+        PLAIN_TEXT("plainText"),
+        
+        /** Content is text with hi elements. */
+        BASIC_TEXT("basicText"),
+        
+        /** Content is text with hi, foreign, and inline elements. */
+        NOTE_TEXT("noteText"),
+        
+        /** Content is a geographic list. */
+        GEO_LIST("geoList"),
+        
+        /** Content is elements. */
+        ELEMENTS("elements"),
+        
+        /** The datatype is not known. */
+        UNKNOWN(null);
+        
+        /** Name of the datatype in the XCS. */
+        private final String xcsName;
+        
+        /**
+         * @param n Name of the datatype in the XCS.
+         */
+        private DataType(String n)
+        {
+            xcsName = n;
+        }
+        
+        /**
+         * @param name Name of the datatype in the XCS.
+         * @return The datatype for the name or UNKNOWN.
+         */
+        private static DataType forName(String name)
+        {
+            for (DataType dt : values())
+            {
+                if (dt.xcsName != null && dt.xcsName.equals(name))
+                    return dt;
+            }
+            return UNKNOWN;
+        }
+    }
+    
+    /**
+     * The compiled specification for a single tag and type. These are built
+     * once when the XCS is loaded so validating an element is a map lookup
+     * followed by direct checks against the values held here.
+     */
+    private static final class CompiledSpec
+    {
+        /** The specification element. */
+        private final Element spec;
+        
+        /** The first contents element in the specification or null. */
+        private final Element contents;
+        
+        /** The tag the specification is for. */
+        private final String tag;
+        
+        /** The type the specification is for. */
+        private final String type;
+        
+        /** The datatype handler. */
+        private final DataType datatype;
+        
+        /** The picks allowed in a picklist, otherwise null. */
+        private final Set<String> picklist;
+        
+        /** The child elements allowed in a text datatype, otherwise null. */
+        private final Set<String> children;
+        
+        /** Bit mask of the levels this may occur at. */
+        private final int levels;
+        
+        /** Names of the levels this may occur at. */
+        private final Set<String> levelNames;
+        
+        /**
+         * @param sp The specification element.
+         * @param cn The first contents element in the specification.
+         * @param tg The tag the specification is for.
+         * @param tp The type the specification is for.
+         * @param dt The datatype handler.
+         * @param picks The picks allowed in a picklist.
+         * @param lvls Bit mask of the levels this may occur at.
+         */
+        private CompiledSpec(Element sp, Element cn, String tg, String tp, DataType dt,
+            Set<String> picks, int lvls)
+        {
+            spec = sp;
+            contents = cn;
+            tag = tg;
+            type = tp;
+            datatype = dt;
+            picklist = picks;
+            levels = lvls;
+            Set<String> names = new java.util.HashSet<String>();
+            if ((lvls & LEVEL_TERM_ENTRY) != 0)
+                names.add("termEntry");
+            if ((lvls & LEVEL_LANG_SET) != 0)
+                names.add("langSet");
+            if ((lvls & LEVEL_TERM) != 0)
+                names.add("term");
+            levelNames = Collections.unmodifiableSet(names);
+            if (dt == DataType.BASIC_TEXT)
+                children = BASIC_TEXT_CHILDREN;
+            else if (dt == DataType.NOTE_TEXT)
+                children = NOTE_TEXT_CHILDREN;
+            else
+                children = null;
+        }
+    }
+    
+    /**
+     * The index of every specification in the datCatSet. This is built in a
+     * single pass when the XCS is loaded and is not modified afterwards.
+     */
+    private static final class SpecIndex
+    {
+        /** Compiled specifications by tag then type. */
+        private final Map<String, Map<String, CompiledSpec>> specs
+            = new java.util.HashMap<String, Map<String, CompiledSpec>>();
+        
+        /** The types for each tag. */
+        private final Map<String, SortedSet<String>> types
+            = new java.util.HashMap<String, SortedSet<String>>();
+        
+        /** Keys of all the specifications in document order. */
+        private final Set<Key> keys = new java.util.LinkedHashSet<Key>();
+    }
+    
     /** Logger for this package. */
     private static final Logger LOGGER = Logger.getLogger("org.ttt.salt");
     
@@ -157,6 +304,21 @@ public class XCSDocument extends DocumentImpl implements Document
     /** */
     private static final Set<String> LEVELS_CHECK = new java.util.HashSet<String>();
     
+    /** Child elements allowed in basicText. */
+    private static final Set<String> BASIC_TEXT_CHILDREN = new java.util.HashSet<String>();
+    
+    /** Child elements allowed in noteText. */
+    private static final Set<String> NOTE_TEXT_CHILDREN = new java.util.HashSet<String>();
+    
+    /** Level bit for termEntry. */
+    private static final int LEVEL_TERM_ENTRY = 1;
+    
+    /** Level bit for langSet. */
+    private static final int LEVEL_LANG_SET = 2;
+    
+    /** Level bit for term. */
+    private static final int LEVEL_TERM = 4;
+    
     /**
      */
     static
@@ -191,6 +353,84 @@ public class XCSDocument extends DocumentImpl implements Document
         //LEVELS_CHECK.add("transac");
         //LEVELS_CHECK.add("transacNote");
         //LEVELS_CHECK.add("xref");
+        
+        //Elements allowed in the text datatypes
+        BASIC_TEXT_CHILDREN.add("hi");
+        NOTE_TEXT_CHILDREN.add("hi");
+        NOTE_TEXT_CHILDREN.add("foreign");
+        NOTE_TEXT_CHILDREN.add("bpt");
+        NOTE_TEXT_CHILDREN.add("ept");
+        NOTE_TEXT_CHILDREN.add("it");
+        NOTE_TEXT_CHILDREN.add("ph");
+        NOTE_TEXT_CHILDREN.add("ut");
+    }
+    
+    /** Element factories by tag name. */
+    private static final java.util.concurrent.ConcurrentMap<String, XCSElementFactory> FACTORIES
+        = new java.util.concurrent.ConcurrentHashMap<String, XCSElementFactory>();
+    
+    /** Factory for tags that do not have an element class. */
+    private static final XCSElementFactory DEFAULT_FACTORY = new XCSElementFactory()
+        {
+            /** {@inheritDoc} */
+            public XCSElement createXCSElement(XCSDocument ownerDoc, String tagName, Locator loc)
+            {
+                return new XCSElement(ownerDoc, tagName, loc);
+            }
+        };
+    
+    static
+    {
+        registerElementFactory("TBXXCS", new XCSElementFactory()
+            {
+                /** {@inheritDoc} */
+                public XCSElement createXCSElement(XCSDocument ownerDoc, String tagName, Locator loc)
+                {
+                    return new Element_TBXXCS(ownerDoc, tagName, loc);
+                }
+            });
+    }
+    
+    /**
+     * Creates elements with the public constructor of an element class.
+     */
+    private static final class ConstructorFactory implements XCSElementFactory
+    {
+        /** The element class constructor. */
+        private final Constructor<XCSElement> cstrct;
+        
+        /**
+         * @param c The element class constructor.
+         */
+        private ConstructorFactory(Constructor<XCSElement> c)
+        {
+            cstrct = c;
+        }
+        
+        /** {@inheritDoc} */
+        public XCSElement createXCSElement(XCSDocument ownerDoc, String tagName, Locator loc)
+            throws SAXParseException
+        {
+            try
+            {
+                return cstrct.newInstance(ownerDoc, tagName, loc);
+            }
+            catch (InstantiationException err)
+            {
+                Logger.getLogger("org.ttt.salt.dom.xcs").log(Level.SEVERE, "XCS class not concrete: {0}", tagName);
+                throw new SAXParseException("XCS class not concrete", loc, err);
+            }
+            catch (IllegalAccessException err)
+            {
+                Logger.getLogger("org.ttt.salt.dom.xcs").log(Level.SEVERE, "XCS constructor not accessible on {0}", tagName);
+                throw new SAXParseException("XCS constructor not accessible", loc, err);
+            }
+            catch (InvocationTargetException err)
+            {
+                Logger.getLogger("org.ttt.salt.dom.xcs").log(Level.SEVERE, "XCS element {0} creation error", tagName);
+                throw new SAXParseException("XCS element creation error", loc, err);
+            }
+        }
     }
     
     /** Timestampt when document was created. */
@@ -198,18 +438,15 @@ public class XCSDocument extends DocumentImpl implements Document
     
     /** Configuration for validation and compliance. */
     private Configuration config;
+    
+    /** Digest of the XCS content. */
+    private String digest;
         
     /** */
     private SortedMap<String, String> languages;
     
-    /** */
-    private final Map<Key, Element> specNodes = new java.util.HashMap<Key, Element>();
-    
-    /** */
-    private final Map<Key, Set<String>> levels = new java.util.HashMap<Key, Set<String>>();
-    
-    /** */
-    private final Map<String, SortedSet<String>> typeSets = new java.util.HashMap<String, SortedSet<String>>();
+    /** The index of compiled specifications. */
+    private volatile SpecIndex index;
     
     /**
      * Create an empty XCS document.
@@ -233,6 +470,27 @@ public class XCSDocument extends DocumentImpl implements Document
      */
     public XCSDocument(String xcsURI, EntityResolver resolver, Configuration c) throws IOException,
         ParserConfigurationException, SAXException
+    {
+        this(xcsURI, null, resolver, c);
+    }
+    
+    /**
+     * Create an XCS document for the third stage TBX XCS validation from
+     * an XCS that has already been resolved.
+     *
+     * @param xcsURI The XCS's URI string as given in the TBX file.
+     * @param source The resolved XCS source, if this is null then the
+     *  XCS URI will be resolved with the resolver.
+     * @param resolver The resolver this XCS document should use to find
+     *  files.
+     * @param c The validation and compliance configuration.
+     * @throws IOException Any I/O exceptions building this document.
+     * @throws ParserConfigurationException Problems with building the parser.
+     * @throws SAXException Any parse exceptions building this document.
+     * @see XCSCache
+     */
+    public XCSDocument(String xcsURI, InputSource source, EntityResolver resolver, Configuration c)
+        throws IOException, ParserConfigurationException, SAXException
     {   //Open the input for the XCS file
         //Parse the XCS file
         //NOTDONE: should I switch to DOM2
@@ -240,10 +498,19 @@ public class XCSDocument extends DocumentImpl implements Document
         try
         {
             LOGGER.info("Parsing XCS file: " + xcsURI);
-            InputSource source = resolver.resolveEntity(xcsURI, xcsURI);
-            XCSParser parser = new XCSParser(resolver);
-            parser.parse(this, source);
+            if (source == null)
+                source = resolver.resolveEntity(xcsURI, xcsURI);
+            XCSParser parser = ParserPool.getInstance().getXCSParser(resolver);
+            try
+            {
+                parser.parse(this, source);
+            }
+            finally
+            {
+                ParserPool.getInstance().release(parser);
+            }
             languages = buildLangMap();
+            index = buildIndex();
             LOGGER.info("Success");
         }
         catch (SAXParseException err)
@@ -262,6 +529,25 @@ public class XCSDocument extends DocumentImpl implements Document
         }
     }
     
+    /**
+     * Get the SHA-256 digest of the XCS content this document was built
+     * from. This is only known for documents built by {@link XCSCache}.
+     *
+     * @return Lower case hexadecimal digest or null if it is not known.
+     */
+    public String getDigest()
+    {
+        return digest;
+    }
+    
+    /**
+     * @param d The digest of the XCS content this document was built from.
+     */
+    void setDigest(String d)
+    {
+        digest = d;
+    }
+    
     /**
      * Create a new XCS element for this document. This should be called
      * instead of {@link org.w3c.dom.Document#createElement} when building a
@@ -276,51 +562,71 @@ public class XCSDocument extends DocumentImpl implements Document
      * @return The newly created XCS element.
      * @see #createElement
      */
-    @SuppressWarnings("unchecked")
     public XCSElement createXCSElement(String tagName, Locator loc) throws SAXParseException
     {
         if (errorChecking && !isXMLName(tagName, true))
             super.createElement(tagName);   //let the superclass throw the error
-        XCSElement ret = null;
-        try
+        XCSElement ret = getElementFactory(tagName, loc).createXCSElement(this, tagName, loc);
+        if (tagName.equals("TBXXCS"))
+            docElement = ret;
+        return ret;
+    }
+    
+    /**
+     * Register the factory that creates the elements for a tag. This
+     * replaces any factory already used for the tag, including the
+     * <code>Element_</code><em>tag</em> class found by default.
+     *
+     * @param tagName The element tag id.
+     * @param factory The factory to use for the tag.
+     */
+    public static void registerElementFactory(String tagName, XCSElementFactory factory)
+    {
+        FACTORIES.put(tagName, factory);
+    }
+    
+    /**
+     * Get the factory for a tag. The first time a tag without a registered
+     * factory is seen its <code>Element_</code><em>tag</em> class is looked
+     * up, and the result is kept for every later element with that tag.
+     * Tags that have no class are only kept when they are listed in
+     * {@link XCSParser#KNOWN_MISSING}, so arbitrary input cannot grow the cache.
+     *
+     * @param tagName The element tag id.
+     * @param loc The {@link org.xml.sax.Locator} for any exception.
+     * @return The factory for the tag.
+     * @throws SAXParseException The element class for the tag is invalid.
+     */
+    @SuppressWarnings("unchecked")
+    private static XCSElementFactory getElementFactory(String tagName, Locator loc) throws SAXParseException
+    {
+        XCSElementFactory ret = FACTORIES.get(tagName);
+        if (ret == null)
         {
             try
             {
                 Class<XCSElement> clazz = (Class<XCSElement>) Class.forName(PREFIX + tagName,
-                                            true, getClass().getClassLoader());
-                Constructor<XCSElement> cstrct = clazz.getConstructor(XCSDocument.class,
-                    String.class, Locator.class);
-                ret = cstrct.newInstance(this, tagName, loc);
+                                            true, XCSDocument.class.getClassLoader());
+                ret = new ConstructorFactory(clazz.getConstructor(XCSDocument.class,
+                    String.class, Locator.class));
             }
             catch (ClassNotFoundException err)
             {
                 if (!XCSParser.KNOWN_MISSING.contains(tagName))
+                {
                     Logger.getLogger("org.ttt.salt.dom.xcs").log(Level.INFO, "Unknown XCS Element: {0}", tagName);
-                ret = new XCSElement(this, tagName, loc);
+                    return DEFAULT_FACTORY;
+                }
+                ret = DEFAULT_FACTORY;
             }
-
-            if (tagName.equals("TBXXCS"))
-                docElement = ret;
-        }
-        catch (NoSuchMethodException err)
-        {
-            Logger.getLogger("org.ttt.salt.dom.xcs").log(Level.SEVERE, "Invalid XCS Class: {0}", tagName);
-            throw new SAXParseException("Invalid XCS Class", loc, err);
-        }
-        catch (InstantiationException err)
-        {
-            Logger.getLogger("org.ttt.salt.dom.xcs").log(Level.SEVERE, "XCS class not concrete: {0}", tagName);
-            throw new SAXParseException("XCS class not concrete", loc, err);
-        }
-        catch (IllegalAccessException err)
-        {
-            Logger.getLogger("org.ttt.salt.dom.xcs").log(Level.SEVERE, "XCS constructor not accessible on {0}", tagName);
-            throw new SAXParseException("XCS constructor not accessible", loc, err);
-        }
-        catch (InvocationTargetException err)
-        {
-            Logger.getLogger("org.ttt.salt.dom.xcs").log(Level.SEVERE, "XCS element {0} creation error", tagName);
-            throw new SAXParseException("XCS element creation error", loc, err);
+            catch (NoSuchMethodException err)
+            {
+                Logger.getLogger("org.ttt.salt.dom.xcs").log(Level.SEVERE, "Invalid XCS Class: {0}", tagName);
+                throw new SAXParseException("Invalid XCS Class", loc, err);
+            }
+            XCSElementFactory prev = FACTORIES.putIfAbsent(tagName, ret);
+            if (prev != null)
+                ret = prev;
         }
         return ret;
     }
@@ -416,26 +722,26 @@ public class XCSDocument extends DocumentImpl implements Document
      *
      * @param tag The elmement tag id to get spec types.
      * @param parenttag The element tag's parent element tag id.
-     * @return Set of specification types in this XCS.
+     * @return Unmodifiable set of specification types in this XCS.
      */
     public SortedSet<String> getSpecTypes(String tag, String parenttag)
     {
-        SortedSet<String> ret = typeSets.get(tag);
+        SortedSet<String> ret = getIndex().types.get(tag);
         if (ret == null)
-        {
-            ret = new java.util.TreeSet<String>();
-            Element datcat = getNamedElement(getDocumentElement(), "datCatSet", 0);
-            NodeList nl = datcat.getElementsByTagName(tag + "Spec");
-            for (int i = 0; i < nl.getLength(); i++)
-            {
-                Element elem = (Element) nl.item(i);
-                ret.add(elem.getAttribute("name"));
-            }
-            typeSets.put(tag, ret);
-        }
+            ret = Collections.unmodifiableSortedSet(new java.util.TreeSet<String>());
         return ret;
     }
     
+    /**
+     * Get the keys of every specification in this XCS.
+     *
+     * @return Unmodifiable set of keys in XCS document order.
+     */
+    public Set<Key> getSpecKeys()
+    {
+        return getIndex().keys;
+    }
+    
     /**
      * Check to see if the given tag is a valid XCS element tag.
      *
@@ -455,8 +761,7 @@ public class XCSDocument extends DocumentImpl implements Document
      */
     public boolean hasSpec(Key key)
     {
-        return specNodes.containsKey(key)
-            || (getSpec(key) != null);
+        return getCompiledSpec(key.getTag(), key.getType()) != null;
     }
     
     /**
@@ -468,25 +773,8 @@ public class XCSDocument extends DocumentImpl implements Document
      */
     public Element getSpec(Key key)
     {
-        Element ret = specNodes.get(key);
-        if (ret == null)
-        {
-            Element datcat = getNamedElement(getDocumentElement(), "datCatSet", 0);
-            NodeList nl = datcat.getElementsByTagName(key.getSpecName());
-        FIND_NAME:
-            for (int i = 0; i < nl.getLength(); i++)
-            {
-                Element elem = (Element) nl.item(i);
-                String name = elem.getAttribute("name");
-                if (name.equals(key.getType()))
-                {
-                    specNodes.put(key, elem);
-                    ret = elem;
-                    break FIND_NAME;
-                }
-            }
-        }
-        return ret;
+        CompiledSpec spec = getCompiledSpec(key.getTag(), key.getType());
+        return spec == null ? null : spec.spec;
     }
     
     /**
@@ -501,16 +789,19 @@ public class XCSDocument extends DocumentImpl implements Document
         String name = elem.getTagName();
         if (!isXcsTag(name))
             throw new IllegalArgumentException("Element is not a XCS element: " + name);
-        String parent = elem.getParentNode().getNodeName();
-        Key key = new Key(name, elem.getAttribute("type"));
-        if (!hasSpec(key))
+        CompiledSpec spec = getCompiledSpec(name, elem.getAttribute("type"));
+        if (spec == null)
             throw new UnknownSpecificationException(elem);
-        doesElementMatchSpec(elem, key);
-        isElementAtProperLevel(elem, key);
+        if (!XCS_PARENTS.contains(name))
+            doesElementMatchSpec(elem, spec);
+        isElementAtProperLevel(elem, spec);
     }
     
     /**
      * Validate a term entry element.
+     * <p>
+     * Several term entries may be validated at the same time from different
+     * threads so long as none of them are modified during validation.</p>
      *
      * @param elem The term entry element element to be validated.
      * @throws XCSValidationException The exception that describes any validation
@@ -568,47 +859,169 @@ public class XCSDocument extends DocumentImpl implements Document
     }
     
     /**
+     * Check the content of the element against its specification datatype.
+     *
+     * @param elem The XCS element to check.
+     * @param spec The compiled specification for the element.
      * @throws XCSValidationException The exception that describes any validation
      *  problems.
      */
-    private void doesElementMatchSpec(Element elem, Key key)
+    private void doesElementMatchSpec(Element elem, CompiledSpec spec)
             throws XCSValidationException
     {
-        try
+        switch (spec.datatype)
         {
-            if (!XCS_PARENTS.contains(elem.getNodeName()))
+            case PICKLIST:
+                check_picklist(elem, spec.picklist);
+                break;
+            case PLAIN_TEXT:
+                check_plainText(elem);
+                break;
+            case BASIC_TEXT:
+            case NOTE_TEXT:
+                check_text(elem, spec.children);
+                break;
+            case GEO_LIST:
+                check_geoList(elem);
+                break;
+            case ELEMENTS:
+                check_elements(elem);
+                break;
+            default:
+                throw new IllegalStateException(
+                    "Unknown data type: " + spec.type
+                    + " in tag <" + spec.tag + ">");
+        }
+    }
+    
+    /**
+     * Get the compiled specification for a tag and type.
+     *
+     * @param tag The element tag.
+     * @param type The element type attribute.
+     * @return The compiled specification or null if the XCS does not have a
+     *  specification for the tag and type.
+     */
+    private CompiledSpec getCompiledSpec(String tag, String type)
+    {
+        Map<String, CompiledSpec> types = getIndex().specs.get(tag);
+        return types == null ? null : types.get(type);
+    }
+    
+    /**
+     * Get the specification index, building it if this document was not
+     * built from an XCS URI.
+     *
+     * @return The specification index.
+     */
+    private SpecIndex getIndex()
+    {
+        SpecIndex ret = index;
+        if (ret == null)
+        {
+            ret = buildIndex();
+            index = ret;
+        }
+        return ret;
+    }
+    
+    /**
+     * Compile every specification in the datCatSet in a single pass over
+     * its children.
+     *
+     * @return The specification index.
+     */
+    private SpecIndex buildIndex()
+    {
+        SpecIndex ret = new SpecIndex();
+        Element datcat = getNamedElement(getDocumentElement(), "datCatSet", 0);
+        Node node = datcat == null ? null : datcat.getFirstChild();
+        while (node != null)
+        {
+            String specName = node.getNodeName();
+            if (node.getNodeType() == Node.ELEMENT_NODE && specName.endsWith("Spec"))
             {
-                String name = "check_" + getDataType(key);
-                Class[] parm = {Class.forName("org.w3c.dom.Element")};
-                Method meth = getClass().getDeclaredMethod(name, parm);
-                Object[] args = {elem};
-                meth.invoke(this, args);
+                Element spec = (Element) node;
+                String tag = specName.substring(0, specName.length() - "Spec".length());
+                String type = spec.getAttribute("name");
+                Map<String, CompiledSpec> types = ret.specs.get(tag);
+                if (types == null)
+                {
+                    types = new java.util.HashMap<String, CompiledSpec>();
+                    ret.specs.put(tag, types);
+                    ret.types.put(tag, new java.util.TreeSet<String>());
+                }
+                if (!types.containsKey(type))
+                {
+                    types.put(type, compileSpec(tag, type, spec));
+                    ret.types.get(tag).add(type);
+                    ret.keys.add(new Key(tag, type));
+                }
             }
+            node = node.getNextSibling();
         }
-        catch (NoSuchMethodException err)
+        
+        for (Map.Entry<String, SortedSet<String>> entry : ret.types.entrySet())
+            entry.setValue(Collections.unmodifiableSortedSet(entry.getValue()));
+        return ret;
+    }
+    
+    /**
+     * Compile a single specification.
+     *
+     * @param tag The tag the specification is for.
+     * @param type The type the specification is for.
+     * @param spec The specification element.
+     * @return The compiled specification.
+     */
+    private CompiledSpec compileSpec(String tag, String type, Element spec)
+    {
+        Element contents = null;
+        Element lvlselem = null;
+        Node node = spec.getFirstChild();
+        while (node != null)
         {
-            throw new IllegalStateException(
-                    "Unknown data type: " + key.getType()
-                    + " in tag <" + key.getTag() + ">");
+            if (contents == null && node.getNodeName().equals("contents"))
+                contents = (Element) node;
+            else if (lvlselem == null && node.getNodeName().equals("levels"))
+                lvlselem = (Element) node;
+            node = node.getNextSibling();
         }
-        catch (InvocationTargetException err)
+        
+        DataType datatype = DataType.UNKNOWN;
+        Set<String> picklist = null;
+        if (contents != null)
         {
-            Throwable t = err.getTargetException();
-            if (t instanceof XCSValidationException)
-                throw (XCSValidationException) t;
-            else if (t instanceof RuntimeException)
-                throw (RuntimeException) t;
-            else if (t instanceof Error)
-                throw (Error) t;
-            else if (t instanceof Exception)
-                throw new UnsupportedOperationException(
-                    "Unknown Exception: " + t.getClass().getName() + ").");
-        }
-        catch (Throwable err)
+            String name = contents.getAttribute("datatype");
+            datatype = "".equals(name) ? DataType.BASIC_TEXT : DataType.forName(name);
+            if (datatype == DataType.PICKLIST)
+            {
+                Set<String> set = new java.util.HashSet<String>();
+                StringTokenizer tok = new StringTokenizer(contents.getTextContent());
+                while (tok.hasMoreTokens())
+                    set.add(tok.nextToken());
+                picklist = Collections.unmodifiableSet(set);
+            }
+        }
+        
+        int lvls = 0;
+        if (lvlselem != null)
         {
-            throw new UnsupportedOperationException(
-                "Caught " + err.getClass().getName());
+            StringTokenizer tok = new StringTokenizer(lvlselem.getTextContent());
+            while (tok.hasMoreTokens())
+            {
+                String lvl = tok.nextToken();
+                if (lvl.equals("termEntry"))
+                    lvls |= LEVEL_TERM_ENTRY;
+                else if (lvl.equals("langSet"))
+                    lvls |= LEVEL_LANG_SET;
+                else if (lvl.equals("term"))
+                    lvls |= LEVEL_TERM;
+            }
         }
+        if (lvls == 0)
+            lvls = LEVEL_TERM_ENTRY | LEVEL_LANG_SET | LEVEL_TERM;
+        return new CompiledSpec(spec, contents, tag, type, datatype, picklist, lvls);
     }
     
     /**
@@ -646,21 +1059,30 @@ public class XCSDocument extends DocumentImpl implements Document
      * type contents tag.
      *
      * @param key The key to the <em>contents</em> that contains the picklist.
-     * @param The set of strings in the picklist.
+     * @return The unmodifiable set of strings in the picklist.
      * @throws IllegalStateException If the key does not refer to a
      *  spec that is of datatype "picklist".
      */
     public Set<String> getPicklist(Key key)
     {
-        Set<String> ret = new java.util.HashSet<String>();
-        Element contents = getContents(key);
-        if (!contents.getAttribute("datatype").equals("picklist"))
+        CompiledSpec spec = getCompiledSpec(key.getTag(), key.getType());
+        if (spec == null || spec.picklist == null)
             throw new IllegalStateException("datatype != picklist");
-        String val = contents.getTextContent();
-        StringTokenizer tok = new StringTokenizer(val);
-        while (tok.hasMoreElements())
-            ret.add(tok.nextToken());
-        return ret;
+        return spec.picklist;
+    }
+    
+    /**
+     * Get the levels the key's element may occur at. If the specification
+     * does not restrict the levels then all levels are returned.
+     *
+     * @param key The key to the specification that contains the levels.
+     * @return Unmodifiable set of the level names: termEntry, langSet, and
+     *  term, or null if there is no specification for the key.
+     */
+    public Set<String> getLevels(Key key)
+    {
+        CompiledSpec spec = getCompiledSpec(key.getTag(), key.getType());
+        return spec == null ? null : spec.levelNames;
     }
     
     /**
@@ -688,13 +1110,13 @@ public class XCSDocument extends DocumentImpl implements Document
      *
      * @param key Key to the specification that contains <em>contents</em>
      *  elements.
-     * @return The element that contains the <em>contents</em>
+     * @return The element that contains the <em>contents</em> or null if
+     *  there is no specification for the key.
      */
     public Element getContents(Key key)
     {
-        Element spec = getSpec(key);
-        NodeList nl = spec.getElementsByTagName("contents");
-        return (Element) nl.item(0);
+        CompiledSpec spec = getCompiledSpec(key.getTag(), key.getType());
+        return spec == null ? null : spec.contents;
     }
     
     /**
@@ -704,79 +1126,35 @@ public class XCSDocument extends DocumentImpl implements Document
      * @throws XCSValidationException Exception that describes validation
      *  problems.
      */
-    private void isElementAtProperLevel(Element elem, Key key)
+    private void isElementAtProperLevel(Element elem, CompiledSpec spec)
         throws XCSValidationException
     {
-        if (LEVELS_CHECK.contains(key.getTag()))
+        if (LEVELS_CHECK.contains(spec.tag))
         {
-            Set<String> lvls = getLevels(key);
-            if (lvls == null)
-                throw new IllegalStateException("Invalid XCS key for levels");
             Element pp = elem;
         SEARCH_TO_BODY:
             while (!pp.getTagName().equals("body"))
             {
                 String tag = pp.getTagName();
+                int level = 0;
                 if (tag.equals("ntig") || tag.equals("tig"))
-                {
-                    if (lvls.contains("term"))
-                        break SEARCH_TO_BODY;
-                    else
-                        throw new InvalidLevelsException(elem);
-                }
+                    level = LEVEL_TERM;
                 else if (tag.equals("langSet"))
-                {
-                    if (lvls.contains("langSet"))
-                        break SEARCH_TO_BODY;
-                    else
-                        throw new InvalidLevelsException(elem);
-                }
+                    level = LEVEL_LANG_SET;
                 else if (tag.equals("termEntry"))
+                    level = LEVEL_TERM_ENTRY;
+                
+                if (level != 0)
                 {
-                    if (lvls.contains("termEntry"))
-                        break SEARCH_TO_BODY;
-                    else
-                    {
+                    if ((spec.levels & level) == 0)
                         throw new InvalidLevelsException(elem);
-                    }
+                    break SEARCH_TO_BODY;
                 }
                 pp = (Element) pp.getParentNode();
             }
         }
     }
     
-    /**
-     * Get the set of allowable parent tags.
-     *
-     * @param key The primary key to look up levels set on.
-     * @return Set of all allowable parent tag names. If no levels tag
-     *  specified this returns null.
-     */
-    private Set<String> getLevels(Key key)
-    {
-        String tag = key.getTag();
-        if (!levels.containsKey(key))
-        {
-            Element spec = getSpec(key);
-            StringBuffer buf = new StringBuffer();
-            NodeList nodes = spec.getElementsByTagName("levels");
-            Element lvlselem = (Element) nodes.item(0);
-            String levelstr = lvlselem.getTextContent();
-            String[] lvls = levelstr.split("\\s+");
-            Set<String> set = new java.util.HashSet<String>();
-            for (int i = 0; i < lvls.length; i++)
-                set.add(lvls[i]);
-            if (set.isEmpty())
-            {
-                set.add("termEntry");
-                set.add("langSet");
-                set.add("term");
-            }
-            levels.put(key, Collections.unmodifiableSet(set));
-        }
-        return levels.get(key);
-    }
-    
     /**
      * Build a language code to language name map.
      *
@@ -856,10 +1234,8 @@ public class XCSDocument extends DocumentImpl implements Document
      * @throws XCSValidationException Exception that describes validation
      *  problems.
      */
-    private void check_picklist(Element elem) throws XCSValidationException
+    private void check_picklist(Element elem, Set<String> picklist) throws XCSValidationException
     {
-        Key key = new Key(elem.getTagName(), elem.getAttribute("type"));
-        Set<String> picklist = getPicklist(key);
         String pick = elem.getTextContent();
         if (!picklist.contains(pick))
             throw new InvalidPickListException(elem, pick);
@@ -870,46 +1246,25 @@ public class XCSDocument extends DocumentImpl implements Document
      *  problems.
      */
     private void check_plainText(Element elem) throws XCSValidationException
-    {
-        NodeList nodes = elem.getChildNodes();
-        for (int i = 0; i < nodes.getLength(); i++)
-        {
-            Node node = nodes.item(i);
-            if (node.getNodeType() != Node.TEXT_NODE)
-                throw new InvalidSpecificationException(elem);
-        }
-    }
-    
-    /**
-     * @throws XCSValidationException Exception that describes validation
-     *  problems.
-     */
-    private void check_basicText(Element elem) throws XCSValidationException
     {
         Node node = elem.getFirstChild();
         while (node != null)
         {
-            if (node.getNodeType() == Node.TEXT_NODE)
-            {
-                //no op
-            }
-            else if (node.getNodeType() == Node.ELEMENT_NODE)
-            {
-                String name = node.getNodeName();
-                if (!name.equals("hi"))
-                    throw new InvalidSpecificationException(elem);
-            }
+            if (node.getNodeType() != Node.TEXT_NODE)
+                throw new InvalidSpecificationException(elem);
             node = node.getNextSibling();
         }
     }
     
     /**
+     * Check basicText and noteText where text is mixed with a set of
+     * allowed elements.
+     *
      * @throws XCSValidationException Exception that describes validation
      *  problems.
      */
-    private void check_noteText(Element elem) throws XCSValidationException
+    private void check_text(Element elem, Set<String> children) throws XCSValidationException
     {
-        boolean ret = true;
         Node node = elem.getFirstChild();
         while (node != null)
         {
@@ -919,15 +1274,7 @@ public class XCSDocument extends DocumentImpl implements Document
             }
             else if (node.getNodeType() == Node.ELEMENT_NODE)
             {
-                String name = node.getNodeName();
-                boolean valid = name.equals("hi")
-                        || name.equals("foreign")
-                        || name.equals("bpt")
-                        || name.equals("ept")
-                        || name.equals("it")
-                        || name.equals("ph")
-                        || name.equals("ut");
-                if (!valid)
+                if (!children.contains(node.getNodeName()))
                     throw new InvalidSpecificationException(elem);
             }
             node = node.getNextSibling();
@@ -17,13 +17,16 @@
  */
 package org.ttt.salt;
 
-import java.text.MessageFormat;
-import java.util.ResourceBundle;
 import org.w3c.dom.Element;
-import org.ttt.salt.dom.tbx.TBXElement;
 
 /**
  * Gives details about XCS validation problems.
+ * <p>
+ * A badly broken file may have an invalid element in nearly every termEntry
+ * so these exceptions are cheap: they do not capture a stack trace and they
+ * do not hold on to the element. The details are kept in a
+ * {@link Diagnostic} and the message is only formatted when it is asked
+ * for.</p>
  *
  * @author Lance Finn Helsten
  * @version $Id$
@@ -40,85 +43,52 @@ implements Comparable<XCSValidationException>
     public static final String RCSID = "$Id$";
     
     /** */
-    private static int exceptionCount;
-    
-    /** Orders the errors as they occur. */
-    private final int order;
-    
-    /** */
-    private final Element elem;
+    private final Diagnostic diagnostic;
     
     /**
      * @param e The XML element this exception occured on.
      */
     public XCSValidationException(Element e)
     {
-        super();
-        order = exceptionCount++;
-        elem = e;
+        this(e, "XCSValidationException");
+    }
+    
+    /**
+     * @param e The XML element this exception occured on.
+     * @param code Resource key of the message in the diagnostic bundle.
+     * @param args Arguments for the message.
+     */
+    protected XCSValidationException(Element e, String code, Object... args)
+    {
+        super(null, null, false, false);
+        diagnostic = new Diagnostic(TBXException.Priority.XCS, code, e, args);
     }
     
     /**
-     * Get the element that caused this exception.
-     * @return The XML element this exception occured on.
+     * Get the record that describes this validation problem.
+     *
+     * @return The diagnostic for this exception.
      */
-    protected Element element()
+    public Diagnostic getDiagnostic()
     {
-        return elem;
+        return diagnostic;
     }
 
     /** {@inheritDoc} */
     public String getMessage()
     {
-        return "XCSValidationException " + buildContext();
+        return diagnostic.getMessage();
     }
 
     /** {@inheritDoc} */
     public String getLocalizedMessage()
     {
-        //TODO--localize the message
-        return getMessage();
+        return diagnostic.getLocalizedMessage();
     }
     
     /** {@inheritDoc} */
     public int compareTo(XCSValidationException o)
     {
-        return order - o.order;
-    }
-    
-    /**
-     * Build an error context string for use in producing a message.
-     * This will give information so users can find the location of
-     * the error in large files.
-     *
-     * @return A human readable context for this error.
-     */
-    protected String buildContext()
-    {
-        //CHECKSTYLE: MagicNumber OFF
-        String ret;
-        ResourceBundle bundle = ResourceBundle.getBundle("org.ttt.salt.XCSValidationException");
-        Element term = elem;
-        while (!term.getTagName().equals("termEntry"))
-            term = (Element) term.getParentNode();
-        Object[] args = new Object[4];
-        args[2] = elem;
-        args[3] = (elem instanceof TBXElement) ? ((TBXElement) elem).getLocationString() : "Line: ??";
-                
-        String id = term.getAttribute("id");
-        if (id.equals("") || id.startsWith(TBXFile.AUTO_TERMENTRY_ID_PREFIX))
-        {
-            args[0] = "TODO"; //NOTDONE
-            args[1] = "TODO"; //NOTDONE
-            args[2] = elem;
-            ret = MessageFormat.format(bundle.getString("NoTermEntry"), args);
-        }
-        else
-        {
-            args[0] = id;
-            ret = MessageFormat.format(bundle.getString("TermEntry"), args);
-        }
-        return ret;
-        //CHECKSTYLE: MagicNumber ON
+        return diagnostic.compareTo(o.diagnostic);
     }
 }
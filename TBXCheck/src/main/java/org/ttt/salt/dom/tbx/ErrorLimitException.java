@@ -0,0 +1,58 @@
+/*
+ * $Id$
+ *-----------------------------------------------------------------------------
+ * Copyright 2000 Lance Finn Helsten (helsten@acm.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ttt.salt.dom.tbx;
+
+import org.xml.sax.SAXException;
+
+/**
+ * This is thrown from the SAX callbacks of {@link TBXParser} to stop the
+ * Xerces parse once the configured number of errors has been found. The
+ * parser catches it and marks the document as truncated.
+ *
+ * @author Lance Finn Helsten
+ * @version $Id$
+ * @license Licensed under the Apache License, Version 2.0.
+ */
+public class ErrorLimitException extends SAXException
+{
+    /*
+     */
+
+    /** SCM information. */
+    public static final String RCSID = "$Id$";
+    
+    /** The error limit that was reached. */
+    private final int limit;
+    
+    /**
+     * @param max The error limit that was reached.
+     */
+    public ErrorLimitException(int max)
+    {
+        super(String.format("Parsing stopped after %d errors.", max));
+        limit = max;
+    }
+    
+    /**
+     * @return The error limit that was reached.
+     */
+    public int getLimit()
+    {
+        return limit;
+    }
+}
@@ -17,8 +17,11 @@
  */
 package org.ttt.salt.dom.tbx;
 
+import java.io.IOException;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
+import java.util.List;
+import java.util.Map;
 import java.util.SortedSet;
 import java.util.Date;
 import java.util.logging.Logger;
@@ -28,7 +31,10 @@ import org.xml.sax.SAXParseException;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.apache.xerces.dom.DocumentImpl;
+import org.ttt.salt.DiagnosticStore;
+import org.ttt.salt.ErrorSummary;
 import org.ttt.salt.TBXException;
+import org.ttt.salt.TBXFile;
 
 
 /**
@@ -52,6 +58,74 @@ public class TBXDocument extends DocumentImpl implements Document
     /** The class prefix for element editors. */
     public static final String PREFIX = "org.ttt.salt.dom.tbx.Element_";
     
+    /** Element factories by tag name. */
+    private static final java.util.concurrent.ConcurrentMap<String, TBXElementFactory> FACTORIES
+        = new java.util.concurrent.ConcurrentHashMap<String, TBXElementFactory>();
+    
+    /** Factory for tags that do not have an element class. */
+    private static final TBXElementFactory DEFAULT_FACTORY = new TBXElementFactory()
+        {
+            /** {@inheritDoc} */
+            public TBXElement createTBXElement(TBXDocument ownerDoc, String tagName, Locator loc)
+            {
+                return new TBXElement(ownerDoc, tagName, loc);
+            }
+        };
+    
+    static
+    {
+        registerElementFactory("martif", new TBXElementFactory()
+            {
+                /** {@inheritDoc} */
+                public TBXElement createTBXElement(TBXDocument ownerDoc, String tagName, Locator loc)
+                {
+                    return new Element_martif(ownerDoc, tagName, loc);
+                }
+            });
+    }
+    
+    /**
+     * Creates elements with the public constructor of an element class.
+     */
+    private static final class ConstructorFactory implements TBXElementFactory
+    {
+        /** The element class constructor. */
+        private final Constructor<TBXElement> cstrct;
+        
+        /**
+         * @param c The element class constructor.
+         */
+        private ConstructorFactory(Constructor<TBXElement> c)
+        {
+            cstrct = c;
+        }
+        
+        /** {@inheritDoc} */
+        public TBXElement createTBXElement(TBXDocument ownerDoc, String tagName, Locator loc)
+            throws SAXParseException
+        {
+            try
+            {
+                return cstrct.newInstance(ownerDoc, tagName, loc);
+            }
+            catch (InstantiationException err)
+            {
+                Logger.getLogger("org.ttt.salt.dom.tbx").log(Level.SEVERE, "TBX class not concrete: {0}", tagName);
+                throw new SAXParseException("TBX class not concrete", loc, err);
+            }
+            catch (IllegalAccessException err)
+            {
+                Logger.getLogger("org.ttt.salt.dom.tbx").log(Level.SEVERE, "TBX constructor not accessible on {0}", tagName);
+                throw new SAXParseException("TBX constructor not accessible", loc, err);
+            }
+            catch (InvocationTargetException err)
+            {
+                Logger.getLogger("org.ttt.salt.dom.tbx").log(Level.SEVERE, "TBX element {0} creation error", tagName);
+                throw new SAXParseException("TBX element creation error", loc, err);
+            }
+        }
+    }
+    
     /** Timestampt when document was created. */
     private final Date created = new Date();
     
@@ -64,6 +138,33 @@ public class TBXDocument extends DocumentImpl implements Document
     /** Error accumulation list. */
     private SortedSet<TBXException> exceptions = new java.util.TreeSet<TBXException>();
     
+    /** Groups the errors and limits the exceptions kept, if set. */
+    private ErrorSummary summary;
+    
+    /** Records every exception outside of the heap, if set. */
+    private DiagnosticStore store;
+    
+    /** Number of exceptions added, including those not kept. */
+    private int exceptionCount;
+    
+    /** Records of the termEntry elements released from a streaming document. */
+    private final List<TermEntryRecord> released = new java.util.ArrayList<TermEntryRecord>();
+    
+    /** Number of termEntry elements that have completed parsing. */
+    private int termEntryCount;
+    
+    /** Map of termEntry IDs to the termEntry element in document order. */
+    private final Map<String, Element> termEntries = new java.util.LinkedHashMap<String, Element>();
+    
+    /** Auto term entry id sequence number. */
+    private int termEntrySeq;
+    
+    /** The body element once it has been parsed. */
+    private Element body;
+    
+    /** The parse stopped early at the error limit. */
+    private boolean truncated;
+    
     /**
      * Create an empty TBX document.
      *
@@ -83,6 +184,147 @@ public class TBXDocument extends DocumentImpl implements Document
         return hardRef ? super.getDocumentElement() : tbxDocElem;
     }
     
+    /**
+     * Is this a streaming document where termEntry elements are released
+     * once they have been built and validated.
+     *
+     * @return true => termEntry elements are not kept in the document.
+     */
+    public boolean isStreaming()
+    {
+        return !hardRef;
+    }
+    
+    /**
+     * Release a completed termEntry from a streaming document. The element
+     * is removed from its parent so it may be garbage collected, and only a
+     * compact {@link TermEntryRecord} is kept. If this document holds hard
+     * references then the termEntry is left in place.
+     *
+     * @param entry The termEntry element that has completed validation.
+     */
+    public void releaseTermEntry(TBXElement entry)
+    {
+        if (!hardRef)
+        {
+            released.add(new TermEntryRecord(entry));
+            if (entry.getParentNode() != null)
+                entry.getParentNode().removeChild(entry);
+        }
+    }
+    
+    /**
+     * Count a termEntry element that has completed parsing and validation.
+     */
+    public void countTermEntry()
+    {
+        termEntryCount++;
+    }
+    
+    /**
+     * Get the number of termEntry elements that have completed parsing and
+     * validation. This includes any that have been released.
+     *
+     * @return The number of termEntry elements.
+     */
+    public int getTermEntryCount()
+    {
+        return termEntryCount;
+    }
+    
+    /**
+     * Add a completed termEntry to the termEntry id map. A termEntry without
+     * an id, or with an id that was given automatically, is given a new
+     * automatic id.
+     *
+     * @param entry The termEntry element that has completed validation.
+     */
+    public void indexTermEntry(Element entry)
+    {
+        if (entry.getAttribute("id").startsWith(TBXFile.AUTO_TERMENTRY_ID_PREFIX))
+            entry.removeAttribute("id");
+        String id = entry.getAttribute("id");
+        if (id.equals(""))
+        {
+            id = getTermEntryAutoId();
+            entry.setAttribute("id", id);
+        }
+        termEntries.put(id, entry);
+    }
+    
+    /**
+     * Provide a new unique ID for a term entry in this document.
+     *
+     * @return A string that will give a unique ID for a tag.
+     */
+    public String getTermEntryAutoId()
+    {
+        String ret = TBXFile.AUTO_TERMENTRY_ID_PREFIX + termEntrySeq;
+        termEntrySeq++;
+        return ret;
+    }
+    
+    /**
+     * Get the map of termEntry ids to the termEntry elements that have been
+     * indexed. This is always empty for a streaming document.
+     *
+     * @return Map of term entry id to termEntry elements in document order.
+     */
+    public Map<String, Element> getTermEntryMap()
+    {
+        return termEntries;
+    }
+    
+    /**
+     * @param elem The body element that has completed parsing.
+     */
+    public void setBodyElement(Element elem)
+    {
+        body = elem;
+    }
+    
+    /**
+     * Get the body element of the text element.
+     *
+     * @return The body element or null if it has not been parsed.
+     */
+    public Element getBodyElement()
+    {
+        return body;
+    }
+    
+    /**
+     * Get the records of all termEntry elements that have been released from
+     * this document. This is always empty for a hard reference document.
+     *
+     * @return Unmodifiable list of the released termEntry records in
+     *  document order.
+     */
+    public List<TermEntryRecord> getTermEntryRecords()
+    {
+        return java.util.Collections.unmodifiableList(released);
+    }
+    
+    /**
+     * @param v The parse stopped early at the error limit.
+     */
+    public void setTruncated(boolean v)
+    {
+        truncated = v;
+    }
+    
+    /**
+     * Find out if the parse stopped early because the error limit was
+     * reached. A truncated document holds only the elements and exceptions
+     * found before the parse stopped.
+     *
+     * @return true => the document is incomplete.
+     */
+    public boolean isTruncated()
+    {
+        return truncated;
+    }
+    
     /**
      * Get a list of all exceptions that occured while this document was being
      * parsed and validated.
@@ -95,13 +337,83 @@ public class TBXDocument extends DocumentImpl implements Document
     }
     
     /**
-     * Add an exception to the list of exceptions on this document.
+     * Add an exception to the list of exceptions on this document. If an
+     * error summary is set the exception is only kept if it is one of the
+     * first of its group. If a diagnostic store is set the exception is
+     * recorded there as a {@link org.ttt.salt.Diagnostic} and only kept if
+     * the error summary keeps it.
      *
      * @param err The TBXException to add to the set of exceptions.
+     * @throws IOException The diagnostic store could not record the
+     *  exception.
+     */
+    public void addParseException(TBXException err) throws IOException
+    {
+        exceptionCount++;
+        if (store != null)
+            store.add(err.getDiagnostic());
+        if ((summary != null) ? summary.add(err) : (store == null))
+            exceptions.add(err);
+    }
+    
+    /**
+     * Get the number of exceptions that occured while this document was
+     * being parsed and validated.
+     *
+     * @return The count of all exceptions, including those not kept by the
+     *  error summary.
      */
-    public void addParseException(TBXException err)
+    public int getParseExceptionCount()
     {
-        exceptions.add(err);
+        return exceptionCount;
+    }
+    
+    /**
+     * Set the summary that groups the exceptions of this document. This must
+     * be set before any exceptions are added.
+     *
+     * @param s The error summary.
+     */
+    public void setErrorSummary(ErrorSummary s)
+    {
+        if (exceptionCount != 0)
+            throw new IllegalStateException("Exceptions have already been added.");
+        summary = s;
+    }
+    
+    /**
+     * Set the store that records the exceptions of this document outside of
+     * the heap. This must be set before any exceptions are added.
+     *
+     * @param s The diagnostic store.
+     */
+    public void setDiagnosticStore(DiagnosticStore s)
+    {
+        if (exceptionCount != 0)
+            throw new IllegalStateException("Exceptions have already been added.");
+        store = s;
+    }
+    
+    /**
+     * Get the store that records the exceptions of this document outside of
+     * the heap.
+     *
+     * @return The diagnostic store, or null if exceptions are kept on the
+     *  heap.
+     */
+    public DiagnosticStore getDiagnosticStore()
+    {
+        return store;
+    }
+    
+    /**
+     * Get the summary that groups the exceptions of this document.
+     *
+     * @return The error summary, or null if every exception is kept.
+     */
+    public ErrorSummary getErrorSummary()
+    {
+        return summary;
     }
     
     /**
@@ -118,55 +430,75 @@ public class TBXDocument extends DocumentImpl implements Document
      * @return The newly created TBX element.
      * @see #createElement
      */
-    @SuppressWarnings("unchecked")
     public TBXElement createTBXElement(String tagName, Locator loc) throws SAXParseException
     {
         if (errorChecking && !isXMLName(tagName, true))
             super.createElement(tagName);   //let the superclass throw the error
-        TBXElement ret = null;
-        try
+        TBXElement ret = getElementFactory(tagName, loc).createTBXElement(this, tagName, loc);
+        if (tagName.equals("martif"))
+        {
+            docElement = ret;
+            if (!hardRef)
+                tbxDocElem = new TBXElementDocument(this, tagName, loc, docElement);
+        }
+        return ret;
+    }
+    
+    /**
+     * Register the factory that creates the elements for a tag. This
+     * replaces any factory already used for the tag, including the
+     * <code>Element_</code><em>tag</em> class found by default.
+     *
+     * @param tagName The element tag id.
+     * @param factory The factory to use for the tag.
+     */
+    public static void registerElementFactory(String tagName, TBXElementFactory factory)
+    {
+        FACTORIES.put(tagName, factory);
+    }
+    
+    /**
+     * Get the factory for a tag. The first time a tag without a registered
+     * factory is seen its <code>Element_</code><em>tag</em> class is looked
+     * up, and the result is kept for every later element with that tag.
+     * Tags that have no class are only kept when they are listed in
+     * {@link TBXParser#KNOWN_MISSING}, so arbitrary input cannot grow the cache.
+     *
+     * @param tagName The element tag id.
+     * @param loc The {@link org.xml.sax.Locator} for any exception.
+     * @return The factory for the tag.
+     * @throws SAXParseException The element class for the tag is invalid.
+     */
+    @SuppressWarnings("unchecked")
+    private static TBXElementFactory getElementFactory(String tagName, Locator loc) throws SAXParseException
+    {
+        TBXElementFactory ret = FACTORIES.get(tagName);
+        if (ret == null)
         {
             try
             {
                 Class<TBXElement> clazz = (Class<TBXElement>) Class.forName(PREFIX + tagName,
-                                            true, getClass().getClassLoader());
-                Constructor<TBXElement> cstrct = clazz.getConstructor(TBXDocument.class,
-                    String.class, Locator.class);
-                ret = cstrct.newInstance(this, tagName, loc);
+                                            true, TBXDocument.class.getClassLoader());
+                ret = new ConstructorFactory(clazz.getConstructor(TBXDocument.class,
+                    String.class, Locator.class));
             }
             catch (ClassNotFoundException err)
             {
                 if (!TBXParser.KNOWN_MISSING.contains(tagName))
+                {
                     Logger.getLogger("org.ttt.salt.dom.tbx").log(Level.INFO, "Unknown TBX Element: {0}", tagName);
-                ret = new TBXElement(this, tagName, loc);
+                    return DEFAULT_FACTORY;
+                }
+                ret = DEFAULT_FACTORY;
             }
-
-            if (tagName.equals("martif"))
+            catch (NoSuchMethodException err)
             {
-                docElement = ret;
-                if (!hardRef)
-                    tbxDocElem = new TBXElementDocument(this, tagName, loc, docElement);
+                Logger.getLogger("org.ttt.salt.dom.tbx").log(Level.SEVERE, "Invalid TBX Class: {0}", tagName);
+                throw new SAXParseException("Invalid TBX Class", loc, err);
             }
-        }
-        catch (NoSuchMethodException err)
-        {
-            Logger.getLogger("org.ttt.salt.dom.tbx").log(Level.SEVERE, "Invalid TBX Class: {0}", tagName);
-            throw new SAXParseException("Invalid TBX Class", loc, err);
-        }
-        catch (InstantiationException err)
-        {
-            Logger.getLogger("org.ttt.salt.dom.tbx").log(Level.SEVERE, "TBX class not concrete: {0}", tagName);
-            throw new SAXParseException("TBX class not concrete", loc, err);
-        }
-        catch (IllegalAccessException err)
-        {
-            Logger.getLogger("org.ttt.salt.dom.tbx").log(Level.SEVERE, "TBX constructor not accessible on {0}", tagName);
-            throw new SAXParseException("TBX constructor not accessible", loc, err);
-        }
-        catch (InvocationTargetException err)
-        {
-            Logger.getLogger("org.ttt.salt.dom.tbx").log(Level.SEVERE, "TBX element {0} creation error", tagName);
-            throw new SAXParseException("TBX element creation error", loc, err);
+            TBXElementFactory prev = FACTORIES.putIfAbsent(tagName, ret);
+            if (prev != null)
+                ret = prev;
         }
         return ret;
     }
@@ -84,6 +84,46 @@ public class TBXElement extends ElementImpl implements Element
         columnEnd = loc.getColumnNumber();
     }
     
+    /**
+     * Get the line in the XML stream this element starts.
+     *
+     * @return The start line number.
+     */
+    public int getStartLine()
+    {
+        return lineStart;
+    }
+    
+    /**
+     * Get the column in the XML stream this element starts.
+     *
+     * @return The start column number.
+     */
+    public int getStartColumn()
+    {
+        return columnStart;
+    }
+    
+    /**
+     * Get the line in the XML stream this element ends.
+     *
+     * @return The end line number.
+     */
+    public int getEndLine()
+    {
+        return lineEnd;
+    }
+    
+    /**
+     * Get the column in the XML stream this element ends.
+     *
+     * @return The end column number.
+     */
+    public int getEndColumn()
+    {
+        return columnEnd;
+    }
+    
     /**
      * Get a string that defines the location in the document this element
      * is located at.
@@ -20,6 +20,7 @@ package org.ttt.salt.dom.tbx;
 import java.lang.ref.Reference;
 import java.util.List;
 import org.xml.sax.Locator;
+import org.w3c.dom.NamedNodeMap;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 import org.w3c.dom.Element;
@@ -33,6 +34,10 @@ import org.w3c.dom.Element;
  * <p>
  * This should not be used if normal hard references are used to store child
  * documents, the default implementation will work correctly for that.</p>
+ * <p>
+ * The element is read only: all navigation and attribute queries are passed
+ * to the backing document element, which in a streaming document holds the
+ * header and whatever termEntry elements have not yet been released.</p>
  *
  * @author Lance Finn Helsten
  * @version $Id$
@@ -105,43 +110,67 @@ public class TBXElementDocument extends TBXElement
     /** {@inheritDoc} */
     public NodeList getChildNodes()
     {
-        throw new UnsupportedOperationException();
+        return implDocElement.getChildNodes();
     }
     
     /** {@inheritDoc} */
     public Node getFirstChild()
     {
-        throw new UnsupportedOperationException();
+        return implDocElement.getFirstChild();
     }
 
     /** {@inheritDoc} */
     public Node getLastChild()
     {
-        throw new UnsupportedOperationException();
+        return implDocElement.getLastChild();
     }
     
     /** {@inheritDoc} */
     public Node getNextSibling()
     {
-        throw new UnsupportedOperationException();
+        return implDocElement.getNextSibling();
     }
 
     /** {@inheritDoc} */
     public Node getPreviousSibling()
     {
-        throw new UnsupportedOperationException();
+        return implDocElement.getPreviousSibling();
     }
     
     /** {@inheritDoc} */
     public NodeList getElementsByTagName(String name)
     {
-        throw new UnsupportedOperationException();
+        return implDocElement.getElementsByTagName(name);
     }
     
     /** {@inheritDoc} */
     public NodeList getElementsByTagNameNS(String namespaceURI, String localName)
     {
-        throw new UnsupportedOperationException();
+        return implDocElement.getElementsByTagNameNS(namespaceURI, localName);
+    }
+    
+    /** {@inheritDoc} */
+    public boolean hasChildNodes()
+    {
+        return implDocElement.hasChildNodes();
+    }
+    
+    /** {@inheritDoc} */
+    public String getAttribute(String name)
+    {
+        return implDocElement.getAttribute(name);
+    }
+    
+    /** {@inheritDoc} */
+    public boolean hasAttribute(String name)
+    {
+        return implDocElement.hasAttribute(name);
+    }
+    
+    /** {@inheritDoc} */
+    public NamedNodeMap getAttributes()
+    {
+        return implDocElement.getAttributes();
     }
 }
 
@@ -27,6 +27,14 @@ import java.util.SortedSet;
 import java.util.Map;
 import java.util.Stack;
 import java.util.Observable;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 import java.util.logging.Level;
 import javax.xml.parsers.ParserConfigurationException;
@@ -45,11 +53,15 @@ import org.xml.sax.SAXNotSupportedException;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
-import org.w3c.dom.Text;
 import org.w3c.dom.DOMException;
 import org.ttt.salt.Configuration;
+import org.ttt.salt.DiagnosticStore;
+import org.ttt.salt.ErrorSummary;
+import org.ttt.salt.TBXGrammarPool;
+import org.ttt.salt.XCSCache;
 import org.ttt.salt.XCSDocument;
 import org.ttt.salt.TBXException;
+import org.ttt.salt.TermEntryIndex;
 import org.ttt.salt.XCSValidationException;
 
 
@@ -169,9 +181,99 @@ public class TBXParser
         }
     }
 
+    /**
+     * A termEntry that has been handed to the validator threads. These are
+     * held in document order so the results are reported in the same order
+     * as the inline validation would report them.
+     */
+    private static final class PendingEntry implements Callable<XCSValidationException>
+    {
+        /** The XCS document to validate against. */
+        private final XCSDocument xcs;
+        
+        /** The completed termEntry element. */
+        private final TBXElement entry;
+        
+        /**
+         * The result of the validation once it has been submitted, or null
+         * if the termEntry is unchanged since it was last found valid.
+         */
+        private Future<XCSValidationException> result;
+        
+        /** The content hash of the entry if there is a termEntry index. */
+        private long hash;
+        
+        /**
+         * @param x The XCS document to validate against.
+         * @param e The completed termEntry element.
+         */
+        private PendingEntry(XCSDocument x, TBXElement e)
+        {
+            xcs = x;
+            entry = e;
+        }
+        
+        /**
+         * Validate the termEntry on a validator thread.
+         *
+         * @return The validation exception or null if the entry is valid.
+         */
+        public XCSValidationException call()
+        {
+            XCSValidationException ret = null;
+            try
+            {
+                xcs.validateTermEntry(entry);
+            }
+            catch (XCSValidationException err)
+            {
+                ret = err;
+            }
+            return ret;
+        }
+    }
+
     /** SCM information. */
     public static final String RCSID = "$Id$";
 
+    /**
+     * Number of termEntry elements that may be waiting on each validator
+     * thread before the parser waits for the oldest one to complete.
+     */
+    private static final int PENDING_PER_THREAD = 4;
+    
+    /**
+     * Elements that only hold other elements, so whitespace text in them is
+     * indentation. Any tag ending in Grp is also structural.
+     */
+    private static final Set<String> STRUCTURAL = new java.util.HashSet<String>(
+            java.util.Arrays.asList(
+                "martif", "martifHeader", "fileDesc", "titleStmt", "publicationStmt",
+                "sourceDesc", "encodingDesc", "revisionDesc", "change", "text",
+                "front", "body", "back", "termEntry", "langSet", "tig", "ntig",
+                "termCompList", "refObjectList", "refObject", "itemSet"));
+    
+    /** Initial size of the character data buffer. */
+    private static final int INITIAL_TEXT_SIZE = 256;
+    
+    /** Largest character data buffer kept by {@link #reset}. */
+    private static final int MAX_RETAINED_TEXT_SIZE = 65536;
+    
+    /** Creates the daemon threads used to validate termEntry elements. */
+    private static final ThreadFactory VALIDATOR_THREADS = new ThreadFactory()
+        {
+            /** Number of threads created so far. */
+            private final AtomicInteger count = new AtomicInteger();
+            
+            /** {@inheritDoc} */
+            public Thread newThread(Runnable r)
+            {
+                Thread ret = new Thread(r, "TBXParser-validator-" + count.incrementAndGet());
+                ret.setDaemon(true);
+                return ret;
+            }
+        };
+
     /**
      * Known missing element sub-classes of XCSElement. These elements are
      * in the XCS, but there is not special handling necessary other than
@@ -205,6 +307,9 @@ public class TBXParser
     /** The entity resolver that I use. */
     private EntityResolver resolver;
     
+    /** Gate to the shared DTD grammar pool. */
+    private final TBXGrammarPool.Gate grammars = TBXGrammarPool.getInstance().newGate();
+    
     /** Namespace mappings. */
     private Map<String, URI> namespace = new java.util.HashMap<String, URI>();
     
@@ -226,12 +331,39 @@ public class TBXParser
     /** Indicates that whitespace is not significant (xml:space="default"). */
     private boolean collapseWhitespace;
     
+    /**
+     * Trace the SAX callbacks. This is checked once at the start of each
+     * parse so the callbacks do no formatting when tracing is off.
+     */
+    private boolean tracing;
+    
+    /** Drop whitespace only text in structural elements. */
+    private boolean compactWhitespace;
+    
+    /** Stop the parse once this many errors are found, zero for no limit. */
+    private int errorLimit;
+    
+    /** Character data received since the last element boundary. */
+    private char[] text = new char[INITIAL_TEXT_SIZE];
+    
+    /** Number of characters in the text buffer. */
+    private int textLength;
+    
     /** Holds the current set of validation exceptions. This will be cleared
      * each time a new termEntry has completed parsing in preparation for XCS
      * validation.
      */
     private SortedSet<XCSValidationException> exceptions = new java.util.TreeSet<XCSValidationException>();
     
+    /** Validator threads used when the configuration asks for them. */
+    private ExecutorService validators;
+    
+    /** The termEntry elements waiting on the validators in document order. */
+    private final Queue<PendingEntry> pending = new java.util.LinkedList<PendingEntry>();
+    
+    /** The valid termEntry elements of the last check, or null for none. */
+    private TermEntryIndex termEntryIndex;
+    
     /**
      * Create a new parser for TBX document parsing.
      *
@@ -251,6 +383,7 @@ public class TBXParser
             reader.setFeature("http://xml.org/sax/features/namespaces", true);
             reader.setFeature("http://xml.org/sax/features/namespace-prefixes", true);
             reader.setFeature("http://xml.org/sax/features/validation", true);
+            reader.setProperty(TBXGrammarPool.GRAMMAR_POOL_PROPERTY, grammars);
             reader.setContentHandler(this);
             reader.setDTDHandler(this);
             reader.setEntityResolver(resolver);
@@ -273,7 +406,25 @@ public class TBXParser
      * <p>
      * If a TBXDocument has not been set when this is called then a default
      * TBXDocument will be created where all elements will be held as hard
-     * references, and the full document will be built.</p>
+     * references, and the full document will be built. If the configuration
+     * asks for streaming then the default TBXDocument will instead release
+     * each termEntry once it has been validated.</p>
+     * <p>
+     * If the configuration asks for more than one validation thread then
+     * each completed termEntry is handed to a bounded set of validator
+     * threads while the parse continues. The validation results, events,
+     * and exceptions are still reported in document order.</p>
+     * <p>
+     * If the configuration asks to fail fast or sets a maximum number of
+     * errors then the parse stops as soon as that many errors are found,
+     * and the returned document is marked as truncated.</p>
+     * <p>
+     * If the configuration asks for summary examples then the document is
+     * given an {@link ErrorSummary} that counts every exception but keeps
+     * only the first exceptions of each group. If it asks for a diagnostic
+     * window then the document records its exceptions in a
+     * {@link DiagnosticStore} that spills them to disk. If the parse fails
+     * that store is closed, so its temporary file is removed.</p>
      *
      * @param src The input source to read the TBX XML data.
      * @return The TBX document created from this parse pass.
@@ -284,10 +435,57 @@ public class TBXParser
     {
         if (document == null)
         {
-            TBXDocument ret = new TBXDocument(true);
+            TBXDocument ret = new TBXDocument(!config.getStreaming());
             setTBXDocument(ret);
         }
-        reader.parse(src);
+        if (config.getSummaryExamples() > 0 && document.getErrorSummary() == null)
+            document.setErrorSummary(new ErrorSummary(config.getSummaryExamples()));
+        DiagnosticStore created = null;
+        if (config.getDiagnosticWindow() > 0 && document.getDiagnosticStore() == null)
+        {
+            created = new DiagnosticStore(config.getDiagnosticWindow());
+            document.setDiagnosticStore(created);
+        }
+        tracing = LOGGER.isLoggable(Level.FINER);
+        textLength = 0;
+        compactWhitespace = config.getCompactWhitespace();
+        grammars.setEnabled(config.getGrammarPool());
+        errorLimit = config.getFailFast() ? 1 : config.getMaxErrors();
+        int threads = config.getValidationThreads();
+        if (config.getCheckEachTerm() && threads > 1)
+            validators = Executors.newFixedThreadPool(threads, VALIDATOR_THREADS);
+        boolean done = false;
+        try
+        {
+            reader.parse(grammars.watch(src));
+            done = true;
+        }
+        catch (ErrorLimitException err)
+        {
+            LOGGER.info(err.getMessage());
+            document.setTruncated(true);
+            done = true;
+        }
+        finally
+        {
+            if (validators != null)
+            {
+                validators.shutdownNow();
+                validators = null;
+            }
+            pending.clear();
+            if (!done && created != null)
+            {
+                try
+                {
+                    created.close();
+                }
+                catch (IOException err)
+                {
+                    LOGGER.log(Level.WARNING, "Could not remove diagnostic store", err);
+                }
+            }
+        }
         return getTBXDocument();
     }
     
@@ -308,6 +506,73 @@ public class TBXParser
         }
     }
     
+    /**
+     * Set the index of the termEntry elements that were valid the last time
+     * this document was checked. A termEntry whose content is unchanged is
+     * not validated against the XCS again, and the index is updated with
+     * the valid termEntry elements of this parse.
+     *
+     * @param index The termEntry index or null to validate every termEntry.
+     */
+    public void setTermEntryIndex(TermEntryIndex index)
+    {
+        termEntryIndex = index;
+    }
+    
+    /**
+     * Get the termEntry index used by this parser.
+     *
+     * @return The termEntry index or null if there is none.
+     */
+    public TermEntryIndex getTermEntryIndex()
+    {
+        return termEntryIndex;
+    }
+    
+    /**
+     * Return this parser to the state it had when it was constructed so it
+     * can parse another document with the same resolver and configuration.
+     * The Xerces pipeline and its internal buffers are kept.
+     */
+    public void reset()
+    {
+        reset(resolver, config);
+    }
+    
+    /**
+     * Return this parser to the state it had when it was constructed so it
+     * can parse another document. The Xerces pipeline and its internal
+     * buffers are kept, and all references to the last document, its XCS,
+     * and any observers are dropped.
+     *
+     * @param r The XML entity resolver the next parse should use.
+     * @param c The validation and compliance configuration for the next parse.
+     */
+    public void reset(EntityResolver r, Configuration c)
+    {
+        synchronized (this)
+        {
+            resolver = r;
+            config = c;
+            reader.setEntityResolver(resolver);
+            document = null;
+            xcsDocument = null;
+            termEntryIndex = null;
+            current = null;
+            locator = null;
+            collapseWhitespace = false;
+            stack.clear();
+            namespace.clear();
+            exceptions.clear();
+            pending.clear();
+            if (text.length > MAX_RETAINED_TEXT_SIZE)
+                text = new char[INITIAL_TEXT_SIZE];
+            textLength = 0;
+            grammars.reset();
+            deleteObservers();
+        }
+    }
+    
     /**
      * Get the TBXDocument that was generated from the parse of the TBX XML
      * source.
@@ -337,30 +602,35 @@ public class TBXParser
     /** {@inheritDoc} */
     public void setDocumentLocator(Locator loc)
     {
-        LOGGER.entering("TBXParser", "setDocumentLocator",
-                String.format("Line=%d Col=%d", loc.getLineNumber(), loc.getColumnNumber()));
+        if (tracing)
+            LOGGER.entering("TBXParser", "setDocumentLocator",
+                    String.format("Line=%d Col=%d", loc.getLineNumber(), loc.getColumnNumber()));
         locator = loc;
     }
     
     /** {@inheritDoc} */
     public void startDocument() throws SAXException
     {
-        LOGGER.entering("TBXParser", "startDocument");
+        if (tracing)
+            LOGGER.entering("TBXParser", "startDocument");
         assert stack.isEmpty() : "TBXParser stack is not empty.";
     }
     
     /** {@inheritDoc} */
     public void endDocument() throws SAXException
     {
-        LOGGER.entering("TBXParser", "endDocument");
+        if (tracing)
+            LOGGER.entering("TBXParser", "endDocument");
         assert stack.isEmpty() : "TBXParser stack is not empty.";
+        completePendingTermEntries();
     }
     
     /** {@inheritDoc} */
     public void startPrefixMapping(String prefix, String uri) throws SAXException
     {
-        LOGGER.entering("TBXParser", "startPrefixMapping",
-                String.format("prefix='%s', uri='%s'", prefix, uri));
+        if (tracing)
+            LOGGER.entering("TBXParser", "startPrefixMapping",
+                    String.format("prefix='%s', uri='%s'", prefix, uri));
         LOGGER.info(String.format("startPrefixMapping: prefix='%s' uri='%s'", prefix, uri));
         try
         {
@@ -375,23 +645,27 @@ public class TBXParser
     /** {@inheritDoc} */
     public void endPrefixMapping(String prefix) throws SAXException
     {
-        LOGGER.entering("TBXParser", "enPrefixMapping",
-                String.format("prefix='%s'", prefix));
+        if (tracing)
+            LOGGER.entering("TBXParser", "enPrefixMapping",
+                    String.format("prefix='%s'", prefix));
     }
     
     /** {@inheritDoc} */
     public void startElement(String uri, String localName, String qName,
             Attributes atts) throws SAXException
     {
-        LOGGER.entering("TBXParser", "startElement",
-                String.format("Element %d: uri='%s' local='%s' qName='%s'",
-                    locator.getLineNumber(), uri, localName, qName));
+        if (tracing)
+            LOGGER.entering("TBXParser", "startElement",
+                    String.format("Element %d: uri='%s' local='%s' qName='%s'",
+                        locator.getLineNumber(), uri, localName, qName));
+        flushText();
         stack.push(current);
         current = document.createTBXElement(localName, locator);
         for (int i = 0; i < atts.getLength(); i++)
         {
-            LOGGER.finer(String.format("Attribute: qname='%s' local='%s' type='%s' uri='%s' value='%s'",
-                    atts.getQName(i), atts.getLocalName(i), atts.getType(i), atts.getURI(i), atts.getValue(i)));
+            if (tracing)
+                LOGGER.finer(String.format("Attribute: qname='%s' local='%s' type='%s' uri='%s' value='%s'",
+                        atts.getQName(i), atts.getLocalName(i), atts.getType(i), atts.getURI(i), atts.getValue(i)));
             try
             {
                 current.setAttribute(atts.getQName(i), atts.getValue(i));
@@ -408,13 +682,20 @@ public class TBXParser
     /** {@inheritDoc} */
     public void endElement(String uri, String localName, String qName) throws SAXException
     {
-        LOGGER.entering("TBXParser", "endElement", String.format("Element %d: uri='%s' local='%s' qName='%s'",
-                    locator.getLineNumber(), uri, localName, qName));
+        if (tracing)
+            LOGGER.entering("TBXParser", "endElement", String.format("Element %d: uri='%s' local='%s' qName='%s'",
+                        locator.getLineNumber(), uri, localName, qName));
+        flushText();
         current.endElement(locator);
         TBXElement child = current;
         current = stack.pop();
         if (current != null)
             current.appendChild(child);
+        if (localName.equals("body"))
+        {
+            completePendingTermEntries();
+            document.setBodyElement(child);
+        }
         
         boolean valid = false;
         exceptions.clear();
@@ -451,14 +732,16 @@ public class TBXParser
                     LOGGER.warning("XCS not specified.");
                     IOException err = new FileNotFoundException("XCS not specified.");
                     TBXException tbxerr = new TBXException(TBXException.Priority.XCS, err);
-                    document.addParseException(tbxerr);
+                    addParseException(tbxerr);
                 }
                 else
                 {
                     try
                     {
                         LOGGER.info("Using XCS: " + xcsURI);
-                        xcsDocument = new XCSDocument(xcsURI, resolver, config);
+                        xcsDocument = config.getXCSCache()
+                            ? XCSCache.getInstance().getXCSDocument(xcsURI, resolver, config)
+                            : new XCSDocument(xcsURI, resolver, config);
                         break GOT_XCS;
                     }
                     catch (FileNotFoundException err)
@@ -467,7 +750,7 @@ public class TBXParser
                         LOGGER.info(msg);
                         LOGGER.log(Level.FINE, msg, err);
                         TBXException tbxerr = new TBXException(TBXException.Priority.XCS, err);
-                        document.addParseException(tbxerr);
+                        addParseException(tbxerr);
                     }
                     catch (java.net.UnknownHostException err)
                     {
@@ -475,7 +758,7 @@ public class TBXParser
                         LOGGER.info(msg);
                         LOGGER.log(Level.FINE, msg, err);
                         TBXException tbxerr = new TBXException(TBXException.Priority.XCS, err);
-                        document.addParseException(tbxerr);
+                        addParseException(tbxerr);
                     }
                     catch (IOException err)
                     {
@@ -495,24 +778,50 @@ public class TBXParser
             {
                 IOException err = new FileNotFoundException("XCS not specified.");
                 TBXException tbxerr = new TBXException(TBXException.Priority.XCS, err);
-                document.addParseException(tbxerr);
+                addParseException(tbxerr);
             }
+            if (termEntryIndex != null)
+                termEntryIndex.open(xcsDocument == null ? null : xcsDocument.getDigest(), config);
         }
         else if (config.getCheckEachTerm() && localName.equals("termEntry"))
         {   //VALIDATE the term entry
+            long hash = 0;
+            boolean unchanged = false;
+            if (termEntryIndex != null && xcsDocument != null)
+            {
+                hash = termEntryIndex.hash(child);
+                unchanged = termEntryIndex.isUnchanged(child.getAttribute("id"), hash);
+            }
+            if (validators != null && xcsDocument != null && (!unchanged || !pending.isEmpty()))
+            {   //Reported in document order as the validators complete
+                PendingEntry entry = new PendingEntry(xcsDocument, child);
+                entry.hash = hash;
+                if (!unchanged)
+                    entry.result = validators.submit(entry);
+                pending.add(entry);
+                if (pending.size() >= config.getValidationThreads() * PENDING_PER_THREAD)
+                    completeTermEntry(pending.remove());
+                return;
+            }
             try
             {
-                if (xcsDocument != null)
+                if (unchanged)
+                {
+                    valid = true;
+                }
+                else if (xcsDocument != null)
                 {
                     xcsDocument.validateTermEntry(child);
                     valid = true;
+                    if (termEntryIndex != null)
+                        termEntryIndex.setValid(child.getAttribute("id"), hash);
                 }
             }
             catch (XCSValidationException err)
             {
                 exceptions.add(err);
                 TBXException tbxerr = new TBXException(TBXException.Priority.XCS, err);
-                document.addParseException(tbxerr);
+                addParseException(tbxerr);
             }
         }
         else if (localName.equals("date"))
@@ -524,44 +833,225 @@ public class TBXParser
                         current.getTextContent().trim()));
             }
         }
-        Event evt = new Event(child, valid);
+        elementCompleted(child, valid);
+    }
+    
+    /**
+     * Add an exception to the document and stop the parse if that reaches
+     * the configured error limit.
+     *
+     * @param err The exception found while parsing.
+     * @throws ErrorLimitException The error limit has been reached.
+     * @throws SAXException The exception could not be recorded.
+     */
+    private void addParseException(TBXException err) throws SAXException
+    {
+        try
+        {
+            document.addParseException(err);
+        }
+        catch (IOException ioerr)
+        {
+            throw new SAXException("Could not record exception.", ioerr);
+        }
+        if (errorLimit > 0 && document.getParseExceptionCount() >= errorLimit)
+            throw new ErrorLimitException(errorLimit);
+    }
+    
+    /**
+     * Notify the observers that an element has completed parsing and
+     * validation. A termEntry is counted and then either released if this is
+     * a streaming document or added to the termEntry id map.
+     *
+     * @param elem The element that has completed.
+     * @param valid The element is a termEntry and it is XCS valid.
+     */
+    private void elementCompleted(TBXElement elem, boolean valid)
+    {
+        Event evt = new Event(elem, valid);
         setChanged();
         notifyObservers(evt);
+        
+        if (elem.getTagName().equals("termEntry"))
+        {
+            document.countTermEntry();
+            if (document.isStreaming())
+                document.releaseTermEntry(elem);
+            else
+                document.indexTermEntry(elem);
+        }
+    }
+    
+    /**
+     * Wait for a termEntry on the validator threads to complete and then
+     * report its result exactly as an inline validation would.
+     *
+     * @param entry The oldest termEntry waiting on the validators.
+     * @throws SAXException The wait was interrupted.
+     */
+    private void completeTermEntry(PendingEntry entry) throws SAXException
+    {
+        XCSValidationException invalid = null;
+        try
+        {
+            if (entry.result != null)
+                invalid = entry.result.get();
+        }
+        catch (InterruptedException err)
+        {
+            Thread.currentThread().interrupt();
+            throw new SAXException("Interrupted while validating termEntry.", err);
+        }
+        catch (ExecutionException err)
+        {
+            Throwable t = err.getCause();
+            if (t instanceof RuntimeException)
+                throw (RuntimeException) t;
+            else if (t instanceof Error)
+                throw (Error) t;
+            throw new SAXException("Could not validate termEntry.", (Exception) t);
+        }
+        
+        exceptions.clear();
+        if (invalid != null)
+        {
+            invalid.getDiagnostic().resequence();
+            exceptions.add(invalid);
+            TBXException tbxerr = new TBXException(TBXException.Priority.XCS, invalid);
+            addParseException(tbxerr);
+        }
+        else if (entry.result != null && termEntryIndex != null)
+        {
+            termEntryIndex.setValid(entry.entry.getAttribute("id"), entry.hash);
+        }
+        elementCompleted(entry.entry, invalid == null);
+    }
+    
+    /**
+     * Report all of the termEntry elements still waiting on the validators.
+     *
+     * @throws SAXException The wait was interrupted.
+     */
+    private void completePendingTermEntries() throws SAXException
+    {
+        while (!pending.isEmpty())
+            completeTermEntry(pending.remove());
     }
     
     /** {@inheritDoc} */
     public void characters(char[] ch, int start, int length) throws SAXException
     {
-        LOGGER.entering("TBXParser", "characters", String.format("'%s'", new String(ch, start, length)));
-        String data = new String(ch, start, length);
-        if (collapseWhitespace)
-            data = data.replaceAll("\\s+", " ");
-        Text text = document.createTextNode(data);
-        current.appendChild(text);
+        if (tracing)
+            LOGGER.entering("TBXParser", "characters", String.format("'%s'", new String(ch, start, length)));
+        appendText(ch, start, length);
     }
     
     /** {@inheritDoc} */
     public void ignorableWhitespace(char[] ch, int start, int length) throws SAXException
     {
-        LOGGER.entering("TBXParser", "ignorableWhitespace", String.format("'%s'", new String(ch, start, length)));
-        if (!collapseWhitespace)
+        if (tracing)
+            LOGGER.entering("TBXParser", "ignorableWhitespace", String.format("'%s'", new String(ch, start, length)));
+        if (!collapseWhitespace && !compactWhitespace)
+            appendText(ch, start, length);
+    }
+    
+    /**
+     * Add character data to the text buffer. Adjacent chunks from the SAX
+     * parser are joined into a single text node at the next element
+     * boundary.
+     *
+     * @param ch The characters from the XML document.
+     * @param start The start position in the array.
+     * @param length The number of characters to read from the array.
+     */
+    private void appendText(char[] ch, int start, int length)
+    {
+        if (textLength + length > text.length)
+        {
+            char[] tmp = new char[Math.max(text.length * 2, textLength + length)];
+            System.arraycopy(text, 0, tmp, 0, textLength);
+            text = tmp;
+        }
+        System.arraycopy(ch, start, text, textLength, length);
+        textLength += length;
+    }
+    
+    /**
+     * @param tagName The element tag id.
+     * @return true => the element only holds other elements.
+     */
+    private static boolean isStructural(String tagName)
+    {
+        return STRUCTURAL.contains(tagName) || tagName.endsWith("Grp");
+    }
+    
+    /**
+     * @param ch The characters to check.
+     * @param length The number of characters to check.
+     * @return true => every character is XML whitespace.
+     */
+    private static boolean isWhitespace(char[] ch, int length)
+    {
+        for (int i = 0; i < length; i++)
         {
-            String data = new String(ch, start, length);
-            Text text = document.createTextNode(data);
-            current.appendChild(text);
+            char c = ch[i];
+            if (c != ' ' && c != '\t' && c != '\n' && c != '\r')
+                return false;
+        }
+        return true;
+    }
+    
+    /**
+     * Append the buffered character data to the current element as a single
+     * text node. If whitespace is not significant then each run of
+     * whitespace is collapsed to a single space.
+     */
+    private void flushText()
+    {
+        if (textLength == 0)
+            return;
+        if (compactWhitespace && isStructural(current.getTagName()) && isWhitespace(text, textLength))
+        {
+            textLength = 0;
+            return;
+        }
+        int len = textLength;
+        if (collapseWhitespace)
+        {
+            len = 0;
+            boolean inspace = false;
+            for (int i = 0; i < textLength; i++)
+            {
+                char c = text[i];
+                if (c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f' || c == '\u000B')
+                {
+                    if (!inspace)
+                        text[len++] = ' ';
+                    inspace = true;
+                }
+                else
+                {
+                    text[len++] = c;
+                    inspace = false;
+                }
+            }
         }
+        current.appendChild(document.createTextNode(new String(text, 0, len)));
+        textLength = 0;
     }
     
     /** {@inheritDoc} */
     public void processingInstruction(String target, String data) throws SAXException
     {
-        LOGGER.entering("TBXParser", "processingInstruction", String.format("target='%s' data='%s'", target, data));
+        if (tracing)
+            LOGGER.entering("TBXParser", "processingInstruction", String.format("target='%s' data='%s'", target, data));
     }
     
     /** {@inheritDoc} */
     public void skippedEntity(String name) throws SAXException
     {
-        LOGGER.entering("TBXParser", "skippedEntity", String.format("name='%s'", name));
+        if (tracing)
+            LOGGER.entering("TBXParser", "skippedEntity", String.format("name='%s'", name));
     }
     
     
@@ -571,17 +1061,19 @@ public class TBXParser
     /** {@inheritDoc} */
     public void notationDecl(String name, String publicId, String systemId) throws SAXException
     {
-        LOGGER.entering("TBXParser", "notationDecl",
-                String.format("name='%s' publicId='%s' systemId='%s'",
-                name, publicId, systemId));
+        if (tracing)
+            LOGGER.entering("TBXParser", "notationDecl",
+                    String.format("name='%s' publicId='%s' systemId='%s'",
+                    name, publicId, systemId));
     }
     
     /** {@inheritDoc} */
     public void unparsedEntityDecl(String name, String publicId, String systemId, String notationName) throws SAXException
     {
-        LOGGER.entering("TBXParser", "unparsedEntityDecl",
-                String.format("name='%s' publicId='%s' systemId='%s' notationName='%s'",
-                            name, publicId, systemId, notationName));
+        if (tracing)
+            LOGGER.entering("TBXParser", "unparsedEntityDecl",
+                    String.format("name='%s' publicId='%s' systemId='%s' notationName='%s'",
+                                name, publicId, systemId, notationName));
     }
     
     /*********************************/
@@ -590,8 +1082,9 @@ public class TBXParser
     /** {@inheritDoc} */
     public InputSource resolveEntity(String publicId, String systemId) throws SAXException, IOException
     {   //NOTDONE: need to resolve the entity
-        LOGGER.entering("TBXParser", "resolvedEntity",
-                String.format("publicId='%s' systemId='%s'", publicId, systemId));
+        if (tracing)
+            LOGGER.entering("TBXParser", "resolvedEntity",
+                    String.format("publicId='%s' systemId='%s'", publicId, systemId));
         return resolver.resolveEntity(publicId, systemId);
     }
         
@@ -602,7 +1095,7 @@ public class TBXParser
     public void warning(SAXParseException exception) throws SAXException
     {
         LOGGER.log(Level.SEVERE, "TBXParser SAX Warning", exception);
-        document.addParseException(
+        addParseException(
                 new TBXException(TBXException.Priority.XMLVALID_MINOR, exception));
     }
     
@@ -610,7 +1103,7 @@ public class TBXParser
     public void error(SAXParseException exception) throws SAXException
     {
         LOGGER.log(Level.SEVERE, "TBXParser SAX Error", exception);
-        document.addParseException(
+        addParseException(
                 new TBXException(TBXException.Priority.XMLVALID_MAJOR, exception));
     }
     
@@ -618,7 +1111,7 @@ public class TBXParser
     public void fatalError(SAXParseException exception) throws SAXException
     {
         LOGGER.log(Level.SEVERE, "TBXParser SAX Fatal", exception);
-        document.addParseException(
+        addParseException(
                 new TBXException(TBXException.Priority.WELLFORMED, exception));
     }
 
@@ -0,0 +1,94 @@
+/*
+ * $Id$
+ *-----------------------------------------------------------------------------
+ * Copyright 2000 Lance Finn Helsten (helsten@acm.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ttt.salt.dom.tbx;
+
+
+/**
+ * This is the compact record kept for a termEntry after the element itself
+ * has been released from a streaming {@link TBXDocument}. It holds just
+ * enough to identify the entry and find it again in the TBX source.
+ *
+ * @author Lance Finn Helsten
+ * @version $Id$
+ * @license Licensed under the Apache License, Version 2.0.
+ */
+public final class TermEntryRecord
+{
+    /*
+     */
+
+    /** SCM information. */
+    public static final String RCSID = "$Id$";
+    
+    /** The id attribute of the termEntry. */
+    private final String id;
+    
+    /** Line in the XML stream the termEntry starts. */
+    private final int lineStart;
+    
+    /** Column in the XML stream the termEntry starts. */
+    private final int columnStart;
+
+    /** Line in the XML stream the termEntry ends. */
+    private final int lineEnd;
+    
+    /** Column in the XML stream the termEntry ends. */
+    private final int columnEnd;
+    
+    /**
+     * Create a record from a completed termEntry element.
+     *
+     * @param entry The termEntry element that is being released.
+     */
+    public TermEntryRecord(TBXElement entry)
+    {
+        id = entry.getAttribute("id");
+        lineStart = entry.getStartLine();
+        columnStart = entry.getStartColumn();
+        lineEnd = entry.getEndLine();
+        columnEnd = entry.getEndColumn();
+    }
+    
+    /**
+     * Get the id of the termEntry.
+     *
+     * @return The id attribute value, or an empty string if there was none.
+     */
+    public String getId()
+    {
+        return id;
+    }
+    
+    /**
+     * Get a string that defines the location in the document the termEntry
+     * was located at.
+     *
+     * @return The location identification string.
+     */
+    public String getLocationString()
+    {
+        return String.format("Start %d:%d, End %d:%d", lineStart, columnStart,
+            lineEnd, columnEnd);
+    }
+    
+    /** {@inheritDoc} */
+    public String toString()
+    {
+        return String.format("termEntry id=%s (%s)", id, getLocationString());
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * $Id$
+ *-----------------------------------------------------------------------------
+ * Copyright 2000 Lance Finn Helsten (helsten@acm.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ttt.salt.dom.xcs;
+
+import org.xml.sax.Locator;
+import org.xml.sax.SAXParseException;
+import org.ttt.salt.XCSDocument;
+
+/**
+ * Creates the {@link XCSElement} for a particular tag. Factories are
+ * registered with {@link XCSDocument#registerElementFactory} to supply
+ * custom element classes; tags without a registered factory use their
+ * <code>Element_</code><em>tag</em> class if there is one.
+ *
+ * @author Lance Finn Helsten
+ * @version $Id$
+ * @license Licensed under the Apache License, Version 2.0.
+ */
+public interface XCSElementFactory
+{
+    /** SCM information. */
+    String RCSID = "$Id$";
+    
+    /**
+     * Create a new element.
+     *
+     * @param ownerDoc The XCSDocument the element is created in.
+     * @param tagName The element tag id.
+     * @param loc The SAX locator that describes the start tag location.
+     * @return The new element.
+     * @throws SAXParseException The element could not be created.
+     */
+    XCSElement createXCSElement(XCSDocument ownerDoc, String tagName, Locator loc)
+        throws SAXParseException;
+}
@@ -44,6 +44,7 @@ import org.xml.sax.SAXNotRecognizedException;
 import org.xml.sax.SAXNotSupportedException;
 import org.w3c.dom.Text;
 import org.w3c.dom.DOMException;
+import org.ttt.salt.TBXGrammarPool;
 import org.ttt.salt.XCSDocument;
 import org.ttt.salt.TBXResolver;
 
@@ -96,6 +97,9 @@ public class XCSParser
     /** The entity resolver that I use. */
     private EntityResolver resolver;
     
+    /** Gate to the shared DTD grammar pool. */
+    private final TBXGrammarPool.Gate grammars = TBXGrammarPool.getInstance().newGate();
+    
     /** Namespace mappings. */
     private Map<String, URI> namespace = new java.util.HashMap<String, URI>();
     
@@ -114,6 +118,12 @@ public class XCSParser
     /** Indicates that whitespace is not significant (xml:space="default"). */
     private boolean collapseWhitespace;
     
+    /**
+     * Trace the SAX callbacks. This is checked once at the start of each
+     * parse so the callbacks do no formatting when tracing is off.
+     */
+    private boolean tracing;
+    
     /**
      * Create a new parser for XCS document parsing.
      *
@@ -130,6 +140,7 @@ public class XCSParser
             reader.setFeature("http://xml.org/sax/features/namespaces", true);
             reader.setFeature("http://xml.org/sax/features/namespace-prefixes", true);
             reader.setFeature("http://xml.org/sax/features/validation", true);
+            reader.setProperty(TBXGrammarPool.GRAMMAR_POOL_PROPERTY, grammars);
             reader.setContentHandler(this);
             reader.setDTDHandler(this);
             reader.setEntityResolver(resolver);
@@ -179,41 +190,68 @@ public class XCSParser
                 throw new IllegalStateException("XCSParser is already parsing a document.");
             document = doc;
         }
-        reader.parse(src);
+        tracing = LOGGER.isLoggable(Level.FINER);
+        reader.parse(grammars.watch(src));
         document = null;
     }
     
+    /**
+     * Return this parser to the state it had when it was constructed so it
+     * can parse another XCS. The Xerces pipeline and its internal buffers
+     * are kept.
+     *
+     * @param r The XML entity resolver the next parse should use.
+     */
+    public void reset(EntityResolver r)
+    {
+        synchronized (this)
+        {
+            resolver = r;
+            reader.setEntityResolver(resolver);
+            document = null;
+            current = null;
+            locator = null;
+            collapseWhitespace = false;
+            stack.clear();
+            namespace.clear();
+        }
+    }
+    
     /*********************************/
     /* org.xml.ContentHandler        */
     
     /** {@inheritDoc} */
     public void setDocumentLocator(Locator loc)
     {
-        LOGGER.entering("XCSParser", "setDocumentLocator",
-                String.format("Line=%d Col=%d", loc.getLineNumber(),
-                loc.getColumnNumber()));
+        if (tracing)
+            LOGGER.entering("XCSParser", "setDocumentLocator",
+                    String.format("Line=%d Col=%d", loc.getLineNumber(),
+                    loc.getColumnNumber()));
         locator = loc;
     }
     
     /** {@inheritDoc} */
     public void startDocument() throws SAXException
     {
-        LOGGER.entering("XCSParser", "startDocument");
+        if (tracing)
+            LOGGER.entering("XCSParser", "startDocument");
         assert stack.isEmpty() : "XCSParser stack is not empty.";
     }
     
     /** {@inheritDoc} */
     public void endDocument() throws SAXException
     {
-        LOGGER.entering("XCSParser", "endDocument");
+        if (tracing)
+            LOGGER.entering("XCSParser", "endDocument");
         assert stack.isEmpty() : "XCSParser stack is not empty.";
     }
     
     /** {@inheritDoc} */
     public void startPrefixMapping(String prefix, String uri) throws SAXException
     {
-        LOGGER.entering("XCSParser", "startPrefixMapping",
-                String.format("prefix='%s' uri='%s'", prefix, uri));
+        if (tracing)
+            LOGGER.entering("XCSParser", "startPrefixMapping",
+                    String.format("prefix='%s' uri='%s'", prefix, uri));
         try
         {
             namespace.put(prefix, new URI(uri));
@@ -227,22 +265,25 @@ public class XCSParser
     /** {@inheritDoc} */
     public void endPrefixMapping(String prefix) throws SAXException
     {
-        LOGGER.entering("XCSParser", "endPrefixMapping",
-                String.format("prefix='%s'", prefix));
+        if (tracing)
+            LOGGER.entering("XCSParser", "endPrefixMapping",
+                    String.format("prefix='%s'", prefix));
     }
     
     /** {@inheritDoc} */
     public void startElement(String uri, String localName, String qName, Attributes atts) throws SAXException
     {
-        LOGGER.entering("XCSParser", "startElement",
-                String.format("%d: uri='%s' local='%s' qName='%s'",
-                locator.getLineNumber(), uri, localName, qName));
+        if (tracing)
+            LOGGER.entering("XCSParser", "startElement",
+                    String.format("%d: uri='%s' local='%s' qName='%s'",
+                    locator.getLineNumber(), uri, localName, qName));
         stack.push(current);
         current = document.createXCSElement(localName, locator);
         for (int i = 0; i < atts.getLength(); i++)
         {
-            LOGGER.finer(String.format("Attribute: qname='%s' local='%s' type='%s' uri='%s' value='%s'",
-                    atts.getQName(i), atts.getLocalName(i), atts.getType(i), atts.getURI(i), atts.getValue(i)));
+            if (tracing)
+                LOGGER.finer(String.format("Attribute: qname='%s' local='%s' type='%s' uri='%s' value='%s'",
+                        atts.getQName(i), atts.getLocalName(i), atts.getType(i), atts.getURI(i), atts.getValue(i)));
             try
             {
                 current.setAttribute(atts.getQName(i), atts.getValue(i));
@@ -259,9 +300,10 @@ public class XCSParser
     /** {@inheritDoc} */
     public void endElement(String uri, String localName, String qName) throws SAXException
     {
-        LOGGER.entering("XCSParser", "endElement",
-                String.format("%d: uri='%s' local='%s' qName='%s'",
-                locator.getLineNumber(), uri, localName, qName));
+        if (tracing)
+            LOGGER.entering("XCSParser", "endElement",
+                    String.format("%d: uri='%s' local='%s' qName='%s'",
+                    locator.getLineNumber(), uri, localName, qName));
         current.endElement(locator);
         XCSElement child = current;
         current = stack.pop();
@@ -272,8 +314,9 @@ public class XCSParser
     /** {@inheritDoc} */
     public void characters(char[] ch, int start, int length) throws SAXException
     {
-        LOGGER.entering("XCSParser", "characters",
-                String.format("'%s'", new String(ch, start, length)));
+        if (tracing)
+            LOGGER.entering("XCSParser", "characters",
+                    String.format("'%s'", new String(ch, start, length)));
         String data = new String(ch, start, length);
         if (collapseWhitespace)
             data = data.replaceAll("\\s+", " ");
@@ -284,8 +327,9 @@ public class XCSParser
     /** {@inheritDoc} */
     public void ignorableWhitespace(char[] ch, int start, int length) throws SAXException
     {
-        LOGGER.entering("XCSParser", "ignorableWhitespace",
-                String.format("'%s'", new String(ch, start, length)));
+        if (tracing)
+            LOGGER.entering("XCSParser", "ignorableWhitespace",
+                    String.format("'%s'", new String(ch, start, length)));
         if (!collapseWhitespace)
         {
             String data = new String(ch, start, length);
@@ -297,14 +341,16 @@ public class XCSParser
     /** {@inheritDoc} */
     public void processingInstruction(String target, String data) throws SAXException
     {
-        LOGGER.entering("XCSParser", "processingInstruction",
-                String.format("target='%s' data='%s'", target, data));
+        if (tracing)
+            LOGGER.entering("XCSParser", "processingInstruction",
+                    String.format("target='%s' data='%s'", target, data));
     }
     
     /** {@inheritDoc} */
     public void skippedEntity(String name) throws SAXException
     {
-        LOGGER.entering("XCSParser", "skippedEntity", name);
+        if (tracing)
+            LOGGER.entering("XCSParser", "skippedEntity", name);
     }
     
     
@@ -315,18 +361,20 @@ public class XCSParser
     public void notationDecl(String name, String publicId, String systemId)
         throws SAXException
     {
-        LOGGER.entering("XCSParser", "notationDecl",
-                String.format("name='%s' publicId='%s' systemId='%s'",
-                name, publicId, systemId));
+        if (tracing)
+            LOGGER.entering("XCSParser", "notationDecl",
+                    String.format("name='%s' publicId='%s' systemId='%s'",
+                    name, publicId, systemId));
     }
     
     /** {@inheritDoc} */
     public void unparsedEntityDecl(String name, String publicId, String systemId,
         String notationName) throws SAXException
     {
-        LOGGER.entering("XCSParser", "unparsedEntityDecl",
-                String.format("name='%s' publicId='%s' systemId='%s' notationName='%s'",
-                name, publicId, systemId, notationName));
+        if (tracing)
+            LOGGER.entering("XCSParser", "unparsedEntityDecl",
+                    String.format("name='%s' publicId='%s' systemId='%s' notationName='%s'",
+                    name, publicId, systemId, notationName));
     }
     
     /*********************************/
@@ -335,8 +383,9 @@ public class XCSParser
     /** {@inheritDoc} */
     public InputSource resolveEntity(String publicId, String systemId) throws SAXException, IOException
     {   //TODO: Need to check if I know the publicID
-        LOGGER.entering("XCSParser", "resolvedEntity",
-                String.format("publicId='%s' systemId='%s'", publicId, systemId));
+        if (tracing)
+            LOGGER.entering("XCSParser", "resolvedEntity",
+                    String.format("publicId='%s' systemId='%s'", publicId, systemId));
         return resolver.resolveEntity(publicId, systemId);
     }
         
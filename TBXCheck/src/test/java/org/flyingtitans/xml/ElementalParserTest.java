@@ -0,0 +1,91 @@
+/*
+ * $Id$
+ *-----------------------------------------------------------------------------
+ * Copyright 2000 Lance Finn Helsten (helsten@acm.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.flyingtitans.xml;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+import java.io.*;
+
+/**
+ * @author  Lance Finn Helsten
+ * @version $Id$
+ */
+public class ElementalParserTest
+{
+    /** SCM information. */
+    public static final String RCSID = "$Id$";
+
+    static final String DOC = "<?xml version='1.0'?>\n"
+        + "<!-- a > b -->\n"
+        + "<!DOCTYPE martif SYSTEM 'x.dtd'>\n"
+        + "<martif><p>text</p><br/><![CDATA[ x>y ]]></martif>";
+
+    static final ElementalParser.Token[] TOKENS = {
+        ElementalParser.Token.XMLDECL,
+        ElementalParser.Token.CONTENT,
+        ElementalParser.Token.COMMENT,
+        ElementalParser.Token.CONTENT,
+        ElementalParser.Token.DOCTYPEDECL,
+        ElementalParser.Token.CONTENT,
+        ElementalParser.Token.START,
+        ElementalParser.Token.START,
+        ElementalParser.Token.CONTENT,
+        ElementalParser.Token.END,
+        ElementalParser.Token.EMPTY,
+        ElementalParser.Token.CDATA,
+        ElementalParser.Token.END,
+        ElementalParser.Token.EOF,
+    };
+
+    /**
+     * Tokens that span blocks must come out the same as from one block.
+     */
+    @Test
+    public void smallBlocks() throws Exception
+    {
+        ElementalParser parse = new ElementalParser(new StringReader(DOC), 3);
+        StringBuilder text = new StringBuilder();
+        for (ElementalParser.Token tok : TOKENS)
+        {
+            assertEquals(tok, parse.next());
+            assertEquals(text.length(), parse.getOffset());
+            text.append(parse.getString());
+        }
+        assertEquals(DOC, text.toString());
+    }
+
+    @Test
+    public void charArray() throws Exception
+    {
+        char[] data = ("xx" + DOC + "xx").toCharArray();
+        ElementalParser parse = new ElementalParser(data, 2, DOC.length());
+        for (ElementalParser.Token tok : TOKENS)
+            assertEquals(tok, parse.next());
+        assertEquals("xx" + DOC + "xx", new String(data));
+    }
+
+    @Test
+    public void unterminated() throws Exception
+    {
+        ElementalParser parse = new ElementalParser(new StringReader("<?xml version='1.0'>"));
+        assertEquals(ElementalParser.Token.ILLFORMED, parse.next());
+        parse = new ElementalParser(new StringReader("<!-- open"));
+        assertEquals(ElementalParser.Token.ILLFORMED, parse.next());
+        assertEquals(ElementalParser.Token.EOF, parse.next());
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * $Id$
+ *-----------------------------------------------------------------------------
+ * Copyright 2000 Lance Finn Helsten (helsten@acm.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ttt.salt;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+import java.io.*;
+import java.net.URL;
+import java.util.*;
+
+/**
+ *
+ * @author  Lance Finn Helsten
+ * @version $Id$
+ */
+public class DiagnosticStoreTest
+{
+    /**
+     * Diagnostics spilled to disk are read back in the same order and with
+     * the same messages as exceptions kept on the heap.
+     */
+    @Test
+    public void diagnosticStore() throws Exception
+    {
+        Configuration config = new Configuration();
+        File file = TestFiles.repeatTermEntry("InvalidPickList.xml", 6);
+        TBXFile heap = new TBXFile(file.toURI().toURL(), config);
+        heap.parseAndValidate();
+        List<String> expected = new ArrayList<String>();
+        for (TBXException err : heap.getInvalidatingExceptions())
+            expected.add(err.getDiagnostic().getMessage());
+        
+        config.setDiagnosticWindow(3);
+        TBXFile dv = new TBXFile(file.toURI().toURL(), config);
+        dv.parseAndValidate();
+        assertFalse(dv.isValid());
+        assertEquals(7, dv.getInvalidatingExceptionCount());
+        assertTrue(dv.getInvalidatingExceptions().isEmpty());
+        DiagnosticStore store = dv.getDiagnosticStore();
+        assertEquals(2, store.getRunCount());
+        List<String> actual = new ArrayList<String>();
+        int last = Integer.MIN_VALUE;
+        Iterator<Diagnostic> iter = dv.getDiagnostics();
+        while (iter.hasNext())
+        {
+            Diagnostic diag = iter.next();
+            assertTrue(diag.getSequence() > last);
+            last = diag.getSequence();
+            assertEquals("InvalidPickListException", diag.getCode());
+            actual.add(diag.getMessage());
+        }
+        assertEquals(expected, actual);
+        store.close();
+        assertFalse(store.iterator().hasNext());
+    }
+    
+    
+    /**
+     * A file that is not well formed leaves no run file behind once its
+     * store is closed, even though the parse had spilled diagnostics.
+     */
+    @Test
+    public void malformedLeavesNoRuns() throws Exception
+    {
+        String text = TestFiles.read(TestFiles.repeatTermEntry("InvalidPickList.xml", 4));
+        File file = File.createTempFile("malformed", ".xml");
+        file.deleteOnExit();
+        Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        out.write(text.substring(0, text.lastIndexOf("</termEntry>")));
+        out.close();
+        Set<String> before = runFiles();
+        
+        Configuration config = new Configuration();
+        config.setDiagnosticWindow(1);
+        TBXFile dv = new TBXFile(file.toURI().toURL(), config);
+        dv.parseAndValidate();
+        assertFalse(dv.isValid());
+        dv.getDiagnosticStore().close();
+        assertEquals(before, runFiles());
+    }
+    
+    /**
+     * Get the names of the run files in the temporary directory.
+     *
+     * @return The file names.
+     */
+    private Set<String> runFiles()
+    {
+        Set<String> ret = new TreeSet<String>();
+        String[] names = new File(System.getProperty("java.io.tmpdir")).list();
+        for (String name : names)
+        {
+            if (name.startsWith("tbxdiag") && name.endsWith(".run"))
+                ret.add(name);
+        }
+        return ret;
+    }
+    
+    /**
+     * More runs than can be merged at once are merged in passes, and the
+     * diagnostics still come back in priority and sequence order.
+     */
+    @Test
+    public void mergePasses() throws Exception
+    {
+        TBXException.Priority[] priorities = TBXException.Priority.values();
+        DiagnosticStore store = new DiagnosticStore(2);
+        int count = DiagnosticStore.MAX_FAN_IN * 5;
+        for (int i = 0; i < count; i++)
+            store.add(new Diagnostic(priorities[(i * 7) % priorities.length], i, "Test", i, 1));
+        assertEquals(count / 2, store.getRunCount());
+        
+        Diagnostic last = null;
+        int n = 0;
+        for (Diagnostic diag : store)
+        {
+            if (last != null)
+                assertTrue(last.compareTo(diag) < 0);
+            last = diag;
+            n++;
+        }
+        assertEquals(count, n);
+        assertTrue(store.getRunCount() <= DiagnosticStore.MAX_FAN_IN);
+        store.close();
+    }
+}
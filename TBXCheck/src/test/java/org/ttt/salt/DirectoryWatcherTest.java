@@ -0,0 +1,67 @@
+/*
+ * $Id$
+ *-----------------------------------------------------------------------------
+ * Copyright 2000 Lance Finn Helsten (helsten@acm.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ttt.salt;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+import java.io.*;
+import java.net.URL;
+import java.util.*;
+
+/**
+ *
+ * @author  Lance Finn Helsten
+ * @version $Id$
+ */
+public class DirectoryWatcherTest
+{
+    @Test(timeout = 30000)
+    public void directoryWatcher() throws Exception
+    {
+        File dir = File.createTempFile("watch", "");
+        dir.delete();
+        dir.mkdir();
+        dir.deleteOnExit();
+        File tbx = new File(dir, "LocalXCS.xml");
+        File other = new File(dir, "notes.txt");
+        other.deleteOnExit();
+        DirectoryWatcher watcher = new DirectoryWatcher(dir.toPath(), 200);
+        try
+        {
+            for (int i = 0; i < 3; i++)
+                TestFiles.copy(TestFiles.getFileURL("LocalXCS.xml"), tbx);
+            TestFiles.copy(TestFiles.getFileURL("LocalXCS.xml"), other);
+            Set<java.nio.file.Path> changed = watcher.take();
+            assertEquals(Collections.singleton(tbx.toPath()), changed);
+            
+            File sub = new File(dir, "sub");
+            sub.mkdir();
+            sub.deleteOnExit();
+            Thread.sleep(100);
+            File nested = new File(sub, "nested.tbx");
+            TestFiles.copy(TestFiles.getFileURL("LocalXCS.xml"), nested);
+            changed = watcher.take();
+            assertTrue(changed.contains(nested.toPath()));
+            assertEquals(Collections.singleton(nested.toPath()), DirectoryWatcher.list(sub.toPath()));
+        }
+        finally
+        {
+            watcher.close();
+        }
+    }
+}
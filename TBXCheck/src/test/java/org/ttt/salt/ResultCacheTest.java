@@ -0,0 +1,78 @@
+/*
+ * $Id$
+ *-----------------------------------------------------------------------------
+ * Copyright 2000 Lance Finn Helsten (helsten@acm.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ttt.salt;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+import java.io.*;
+import java.net.URL;
+import java.util.*;
+
+/**
+ *
+ * @author  Lance Finn Helsten
+ * @version $Id$
+ */
+public class ResultCacheTest
+{
+    /**
+     * An unchanged file takes its result from the result cache until the
+     * file or the XCS it uses changes.
+     */
+    @Test
+    public void resultCache() throws Exception
+    {
+        Configuration config = new Configuration();
+        File dir = File.createTempFile("results", "");
+        dir.delete();
+        dir.mkdir();
+        File tbx = new File(dir, "LocalXCS.xml");
+        File xcs = new File(dir, "TBXDCSv05.xml");
+        TestFiles.copy(TestFiles.getFileURL("LocalXCS.xml"), tbx);
+        TestFiles.copy(getClass().getResource("/xml/TBXDCSv05.xml"), xcs);
+        ResultCache cache = new ResultCache(new File(dir, "cache"));
+        config.setResultCache(cache);
+        
+        TBXFile dv = new TBXFile(tbx.toURI().toURL(), config);
+        dv.parseAndValidate();
+        assertFalse(dv.isCached());
+        boolean valid = dv.isValid();
+        int entries = dv.getTermEntryCount();
+        
+        dv = new TBXFile(tbx.toURI().toURL(), config);
+        dv.parseAndValidate();
+        assertTrue(dv.isCached());
+        assertEquals(valid, dv.isValid());
+        assertEquals(entries, dv.getTermEntryCount());
+        assertEquals(TBXFile.Type.DTD, dv.getType());
+        
+        Writer out = new OutputStreamWriter(new FileOutputStream(xcs, true), "UTF-8");
+        out.write("<!-- changed -->\n");
+        out.close();
+        dv = new TBXFile(tbx.toURI().toURL(), config);
+        dv.parseAndValidate();
+        assertFalse(dv.isCached());
+        assertEquals(1, cache.getHits());
+        assertEquals(2, cache.getMisses());
+        
+        config.setMaxErrors(1);
+        dv = new TBXFile(tbx.toURI().toURL(), config);
+        dv.parseAndValidate();
+        assertFalse(dv.isCached());
+    }
+}
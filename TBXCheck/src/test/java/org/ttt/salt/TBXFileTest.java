@@ -232,6 +232,40 @@ public class TBXFileTest
     */
     }
     
+    /**
+     * Check that a prolog longer than the old pre-parse mark is classified.
+     */
+    @Test
+    public void preParseLongProlog() throws Exception
+    {
+        TBXFile dv = new TBXFile(getFileURL("LongProlog.xml"), config);
+        dv.parseAndValidate();
+        if (!dv.isValid())
+            throw dv.getInvalidatingExceptions().get(0);
+        assertEquals(TBXFile.Type.DTD, dv.getType());
+    }
+    
+    @Test
+    public void preParseInternalSubsetComment() throws Exception
+    {
+        TBXFile dv = new TBXFile(getFileURL("InternalSubsetComment.xml"), config);
+        dv.parseAndValidate();
+        if (!dv.isValid())
+            throw dv.getInvalidatingExceptions().get(0);
+        assertEquals(TBXFile.Type.DTD, dv.getType());
+    }
+    
+    @Test(expected=StreamCorruptedException.class)
+    public void preParseNotTBXRoot() throws Exception
+    {
+        TBXFile dv = new TBXFile(getFileURL("NotTBXRoot.xml"), config);
+        dv.parseAndValidate();
+        assertEquals(TBXFile.Type.CORRUPT, dv.getType());
+        List<TBXException> errs = dv.getInvalidatingExceptions();
+        if (!dv.isValid() && errs.get(0) != null)
+            throw (Exception) errs.get(0).getCause();
+    }
+    
     /**
      * Check that a bad DTD path will fail with the correct error message.
      */
@@ -313,6 +347,101 @@ public class TBXFileTest
         }
     }
     
+    /**
+     * XCS problems are reported without a stack trace and keep only a
+     * compact record of where they were found.
+     */
+    @Test
+    public void xcsDiagnostic() throws Exception
+    {
+        URL file = getFileURL("InvalidPickList.xml");
+        TBXFile dv = new TBXFile(file, config);
+        dv.parseAndValidate();
+        TBXException err = (TBXException) dv.getInvalidatingExceptions().get(0);
+        assertEquals(0, err.getStackTrace().length);
+        assertEquals(0, err.getCause().getStackTrace().length);
+        Diagnostic diag = err.getDiagnostic();
+        assertSame(diag, ((XCSValidationException) err.getCause()).getDiagnostic());
+        assertEquals(TBXException.Priority.XCS, diag.getPriority());
+        assertEquals("InvalidPickListException", diag.getCode());
+        assertTrue(diag.getLine() > 0);
+        assertTrue(diag.getMessage(), diag.getMessage().startsWith("Invalid picklist entry: Value=\""));
+        assertTrue(err.getMessage().contains(diag.getMessage()));
+    }
+    
+    /**
+     * The same error repeated in many termEntry elements is counted in one
+     * group that keeps only the first exceptions.
+     */
+    @Test
+    public void errorSummary() throws Exception
+    {
+        File file = TestFiles.repeatTermEntry("InvalidPickList.xml", 4);
+        config.setSummaryExamples(2);
+        TBXFile dv = new TBXFile(file.toURI().toURL(), config);
+        dv.parseAndValidate();
+        assertFalse(dv.isValid());
+        assertEquals(5, dv.getInvalidatingExceptionCount());
+        assertEquals(2, dv.getInvalidatingExceptions().size());
+        ErrorSummary summary = dv.getErrorSummary();
+        assertEquals(5, summary.getCount());
+        assertEquals(1, summary.getGroups().size());
+        ErrorSummary.Group group = summary.getGroups().get(0);
+        assertEquals(TBXException.Priority.XCS, group.getPriority());
+        assertEquals(InvalidPickListException.class, group.getCauseClass());
+        assertEquals(new XCSDocument.Key("descripNote", "definitionType"), group.getKey());
+        assertEquals(5, group.getCount());
+        assertEquals(dv.getInvalidatingExceptions(), group.getExamples());
+    }
+    
+    @Test
+    public void incremental() throws Exception
+    {
+        File dir = File.createTempFile("incremental", "");
+        dir.delete();
+        dir.mkdir();
+        File tbx = new File(dir, "LocalXCS.xml");
+        File xcs = new File(dir, "TBXDCSv05.xml");
+        TestFiles.copy(TestFiles.repeatTermEntry("LocalXCS.xml", 4).toURI().toURL(), tbx);
+        TestFiles.copy(getClass().getResource("/xml/TBXDCSv05.xml"), xcs);
+        TermEntryIndex.getSidecar(tbx).deleteOnExit();
+        config.setIncremental(true);
+        
+        TBXFile dv = new TBXFile(tbx.toURI().toURL(), config);
+        dv.parseAndValidate();
+        assertTrue(dv.isValid());
+        assertEquals(0, dv.getReusedTermEntryCount());
+        assertTrue(TermEntryIndex.getSidecar(tbx).isFile());
+        
+        dv = new TBXFile(tbx.toURI().toURL(), config);
+        dv.parseAndValidate();
+        assertTrue(dv.isValid());
+        assertEquals(5, dv.getReusedTermEntryCount());
+        
+        //An invalid entry is always checked again
+        String text = TestFiles.read(tbx);
+        Writer out = new OutputStreamWriter(new FileOutputStream(tbx), "UTF-8");
+        out.write(text.replaceFirst("intensionalDefinition", "unknownDefinition"));
+        out.close();
+        for (int threads = 1; threads <= 2; threads++)
+        {
+            config.setValidationThreads(threads);
+            dv = new TBXFile(tbx.toURI().toURL(), config);
+            dv.parseAndValidate();
+            assertFalse(dv.isValid());
+            assertEquals(1, dv.getInvalidatingExceptions().size());
+            assertEquals(4, dv.getReusedTermEntryCount());
+        }
+        
+        out = new OutputStreamWriter(new FileOutputStream(xcs, true), "UTF-8");
+        out.write("<!-- changed -->\n");
+        out.close();
+        dv = new TBXFile(tbx.toURI().toURL(), config);
+        dv.parseAndValidate();
+        assertFalse(dv.isValid());
+        assertEquals(0, dv.getReusedTermEntryCount());
+    }
+    
     @Test
     public void invalidLevel() throws Exception
     {
@@ -343,6 +472,41 @@ public class TBXFileTest
         }
     }
     
+    /**
+     * termEntry elements without an id, or with an automatic id, are given
+     * new automatic ids as they are parsed.
+     */
+    @Test
+    public void termEntryAutoId() throws Exception
+    {
+        BufferedReader in = new BufferedReader(new InputStreamReader(
+            getFileURL("ValidDTD.xml").openStream(), "UTF-8"));
+        StringBuilder text = new StringBuilder();
+        for (String line = in.readLine(); line != null; line = in.readLine())
+            text.append(line).append('\n');
+        in.close();
+        int start = text.indexOf("<termEntry");
+        int end = text.indexOf("</termEntry>") + "</termEntry>".length();
+        String entry = text.substring(start, end);
+        text.insert(end, entry.replace("id='ID67'", "id='AUTO_termEntry_ID_7'")
+            + entry.replace(" id='ID67'", ""));
+        File file = File.createTempFile("autoid", ".xml");
+        file.deleteOnExit();
+        Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        out.write(text.toString());
+        out.close();
+        
+        TBXFile dv = new TBXFile(file.toURI().toURL(), config);
+        dv.parseAndValidate();
+        if (!dv.isValid())
+            throw dv.getInvalidatingExceptions().get(0);
+        Map<String, Element> map = dv.getTermEntryMap();
+        assertEquals(java.util.Arrays.asList("ID67", TBXFile.AUTO_TERMENTRY_ID_PREFIX + "0",
+            TBXFile.AUTO_TERMENTRY_ID_PREFIX + "1"), new ArrayList<String>(map.keySet()));
+        for (Element elem : map.values())
+            assertSame(dv.getBodyElement(), elem.getParentNode());
+    }
+    
     @Test
     public void termEntryMap() throws Exception
     {
@@ -368,5 +532,225 @@ public class TBXFileTest
         }
         */
     }
+    
+    @Test
+    public void streaming() throws Exception
+    {
+        config.setStreaming(true);
+        TBXFile dv = new TBXFile(getFileURL("ValidDTD.xml"), config);
+        dv.parseAndValidate();
+        assertTrue("Streamed file not valid", dv.isValid());
+        assertTrue("Streamed term entry map not empty", dv.getTermEntryMap().isEmpty());
+        assertEquals(1, dv.getTermEntryRecords().size());
+        assertEquals("ID67", dv.getTermEntryRecords().get(0).getId());
+        assertEquals(0, dv.getBodyElement().getElementsByTagName("termEntry").getLength());
+        assertNotNull(dv.getTBXDocument().getDocumentElement().getElementsByTagName("martifHeader").item(0));
+    }
+    
+    @Test
+    public void streamingInvalidPickList() throws Exception
+    {
+        config.setStreaming(true);
+        TBXFile dv = new TBXFile(getFileURL("InvalidPickList.xml"), config);
+        dv.parseAndValidate();
+        assertTrue("Invalid pick in picklist not reported", !dv.isValid());
+        TBXException err = (TBXException) dv.getInvalidatingExceptions().get(0);
+        assertTrue("Exception not InvalidPickListException",
+            err.getCause() instanceof InvalidPickListException);
+    }
+    
+    @Test
+    public void validationThreads() throws Exception
+    {
+        config.setValidationThreads(4);
+        TBXFile dv = new TBXFile(getFileURL("ValidDTD.xml"), config);
+        dv.parseAndValidate();
+        assertTrue("File not valid with validation threads", dv.isValid());
+        assertEquals(1, dv.getTermEntryMap().size());
+    }
+    
+    /**
+     * A document with an internal subset must not take the pooled grammar.
+     */
+    @Test
+    public void grammarPoolInternalSubset() throws Exception
+    {
+        TBXFile dv = new TBXFile(getFileURL("ValidDTD.xml"), config);
+        dv.parseAndValidate();
+        assertTrue(dv.isValid());
+        dv = new TBXFile(getFileURL("InternalSubset.xml"), config);
+        dv.parseAndValidate();
+        if (!dv.isValid())
+            throw dv.getInvalidatingExceptions().get(0);
+    }
+    
+    /**
+     * A DOCTYPE inside a prolog comment must not hide the internal subset
+     * of the real DOCTYPE from the grammar pool.
+     */
+    @Test
+    public void grammarPoolDoctypeComment() throws Exception
+    {
+        TBXFile dv = new TBXFile(getFileURL("ValidDTD.xml"), config);
+        dv.parseAndValidate();
+        assertTrue(dv.isValid());
+        dv = new TBXFile(getFileURL("InternalSubsetDoctypeComment.xml"), config);
+        dv.parseAndValidate();
+        if (!dv.isValid())
+            throw dv.getInvalidatingExceptions().get(0);
+    }
+    
+    @Test
+    public void mappedInput() throws Exception
+    {
+        config.setMappedInput(true);
+        TBXFile dv = new TBXFile(getFileURL("ValidDTD.xml"), config);
+        dv.parseAndValidate();
+        assertTrue("File not valid with mapped input", dv.isValid());
+        assertEquals(TBXFile.Type.DTD, dv.getType());
+    }
+    
+    /**
+     * Characters split across segments must decode the same as a stream.
+     */
+    @Test
+    public void mappedSegments() throws Exception
+    {
+        StringBuilder text = new StringBuilder("<?xml version='1.0'?>\n<p>");
+        for (int i = 0; i < 200; ++i)
+            text.append("\u00e9\u4e2d\ud83d\ude00");
+        text.append("</p>");
+        File file = File.createTempFile("mapped", ".xml");
+        file.deleteOnExit();
+        OutputStream out = new FileOutputStream(file);
+        out.write(new byte[] {(byte) 0xEF, (byte) 0xBB, (byte) 0xBF});
+        out.write(text.toString().getBytes("UTF-8"));
+        out.close();
+        
+        MappedFileReader in = new MappedFileReader(file, 17);
+        assertEquals("UTF-8", in.getEncoding());
+        StringBuilder read = new StringBuilder();
+        char[] buf = new char[5];
+        int n;
+        while ((n = in.read(buf, 0, buf.length)) >= 0)
+            read.append(buf, 0, n);
+        in.close();
+        assertEquals(text.toString(), read.toString());
+    }
+    
+    @Test
+    public void validationThreadsInvalidPickList() throws Exception
+    {
+        config.setValidationThreads(4);
+        TBXFile dv = new TBXFile(getFileURL("InvalidPickList.xml"), config);
+        dv.parseAndValidate();
+        assertTrue("Invalid pick in picklist not reported", !dv.isValid());
+        TBXException err = (TBXException) dv.getInvalidatingExceptions().get(0);
+        assertTrue("Exception not InvalidPickListException",
+            err.getCause() instanceof InvalidPickListException);
+    }
+    
+    /**
+     * With more termEntry elements than the validators may hold pending,
+     * the exceptions of scattered invalid entries are reported in the same
+     * order as with a single thread, with and without streaming.
+     */
+    @Test
+    public void validationThreadsManyEntries() throws Exception
+    {
+        String text = TestFiles.read(TestFiles.repeatTermEntry("InvalidPickList.xml", 40));
+        StringBuilder buf = new StringBuilder();
+        int last = 0;
+        int k = 0;
+        for (int i = text.indexOf(">tarfu<"); i >= 0; i = text.indexOf(">tarfu<", last))
+        {
+            buf.append(text, last, i);
+            buf.append((k++ % 7 == 3) ? ">tarfu" + k + "<" : ">intensionalDefinition<");
+            last = i + ">tarfu<".length();
+        }
+        buf.append(text.substring(last));
+        File file = File.createTempFile("scattered", ".xml");
+        file.deleteOnExit();
+        Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        out.write(buf.toString());
+        out.close();
+        
+        List<String> expected = invalidatingMessages(file, 1, false);
+        assertEquals(6, expected.size());
+        assertEquals(expected, invalidatingMessages(file, 4, false));
+        assertEquals(expected, invalidatingMessages(file, 1, true));
+        assertEquals(expected, invalidatingMessages(file, 4, true));
+    }
+    
+    /**
+     * Check a file and get the messages of its invalidating exceptions.
+     *
+     * @param file The file to check.
+     * @param threads Number of validation threads.
+     * @param streaming Release each termEntry once it is validated.
+     * @return The messages in the order they are reported.
+     */
+    private List<String> invalidatingMessages(File file, int threads, boolean streaming) throws Exception
+    {
+        Configuration c = new Configuration();
+        c.setValidationThreads(threads);
+        c.setStreaming(streaming);
+        TBXFile dv = new TBXFile(file.toURI().toURL(), c);
+        dv.parseAndValidate();
+        assertEquals(41, dv.getTermEntryCount());
+        List<String> ret = new ArrayList<String>();
+        for (TBXException err : dv.getInvalidatingExceptions())
+            ret.add(err.getLocalizedMessage());
+        return ret;
+    }
+    
+    /**
+     * A pooled parser must not carry state from one file to the next.
+     */
+    @Test
+    public void parserPoolReuse() throws Exception
+    {
+        long reused = ParserPool.getInstance().getReused();
+        String[] files = {"ValidDTD.xml", "InvalidPickList.xml", "ValidDTD.xml"};
+        boolean[] valid = {true, false, true};
+        for (int i = 0; i < files.length; ++i)
+        {
+            TBXFile dv = new TBXFile(getFileURL(files[i]), config);
+            dv.parseAndValidate();
+            assertEquals(files[i], valid[i], dv.isValid());
+            assertEquals(1, dv.getTermEntryCount());
+        }
+        assertTrue("Parsers not reused", ParserPool.getInstance().getReused() > reused);
+    }
+    
+    @Test
+    public void failFast() throws Exception
+    {
+        config.setFailFast(true);
+        TBXFile dv = new TBXFile(getFileURL("ValidDTD.xml"), config);
+        dv.parseAndValidate();
+        assertTrue(dv.isValid());
+        assertFalse(dv.isTruncated());
+        
+        dv = new TBXFile(getFileURL("InvalidPickList.xml"), config);
+        dv.parseAndValidate();
+        assertFalse(dv.isValid());
+        assertTrue("Fail fast did not truncate", dv.isTruncated());
+        assertEquals(1, dv.getInvalidatingExceptions().size());
+        assertTrue(dv.getInvalidatingExceptions().get(0).getCause() instanceof InvalidPickListException);
+    }
+    
+    @Test
+    public void compactWhitespace() throws Exception
+    {
+        config.setCompactWhitespace(true);
+        TBXFile dv = new TBXFile(getFileURL("ValidDTD.xml"), config);
+        dv.parseAndValidate();
+        assertTrue("Compact file not valid", dv.isValid());
+        Element entry = dv.getTermEntryMap().get("ID67");
+        for (Node node = entry.getFirstChild(); node != null; node = node.getNextSibling())
+            assertEquals(Node.ELEMENT_NODE, node.getNodeType());
+        Element term = (Element) entry.getElementsByTagName("term").item(0);
+        assertEquals("alpha smoothing factor", term.getTextContent());
+    }
 }
-
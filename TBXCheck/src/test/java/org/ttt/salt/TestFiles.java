@@ -0,0 +1,121 @@
+/*
+ * $Id$
+ *-----------------------------------------------------------------------------
+ * Copyright 2000 Lance Finn Helsten (helsten@acm.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ttt.salt;
+
+import static org.junit.Assert.*;
+import java.io.*;
+import java.net.URL;
+
+/**
+ * Test files shared by the tests of this package.
+ *
+ * @author  Lance Finn Helsten
+ * @version $Id$
+ */
+final class TestFiles
+{
+    private TestFiles()
+    {
+    }
+    
+    /**
+     * Get a test resource of this package.
+     *
+     * @param name The name of the resource.
+     * @return The URL of the resource.
+     */
+    static URL getFileURL(String name)
+    {
+        URL url = TestFiles.class.getResource("/org/ttt/salt/" + name);
+        assertNotNull("/org/ttt/salt/" + name + " not found.", url);
+        return url;
+    }
+    
+    /**
+     * Write a copy of a test file with its termEntry repeated.
+     *
+     * @param name The test file with a termEntry id='ID67'.
+     * @param copies Number of copies of the termEntry to add.
+     * @return The temporary file.
+     */
+    static File repeatTermEntry(String name, int copies) throws Exception
+    {
+        BufferedReader in = new BufferedReader(new InputStreamReader(
+            getFileURL(name).openStream(), "UTF-8"));
+        StringBuilder text = new StringBuilder();
+        for (String line = in.readLine(); line != null; line = in.readLine())
+            text.append(line).append('\n');
+        in.close();
+        int start = text.indexOf("<termEntry");
+        int end = text.indexOf("</termEntry>") + "</termEntry>".length();
+        String entry = text.substring(start, end);
+        for (int i = 0; i < copies; i++)
+            text.insert(end, entry.replace("ID67", "ID7" + i));
+        File file = File.createTempFile("repeat", ".xml");
+        file.deleteOnExit();
+        Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        out.write(text.toString());
+        out.close();
+        return file;
+    }
+    
+    /**
+     * Copy a test resource to a file.
+     *
+     * @param url The resource.
+     * @param file The file to write.
+     */
+    static void copy(URL url, File file) throws Exception
+    {
+        InputStream in = url.openStream();
+        OutputStream out = new FileOutputStream(file);
+        byte[] buf = new byte[8192];
+        for (int len = in.read(buf); len != -1; len = in.read(buf))
+            out.write(buf, 0, len);
+        in.close();
+        out.close();
+        file.deleteOnExit();
+    }
+    
+    /**
+     * Read a stream as UTF-8 text.
+     *
+     * @param input The stream to read.
+     * @return The text of the stream.
+     */
+    static String read(InputStream input) throws Exception
+    {
+        BufferedReader in = new BufferedReader(new InputStreamReader(input, "UTF-8"));
+        StringBuilder text = new StringBuilder();
+        for (String line = in.readLine(); line != null; line = in.readLine())
+            text.append(line).append('\n');
+        in.close();
+        return text.toString();
+    }
+    
+    /**
+     * Read a file as UTF-8 text.
+     *
+     * @param file The file to read.
+     * @return The text of the file.
+     */
+    static String read(File file) throws Exception
+    {
+        return read(new FileInputStream(file));
+    }
+}
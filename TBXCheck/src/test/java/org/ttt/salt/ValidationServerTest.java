@@ -0,0 +1,130 @@
+/*
+ * $Id$
+ *-----------------------------------------------------------------------------
+ * Copyright 2000 Lance Finn Helsten (helsten@acm.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ttt.salt;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+import java.io.*;
+import java.net.URL;
+import java.util.*;
+
+/**
+ *
+ * @author  Lance Finn Helsten
+ * @version $Id$
+ */
+public class ValidationServerTest
+{
+    @Test(timeout = 30000)
+    public void validationServer() throws Exception
+    {
+        Configuration config = new Configuration();
+        ValidationServer server = new ValidationServer(
+            new java.net.InetSocketAddress(java.net.InetAddress.getLoopbackAddress(), 0),
+            config, TestFiles.getFileURL("ValidDTD.xml"), 1, 0);
+        server.start();
+        try
+        {
+            String root = "http://localhost:" + server.getAddress().getPort();
+            String result = post(new URL(root + "/validate"), TestFiles.getFileURL("ValidDTD.xml"), false);
+            assertTrue(result, result.startsWith("{\"valid\":true,"));
+            
+            result = post(new URL(root + "/validate"), TestFiles.getFileURL("InvalidPickList.xml"), true);
+            assertTrue(result, result.startsWith("{\"valid\":false,"));
+            assertTrue(result, result.contains("\"code\":\"InvalidPickListException\""));
+            
+            String metrics = TestFiles.read(new URL(root + "/metrics").openStream());
+            assertTrue(metrics, metrics.contains("requests_completed 2"));
+            assertTrue(metrics, metrics.contains("latency_ms{quantile=\"0.99\"}"));
+        }
+        finally
+        {
+            server.stop(0);
+        }
+    }
+    
+    /**
+     * With one worker and no queue a request that arrives while another is
+     * being checked is refused right away.
+     */
+    @Test(timeout = 30000)
+    public void validationServerBusy() throws Exception
+    {
+        ValidationServer server = new ValidationServer(
+            new java.net.InetSocketAddress(java.net.InetAddress.getLoopbackAddress(), 0),
+            new Configuration(), TestFiles.getFileURL("ValidDTD.xml"), 1, 0);
+        server.start();
+        java.net.Socket held = new java.net.Socket(java.net.InetAddress.getLoopbackAddress(),
+            server.getAddress().getPort());
+        try
+        {
+            String root = "http://localhost:" + server.getAddress().getPort();
+            String prefix = TestFiles.read(TestFiles.getFileURL("ValidDTD.xml").openStream()).substring(0, 100);
+            OutputStream out = held.getOutputStream();
+            out.write(("POST /validate HTTP/1.1\r\nHost: localhost\r\nContent-Length: 100000\r\n\r\n"
+                + prefix).getBytes("UTF-8"));
+            out.flush();
+            Thread.sleep(500);
+            
+            java.net.HttpURLConnection conn = (java.net.HttpURLConnection)
+                new URL(root + "/validate").openConnection();
+            conn.setDoOutput(true);
+            conn.setRequestMethod("POST");
+            conn.getOutputStream().write(prefix.getBytes("UTF-8"));
+            conn.getOutputStream().close();
+            assertEquals(503, conn.getResponseCode());
+            assertEquals("1", conn.getHeaderField("Retry-After"));
+            
+            String metrics = TestFiles.read(new URL(root + "/metrics").openStream());
+            assertTrue(metrics, metrics.contains("requests_rejected 1"));
+        }
+        finally
+        {
+            held.close();
+            server.stop(0);
+        }
+    }
+    
+    /**
+     * Send a test resource to a URL.
+     *
+     * @param url The URL to post to.
+     * @param file The test resource to send.
+     * @param gzip Compress the resource.
+     * @return The response.
+     */
+    private String post(URL url, URL file, boolean gzip) throws Exception
+    {
+        java.net.HttpURLConnection conn = (java.net.HttpURLConnection) url.openConnection();
+        conn.setDoOutput(true);
+        conn.setRequestMethod("POST");
+        if (gzip)
+            conn.setRequestProperty("Content-Encoding", "gzip");
+        OutputStream out = conn.getOutputStream();
+        if (gzip)
+            out = new java.util.zip.GZIPOutputStream(out);
+        InputStream in = file.openStream();
+        byte[] buf = new byte[8192];
+        for (int len = in.read(buf); len != -1; len = in.read(buf))
+            out.write(buf, 0, len);
+        in.close();
+        out.close();
+        assertEquals(200, conn.getResponseCode());
+        return TestFiles.read(conn.getInputStream());
+    }
+}
@@ -172,6 +172,59 @@ public class XCSDocumentTest
     @Test
     public void getLevels() throws Exception
     {
+        java.util.Set<String> set = dcsdoc.getLevels(new XCSDocument.Key("descrip", "antonym-concept"));
+        assertEquals(1, set.size());
+        assertTrue(set.contains("termEntry"));
+        assertEquals(3, dcsdoc.getLevels(KEY_GOOD).size());
+        assertNull(dcsdoc.getLevels(KEY_BAD_0));
+    }
+    
+    @Test(expected=UnsupportedOperationException.class)
+    public void getPickListModify() throws Exception
+    {
+        dcsdoc.getPicklist(KEY_PICKLIST).add("fubar");
+    }
+    
+    @Test
+    public void getSpecKeys() throws Exception
+    {
+        assertTrue(dcsdoc.getSpecKeys().contains(KEY_GOOD));
+        assertTrue(dcsdoc.getSpecKeys().contains(KEY_PICKLIST));
+        assertTrue(!dcsdoc.getSpecKeys().contains(KEY_BAD_2));
+        assertTrue(dcsdoc.getSpecTypes("termNote", null).contains("animacy"));
+    }
+    
+    @Test
+    public void cacheSharesDocument() throws Exception
+    {
+        XCSCache cache = new XCSCache(1);
+        XCSDocument doc = cache.getXCSDocument(DXLT_XCS, RESOLVER, config);
+        assertSame(doc, cache.getXCSDocument(DXLT_XCS, RESOLVER, (Configuration) config.clone()));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertEquals(64, doc.getDigest().length());
+        assertTrue(doc.getSpec(KEY_GOOD) != null);
+    }
+    
+    @Test
+    public void cacheEvicts() throws Exception
+    {
+        XCSCache cache = new XCSCache(1);
+        XCSDocument doc = cache.getXCSDocument(DXLT_XCS, RESOLVER, config);
+        Configuration nolang = (Configuration) config.clone();
+        nolang.setCheckLang(false);
+        assertNotSame(doc, cache.getXCSDocument(DXLT_XCS, RESOLVER, nolang));
+        assertEquals(1, cache.size());
+        assertEquals(1, cache.getEvictions());
+        assertNotSame(doc, cache.getXCSDocument(DXLT_XCS, RESOLVER, config));
+        assertEquals(3, cache.getMisses());
+    }
+    
+    @Test
+    public void keyHashCode()
+    {
+        XCSDocument.Key key = new XCSDocument.Key("termNote", "abbreviatedFormFor");
+        assertEquals(KEY_GOOD, key);
+        assertEquals(KEY_GOOD.hashCode(), key.hashCode());
     }
 }
-
@@ -170,6 +170,27 @@ public class TBXParserTest
         assertFalse(doc.getParseExceptions().isEmpty());
         LOGGER.setLevel(Level.INFO);
     }
+    
+    @Test
+    public void coalesceText() throws SAXException
+    {
+        access.document(new TBXDocument(true));
+        parser.setDocumentLocator(locator);
+        parser.startDocument();
+        Attributes atts = new org.xml.sax.helpers.AttributesImpl();
+        parser.startElement("", "martif", "martif", atts);
+        parser.characters("xxalpha".toCharArray(), 2, 5);
+        parser.characters(" beta".toCharArray(), 0, 5);
+        parser.ignorableWhitespace("\n".toCharArray(), 0, 1);
+        parser.startElement("", "note", "note", atts);
+        parser.characters("gamma".toCharArray(), 0, 5);
+        parser.endElement("", "note", "note");
+        parser.endElement("", "martif", "martif");
+        parser.endDocument();
+        
+        TBXElement martif = (TBXElement) access.document().getDocumentElement();
+        assertEquals(2, martif.getChildNodes().getLength());
+        assertEquals("alpha beta\n", martif.getFirstChild().getNodeValue());
+        assertEquals("gamma", martif.getLastChild().getTextContent());
+    }
 }
-
-
@@ -0,0 +1,99 @@
+/*
+ * $Id$
+ *-----------------------------------------------------------------------------
+ * Copyright 2000 Lance Finn Helsten (helsten@acm.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ttt.salt.benchmarks;
+
+import java.util.Collection;
+import java.util.Map;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * This runs {@link ParseAndValidateBenchmark} with the GC profiler and
+ * prints the baseline table: termEntry elements per second, megabytes per
+ * second, and bytes allocated per termEntry for each combination of
+ * parameters.
+ * <p>
+ * The arguments are JMH command line options, so for a quick run use
+ * <code>-p entries=1000</code> or fewer iterations.</p>
+ *
+ * @author Lance Finn Helsten
+ * @version $Id$
+ * @license Licensed under the Apache License, Version 2.0.
+ */
+public final class Baseline
+{
+    /*
+     */
+    
+    /** SCM information. */
+    public static final String RCSID = "$Id$";
+    
+    /** Bytes in a megabyte. */
+    private static final double MEGABYTE = 1024.0 * 1024.0;
+    
+    /**
+     * This is only run from the command line.
+     */
+    private Baseline()
+    {
+    }
+    
+    /**
+     * Run the benchmark and print the baseline table.
+     *
+     * @param argv JMH command line options.
+     * @throws CommandLineOptionException The options are invalid.
+     * @throws RunnerException The benchmark could not be run.
+     */
+    public static void main(String[] argv) throws CommandLineOptionException, RunnerException
+    {
+        Options options = new OptionsBuilder()
+            .parent(new CommandLineOptions(argv))
+            .include(ParseAndValidateBenchmark.class.getName() + ".")
+            .addProfiler(GCProfiler.class)
+            .build();
+        Collection<RunResult> results = new Runner(options).run();
+        
+        System.out.println();
+        System.out.println(String.format("%-9s %-6s %-13s %-9s %14s %10s %14s",
+            "entries", "format", "checkEachTerm", "checkLang", "entries/s", "MB/s", "bytes/entry"));
+        for (RunResult result : results)
+        {
+            BenchmarkParams params = result.getParams();
+            Map<String, Result> secondary = result.getAggregatedResult().getSecondaryResults();
+            int entries = Integer.parseInt(params.getParam("entries"));
+            Result alloc = secondary.get("gc.alloc.rate.norm");
+            System.out.println(String.format("%-9d %-6s %-13s %-9s %14.0f %10.2f %14.0f",
+                entries,
+                params.getParam("format"),
+                params.getParam("checkEachTerm"),
+                params.getParam("checkLang"),
+                secondary.get("entries").getScore(),
+                secondary.get("bytes").getScore() / MEGABYTE,
+                (alloc == null) ? Double.NaN : alloc.getScore() / entries));
+        }
+    }
+}
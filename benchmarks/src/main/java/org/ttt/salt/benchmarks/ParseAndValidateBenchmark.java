@@ -0,0 +1,167 @@
+/*
+ * $Id$
+ *-----------------------------------------------------------------------------
+ * Copyright 2000 Lance Finn Helsten (helsten@acm.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ttt.salt.benchmarks;
+
+import java.io.File;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.ttt.salt.Configuration;
+import org.ttt.salt.TBXFile;
+
+/**
+ * This measures {@link TBXFile#parseAndValidate} end to end on generated
+ * termbases.
+ * <p>
+ * One operation checks the whole termbase. Besides operations per second
+ * the <code>entries</code> and <code>bytes</code> counters give the
+ * termEntry elements and the bytes checked per second. Run with
+ * <code>-prof gc</code> for the bytes allocated per operation, or use
+ * {@link Baseline} to have these turned into entries/s, MB/s and bytes
+ * allocated per termEntry.</p>
+ * <p>
+ * Every termbase is checked in streaming mode so the largest termbases
+ * fit in a normal heap. The parser pool, grammar pool and XCS cache are
+ * used as they are by default, so this measures a warm process.</p>
+ *
+ * @author Lance Finn Helsten
+ * @version $Id$
+ * @license Licensed under the Apache License, Version 2.0.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ParseAndValidateBenchmark
+{
+    /*
+     */
+    
+    /** SCM information. */
+    public static final String RCSID = "$Id$";
+    
+    /** Number of termEntry elements in the termbase. */
+    @Param({"1000", "100000", "1000000"})
+    public int entries;
+    
+    /** The way the TBX grammar is given. */
+    @Param({"DTD", "SCHEMA"})
+    public Termbase.Format format;
+    
+    /** Validate each termEntry against the XCS. */
+    @Param({"true", "false"})
+    public boolean checkEachTerm;
+    
+    /** Check the xml:lang values against the XCS languages. */
+    @Param({"true", "false"})
+    public boolean checkLang;
+    
+    /** The generated termbase. */
+    private File termbase;
+    
+    /** The URL of the generated termbase. */
+    private URL url;
+    
+    /** The configuration for each check. */
+    private Configuration config;
+    
+    /**
+     * The termEntry elements and bytes checked, which JMH reports as rates.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Counters
+    {
+        /** Number of termEntry elements checked. */
+        public long entries;
+        
+        /** Number of termbase bytes checked. */
+        public long bytes;
+        
+        /** Start each iteration from zero. */
+        @Setup(Level.Iteration)
+        public void reset()
+        {
+            entries = 0;
+            bytes = 0;
+        }
+    }
+    
+    /**
+     * Generate the termbase.
+     *
+     * @throws Exception Any exceptions building the termbase.
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws Exception
+    {
+        termbase = Termbase.createTempFile(format, entries);
+        url = termbase.toURI().toURL();
+        config = new Configuration();
+        config.setStreaming(true);
+        config.setCheckEachTerm(checkEachTerm);
+        config.setCheckLang(checkLang);
+        
+        TBXFile dv = new TBXFile(url, (Configuration) config.clone());
+        dv.parseAndValidate();
+        if (dv.getTermEntryCount() != entries)
+            throw new IllegalStateException(String.format("Checked %d of %d termEntry elements.",
+                dv.getTermEntryCount(), entries));
+    }
+    
+    /**
+     * Remove the termbase.
+     */
+    @TearDown(Level.Trial)
+    public void tearDown()
+    {
+        termbase.delete();
+    }
+    
+    /**
+     * Check the termbase.
+     *
+     * @param counters The termEntry and byte counters.
+     * @return The result so it is not optimized away.
+     * @throws Exception Any exceptions checking the termbase.
+     */
+    @Benchmark
+    public boolean parseAndValidate(Counters counters) throws Exception
+    {
+        TBXFile dv = new TBXFile(url, (Configuration) config.clone());
+        dv.parseAndValidate();
+        counters.entries += dv.getTermEntryCount();
+        counters.bytes += termbase.length();
+        return dv.isValid();
+    }
+}
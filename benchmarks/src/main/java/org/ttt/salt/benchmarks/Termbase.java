@@ -0,0 +1,168 @@
+/*
+ * $Id$
+ *-----------------------------------------------------------------------------
+ * Copyright 2000 Lance Finn Helsten (helsten@acm.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ttt.salt.benchmarks;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * This generates TBX termbases of a given number of termEntry elements for
+ * the benchmarks.
+ * <p>
+ * Every termEntry is valid against the demo XCS that ships with TBXCheck,
+ * and has a subject field, a definition with inline markup, a descripGrp,
+ * and an English and a Hungarian term. The same arguments always produce
+ * the same bytes.</p>
+ *
+ * @author Lance Finn Helsten
+ * @version $Id$
+ * @license Licensed under the Apache License, Version 2.0.
+ */
+public final class Termbase
+{
+    /*
+     */
+    
+    /** SCM information. */
+    public static final String RCSID = "$Id$";
+    
+    /**
+     * The way the TBX grammar is given.
+     */
+    public enum Format
+    {
+        /** The TBX core DTD is given in the DOCTYPE. */
+        DTD,
+        
+        /**
+         * There is no DOCTYPE and the martif element has a schema namespace.
+         * TBXCheck classifies these files as SCHEMA and reports that there
+         * is no grammar, but every termEntry is still parsed and checked.
+         */
+        SCHEMA;
+    }
+    
+    /** The start of a DTD termbase. */
+    private static final String DTD_HEADER =
+        "<?xml version='1.0' encoding='UTF-8'?>\n"
+        + "<!DOCTYPE martif PUBLIC \"ISO 30042:2008A//DTD TBX core//EN\" \"TBXcoreStructV02.dtd\">\n"
+        + "<martif type='TBX' xml:lang='en'>\n";
+    
+    /** The start of a schema style termbase. */
+    private static final String SCHEMA_HEADER =
+        "<?xml version='1.0' encoding='UTF-8'?>\n"
+        + "<martif type='TBX' xml:lang='en' xmlns='x-schema:XLTcsV04.xml'>\n";
+    
+    /** The martifHeader and the start of the body. */
+    private static final String MARTIF_HEADER =
+        "    <martifHeader>\n"
+        + "        <fileDesc>\n"
+        + "            <sourceDesc>\n"
+        + "                <p>Generated for the TBXCheck benchmarks</p>\n"
+        + "            </sourceDesc>\n"
+        + "        </fileDesc>\n"
+        + "        <encodingDesc>\n"
+        + "            <p type='DCSName'>/xml/TBXDCSv05.xml</p>\n"
+        + "        </encodingDesc>\n"
+        + "    </martifHeader>\n"
+        + "    <text>\n"
+        + "        <body>\n";
+    
+    /** A termEntry where the arguments are the entry number. */
+    private static final String TERM_ENTRY =
+        "            <termEntry id='E%1$d'>\n"
+        + "                <descrip type='subjectField'>manufacturing</descrip>\n"
+        + "                <descrip type='definition'>A value <hi>%1$d</hi> between 0 and 1 used in ...</descrip>\n"
+        + "                <descripGrp>\n"
+        + "                    <descrip type='classificationCode'>%1$d</descrip>\n"
+        + "                    <descripNote type='definitionType'>intensionalDefinition</descripNote>\n"
+        + "                </descripGrp>\n"
+        + "                <langSet xml:lang='en'>\n"
+        + "                    <tig>\n"
+        + "                        <term>alpha smoothing factor %1$d</term>\n"
+        + "                    </tig>\n"
+        + "                </langSet>\n"
+        + "                <langSet xml:lang='hu'>\n"
+        + "                    <tig>\n"
+        + "                        <term>alfa simítási tényező %1$d</term>\n"
+        + "                    </tig>\n"
+        + "                </langSet>\n"
+        + "            </termEntry>\n";
+    
+    /** The end of the body and the document. */
+    private static final String TRAILER =
+        "        </body>\n"
+        + "    </text>\n"
+        + "</martif>\n";
+    
+    /**
+     * This is a static utility class.
+     */
+    private Termbase()
+    {
+    }
+    
+    /**
+     * Write a termbase.
+     *
+     * @param out The stream to write the UTF-8 termbase to.
+     * @param format The way the TBX grammar is given.
+     * @param entries Number of termEntry elements.
+     * @throws IOException Any I/O exceptions writing the termbase.
+     */
+    public static void write(OutputStream out, Format format, int entries) throws IOException
+    {
+        Writer w = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"));
+        w.write(format == Format.DTD ? DTD_HEADER : SCHEMA_HEADER);
+        w.write(MARTIF_HEADER);
+        for (int i = 0; i < entries; i++)
+            w.write(String.format(TERM_ENTRY, i));
+        w.write(TRAILER);
+        w.flush();
+    }
+    
+    /**
+     * Write a termbase to a temporary file that is deleted when the virtual
+     * machine exits.
+     *
+     * @param format The way the TBX grammar is given.
+     * @param entries Number of termEntry elements.
+     * @return The temporary file.
+     * @throws IOException Any I/O exceptions writing the termbase.
+     */
+    public static File createTempFile(Format format, int entries) throws IOException
+    {
+        File ret = File.createTempFile("termbase" + entries, ".tbx");
+        ret.deleteOnExit();
+        OutputStream out = new FileOutputStream(ret);
+        try
+        {
+            write(out, format, entries);
+        }
+        finally
+        {
+            out.close();
+        }
+        return ret;
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * $Id$
+ *-----------------------------------------------------------------------------
+ * Copyright 2000 Lance Finn Helsten (helsten@acm.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ttt.salt.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.CharArrayReader;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.flyingtitans.xml.ElementalParser;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * This compares the block buffered {@link ElementalParser} with the
+ * character at a time {@link LegacyElementalParser} it replaced, over the
+ * same generated termbase in memory. The <code>chars</code> counter gives
+ * the characters tokenized per second.
+ *
+ * @author Lance Finn Helsten
+ * @version $Id$
+ * @license Licensed under the Apache License, Version 2.0.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TokenizerBenchmark
+{
+    /*
+     */
+    
+    /** SCM information. */
+    public static final String RCSID = "$Id$";
+    
+    /** Number of termEntry elements in the termbase. */
+    private static final int ENTRIES = 10000;
+    
+    /** The termbase characters. */
+    private char[] text;
+    
+    /**
+     * The characters tokenized, which JMH reports as a rate.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Counters
+    {
+        /** Number of characters tokenized. */
+        public long chars;
+        
+        /** Start each iteration from zero. */
+        @Setup(Level.Iteration)
+        public void reset()
+        {
+            chars = 0;
+        }
+    }
+    
+    /**
+     * Generate the termbase.
+     *
+     * @throws IOException Any I/O exceptions building the termbase.
+     */
+    @Setup
+    public void setUp() throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Termbase.write(out, Termbase.Format.DTD, ENTRIES);
+        text = out.toString("UTF-8").toCharArray();
+        int current = current(new Counters());
+        int legacy = legacy(new Counters());
+        if (current != legacy)
+            throw new IllegalStateException(String.format("Found %d tokens, the legacy tokenizer %d.",
+                current, legacy));
+    }
+    
+    /**
+     * Tokenize with the current tokenizer.
+     *
+     * @param counters The character counter.
+     * @return The number of tokens.
+     * @throws IOException Any I/O exceptions tokenizing.
+     */
+    @Benchmark
+    public int current(Counters counters) throws IOException
+    {
+        ElementalParser parser = new ElementalParser(text, 0, text.length);
+        int ret = 0;
+        while (parser.next() != ElementalParser.Token.EOF)
+            ret++;
+        counters.chars += text.length;
+        return ret;
+    }
+    
+    /**
+     * Tokenize with the legacy tokenizer.
+     *
+     * @param counters The character counter.
+     * @return The number of tokens.
+     * @throws IOException Any I/O exceptions tokenizing.
+     */
+    @Benchmark
+    public int legacy(Counters counters) throws IOException
+    {
+        LegacyElementalParser parser = new LegacyElementalParser(new CharArrayReader(text));
+        int ret = 0;
+        while (parser.next() != LegacyElementalParser.Token.EOF)
+            ret++;
+        counters.chars += text.length;
+        return ret;
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * $Id$
+ *-----------------------------------------------------------------------------
+ * Copyright 2000 Lance Finn Helsten (helsten@acm.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ttt.salt.benchmarks;
+
+import java.io.File;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.ttt.salt.Configuration;
+import org.ttt.salt.TBXFile;
+import org.ttt.salt.TBXResolver;
+import org.ttt.salt.XCSCache;
+import org.ttt.salt.XCSDocument;
+import org.ttt.salt.XCSValidationException;
+import org.w3c.dom.Element;
+
+/**
+ * This measures {@link XCSDocument#validateTermEntry} for a single
+ * termEntry, without the cost of parsing the TBX document.
+ *
+ * @author Lance Finn Helsten
+ * @version $Id$
+ * @license Licensed under the Apache License, Version 2.0.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class XCSValidationBenchmark
+{
+    /*
+     */
+    
+    /** SCM information. */
+    public static final String RCSID = "$Id$";
+    
+    /** Number of termEntry elements validated by each invocation. */
+    private static final int ENTRIES = 1000;
+    
+    /** Check the xml:lang values against the XCS languages. */
+    @Param({"true", "false"})
+    public boolean checkLang;
+    
+    /** The XCS to validate against. */
+    private XCSDocument xcs;
+    
+    /** The termEntry elements to validate. */
+    private Element[] termEntries;
+    
+    /**
+     * Parse the XCS and a termbase.
+     *
+     * @throws Exception Any exceptions building the documents.
+     */
+    @Setup
+    public void setUp() throws Exception
+    {
+        File termbase = Termbase.createTempFile(Termbase.Format.DTD, ENTRIES);
+        URL url = termbase.toURI().toURL();
+        Configuration config = new Configuration();
+        config.setCheckEachTerm(false);
+        config.setCheckLang(checkLang);
+        TBXFile dv = new TBXFile(url, config);
+        dv.parseAndValidate();
+        termEntries = dv.getTermEntryMap().values().toArray(new Element[0]);
+        if (termEntries.length != ENTRIES)
+            throw new IllegalStateException("Found " + termEntries.length + " termEntry elements.");
+        xcs = XCSCache.getInstance().getXCSDocument("/xml/TBXDCSv05.xml", new TBXResolver(url), config);
+        termbase.delete();
+    }
+    
+    /**
+     * Validate every termEntry once.
+     *
+     * @param bh Consumes the results.
+     */
+    @Benchmark
+    @OperationsPerInvocation(ENTRIES)
+    public void validateTermEntry(Blackhole bh)
+    {
+        for (Element entry : termEntries)
+        {
+            try
+            {
+                xcs.validateTermEntry(entry);
+                bh.consume(true);
+            }
+            catch (XCSValidationException err)
+            {
+                bh.consume(err);
+            }
+        }
+    }
+}